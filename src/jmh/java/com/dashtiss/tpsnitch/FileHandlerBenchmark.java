@@ -0,0 +1,89 @@
+package com.dashtiss.tpsnitch;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost of persisting one interval, as paid by the writer thread, against logs of different sizes.
+ * The JSON layout rewrites the whole file every time, NDJSON segments only append.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileHandlerBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int entries;
+
+    private Path directory;
+    private String jsonLog;
+    private SegmentLog segmentLog;
+    private long nextTimestamp;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tpsnitch-bench");
+        jsonLog = directory.resolve("TPSLogs.json").toString();
+
+        Config.MaxLogs = entries;
+        Config.SegmentMaxEntries = 10_000;
+
+        // Timestamps are keyed to the second, so every entry needs its own second
+        nextTimestamp = System.currentTimeMillis() - entries * 1000L;
+        List<StatsSample> existing = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            existing.add(sample());
+        }
+        FileHandler.saveFile(existing, jsonLog);
+
+        segmentLog = new SegmentLog(directory.resolve("Segments.json").toString());
+        segmentLog.write(existing);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        segmentLog.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void saveJson() {
+        FileHandler.saveFile(List.of(sample()), jsonLog);
+    }
+
+    @Benchmark
+    public void appendSegment() {
+        segmentLog.write(List.of(sample()));
+    }
+
+    private StatsSample sample() {
+        StatsSample sample = new StatsSample(nextTimestamp, 12, 19.97, 23);
+        nextTimestamp += 1000L;
+        sample.tps1m = 19.99;
+        sample.tps5m = 19.98;
+        sample.tps15m = 19.95;
+        sample.tickCount = 600;
+        sample.msptMeanNanos = 23_000_000L;
+        sample.msptP50Nanos = 21_000_000L;
+        sample.msptP90Nanos = 30_000_000L;
+        sample.msptP99Nanos = 48_000_000L;
+        sample.msptP999Nanos = 55_000_000L;
+        sample.msptMaxNanos = 61_000_000L;
+        return sample;
+    }
+}
@@ -0,0 +1,87 @@
+package com.dashtiss.tpsnitch;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-tick cost of the structures the server thread writes to, plus the cross-thread
+ * handoffs to the writer and the metrics endpoint. Everything here should stay allocation free
+ * (check the gc.alloc.rate.norm column).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordingBenchmark {
+
+    private final LongHistogram histogram = new LongHistogram(60_000_000_000L);
+    private final TickTimings tickTimings = new TickTimings();
+    private final TickHistory tickHistory = new TickHistory(6_000);
+    private final RollingTps rollingTps = new RollingTps();
+    private final SampleQueue queue = new SampleQueue(64);
+    private final LiveMetrics liveMetrics = new LiveMetrics();
+    private final SelfProfiler selfProfiler = new SelfProfiler();
+    private final MetricsSnapshot snapshot = new MetricsSnapshot();
+    private final StatsSample sample = new StatsSample(0, 12, 20.0, 23);
+
+    private long nowNanos;
+    private long tickNumber;
+
+    // Roughly the spread of a healthy server with the occasional spike
+    private long nextTickNanos() {
+        tickNumber++;
+        return (tickNumber & 1023) == 0 ? 180_000_000L : 18_000_000L + (tickNumber & 0xFFFF) * 97;
+    }
+
+    @Benchmark
+    public void histogramRecord() {
+        histogram.record(nextTickNanos());
+    }
+
+    @Benchmark
+    public long tickTimings() {
+        tickTimings.startTick(nowNanos);
+        nowNanos += nextTickNanos();
+        return tickTimings.endTick(nowNanos);
+    }
+
+    @Benchmark
+    public void tickHistoryRecord() {
+        tickHistory.record(tickNumber * 50, nextTickNanos(), 12);
+    }
+
+    @Benchmark
+    public void rollingTps() {
+        nowNanos += 50_000_000L;
+        rollingTps.tick(nowNanos);
+    }
+
+    @Benchmark
+    public StatsSample queueOfferPoll() {
+        queue.offer(sample);
+        return queue.poll();
+    }
+
+    @Benchmark
+    public void liveMetricsPublish() {
+        long tick = nextTickNanos();
+        liveMetrics.publishTick(tickNumber * 50, tickNumber, 20.0, 19.99, 19.98, 19.95, tick, tick, 12, 1_200, 0, 0, 0, 0, 0);
+    }
+
+    @Benchmark
+    public long selfProfilerTick() {
+        selfProfiler.add(SelfProfiler.Hook.TICK_START, 800);
+        selfProfiler.add(SelfProfiler.Hook.WORLD_TICK, 300);
+        selfProfiler.add(SelfProfiler.Hook.TICK_END, 2_500);
+        return selfProfiler.endTick();
+    }
+
+    @Benchmark
+    public void liveMetricsRead(Blackhole blackhole) {
+        blackhole.consume(liveMetrics.read(snapshot));
+    }
+}
@@ -0,0 +1,58 @@
+package com.dashtiss.tpsnitch;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Cost of turning the server's average tick time into TPS and MSPT. A real
+ * {@code MinecraftServer} can't be built outside the game, so a supplier stands in for
+ * {@code getAverageTickTimeNanos()} and the conversions are called the same way
+ * {@link Tpsnitch#getTPS} and {@link Tpsnitch#getMSTP} call them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TpsBenchmark {
+
+    // Alternates between a healthy and a lagging tick time. The not-yet-available case logs at debug
+    // level, so it has its own benchmark instead of skewing these.
+    private final long[] averages = {23_000_000L, 87_000_000L};
+    private int index;
+
+    // Wraps instead of counting up, which would overflow within a trial at a few ns per call
+    private final LongSupplier averageTickNanos = () -> {
+        index = (index + 1) % averages.length;
+        return averages[index];
+    };
+
+    // Not final, so the JIT can't fold the call down to a constant
+    private long unavailableNanos;
+
+    @Benchmark
+    public double tps() {
+        return Tpsnitch.tpsFromAverageNanos(averageTickNanos.getAsLong());
+    }
+
+    @Benchmark
+    public long mspt() {
+        return Tpsnitch.mstpFromAverageNanos(averageTickNanos.getAsLong());
+    }
+
+    @Benchmark
+    public long msptUnavailable() {
+        return Tpsnitch.mstpFromAverageNanos(unavailableNanos);
+    }
+
+    @Benchmark
+    public void tpsAndMspt(Blackhole blackhole) {
+        long nanos = averageTickNanos.getAsLong();
+        blackhole.consume(Tpsnitch.tpsFromAverageNanos(nanos));
+        blackhole.consume(Tpsnitch.mstpFromAverageNanos(nanos));
+    }
+}
@@ -0,0 +1,271 @@
+package com.dashtiss.tpsnitch;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Encodes a block of {@link TimeSeriesPoint}s column by column, using the compression from
+ * Facebook's Gorilla paper: integers are stored as delta-of-deltas and doubles as the XOR with
+ * the previous value. Samples are taken at a steady rate and change slowly, so most values
+ * shrink to a handful of bits (an unchanged value costs one bit).
+ */
+final class BlockCodec {
+
+    private record LongColumn(ToLongFunction<TimeSeriesPoint> getter, ObjLongConsumer<TimeSeriesPoint> setter) {
+    }
+
+    private record DoubleColumn(ToDoubleFunction<TimeSeriesPoint> getter, ObjDoubleConsumer<TimeSeriesPoint> setter) {
+    }
+
+    // Column order is part of the file format. Only ever append new columns (and bump the file version).
+    private static final List<LongColumn> LONG_COLUMNS = List.of(
+            new LongColumn(p -> p.timestampMillis, (p, v) -> p.timestampMillis = v),
+            new LongColumn(p -> p.intervals, (p, v) -> p.intervals = v),
+            new LongColumn(p -> p.ticks, (p, v) -> p.ticks = v),
+            new LongColumn(p -> p.ticksOver50ms, (p, v) -> p.ticksOver50ms = v),
+            new LongColumn(p -> p.msptMeanNanos, (p, v) -> p.msptMeanNanos = v),
+            new LongColumn(p -> p.msptP50Nanos, (p, v) -> p.msptP50Nanos = v),
+            new LongColumn(p -> p.msptP90Nanos, (p, v) -> p.msptP90Nanos = v),
+            new LongColumn(p -> p.msptP99Nanos, (p, v) -> p.msptP99Nanos = v),
+            new LongColumn(p -> p.msptP999Nanos, (p, v) -> p.msptP999Nanos = v),
+            new LongColumn(p -> p.msptMaxNanos, (p, v) -> p.msptMaxNanos = v),
+            new LongColumn(p -> p.playersMin, (p, v) -> p.playersMin = (int) v),
+            new LongColumn(p -> p.playersMax, (p, v) -> p.playersMax = (int) v),
+            new LongColumn(p -> p.joins, (p, v) -> p.joins = v),
+            new LongColumn(p -> p.leaves, (p, v) -> p.leaves = v)
+    );
+
+    private static final List<DoubleColumn> DOUBLE_COLUMNS = List.of(
+            new DoubleColumn(p -> p.tpsMin, (p, v) -> p.tpsMin = v),
+            new DoubleColumn(p -> p.tpsAvg, (p, v) -> p.tpsAvg = v),
+            new DoubleColumn(p -> p.tpsMax, (p, v) -> p.tpsMax = v),
+            new DoubleColumn(p -> p.playersAvg, (p, v) -> p.playersAvg = v)
+    );
+
+    private BlockCodec() {
+    }
+
+    /**
+     * Encodes the points (which should be in time order) into a block payload.
+     */
+    static byte[] encode(List<TimeSeriesPoint> points) {
+        BitWriter out = new BitWriter(points.size() * 16);
+        for (LongColumn column : LONG_COLUMNS) {
+            long previous = 0;
+            long previousDelta = 0;
+            for (int i = 0; i < points.size(); i++) {
+                long value = column.getter().applyAsLong(points.get(i));
+                if (i == 0) {
+                    out.writeBits(value, 64);
+                } else {
+                    long delta = value - previous;
+                    writeDeltaOfDelta(out, delta - previousDelta);
+                    previousDelta = delta;
+                }
+                previous = value;
+            }
+        }
+        for (DoubleColumn column : DOUBLE_COLUMNS) {
+            XorState state = new XorState();
+            for (int i = 0; i < points.size(); i++) {
+                long bits = Double.doubleToLongBits(column.getter().applyAsDouble(points.get(i)));
+                if (i == 0) {
+                    out.writeBits(bits, 64);
+                } else {
+                    writeXor(out, state, bits);
+                }
+                state.previous = bits;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes {@code count} points from a block payload.
+     *
+     * @param payload The payload, from its current position to its limit.
+     */
+    static List<TimeSeriesPoint> decode(ByteBuffer payload, int count) {
+        List<TimeSeriesPoint> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            points.add(new TimeSeriesPoint());
+        }
+        BitReader in = new BitReader(payload);
+        for (LongColumn column : LONG_COLUMNS) {
+            long previous = 0;
+            long previousDelta = 0;
+            for (int i = 0; i < count; i++) {
+                long value;
+                if (i == 0) {
+                    value = in.readBits(64);
+                } else {
+                    long delta = previousDelta + readDeltaOfDelta(in);
+                    value = previous + delta;
+                    previousDelta = delta;
+                }
+                column.setter().accept(points.get(i), value);
+                previous = value;
+            }
+        }
+        for (DoubleColumn column : DOUBLE_COLUMNS) {
+            XorState state = new XorState();
+            for (int i = 0; i < count; i++) {
+                long bits = i == 0 ? in.readBits(64) : readXor(in, state);
+                column.setter().accept(points.get(i), Double.longBitsToDouble(bits));
+                state.previous = bits;
+            }
+        }
+        return points;
+    }
+
+    // Control bits, then the value in the smallest signed width that holds it
+    private static void writeDeltaOfDelta(BitWriter out, long dod) {
+        if (dod == 0) {
+            out.writeBits(0b0, 1);
+        } else if (fits(dod, 7)) {
+            out.writeBits(0b10, 2);
+            out.writeBits(dod, 7);
+        } else if (fits(dod, 9)) {
+            out.writeBits(0b110, 3);
+            out.writeBits(dod, 9);
+        } else if (fits(dod, 12)) {
+            out.writeBits(0b1110, 4);
+            out.writeBits(dod, 12);
+        } else if (fits(dod, 32)) {
+            out.writeBits(0b11110, 5);
+            out.writeBits(dod, 32);
+        } else {
+            out.writeBits(0b11111, 5);
+            out.writeBits(dod, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader in) {
+        if (in.readBits(1) == 0) {
+            return 0;
+        }
+        if (in.readBits(1) == 0) {
+            return signed(in.readBits(7), 7);
+        }
+        if (in.readBits(1) == 0) {
+            return signed(in.readBits(9), 9);
+        }
+        if (in.readBits(1) == 0) {
+            return signed(in.readBits(12), 12);
+        }
+        if (in.readBits(1) == 0) {
+            return signed(in.readBits(32), 32);
+        }
+        return in.readBits(64);
+    }
+
+    private static boolean fits(long value, int bits) {
+        long min = -(1L << (bits - 1));
+        return value >= min && value <= -min - 1;
+    }
+
+    private static long signed(long value, int bits) {
+        return (value << (64 - bits)) >> (64 - bits);
+    }
+
+    private static final class XorState {
+        long previous;
+        int leadingZeros = -1;
+        int trailingZeros;
+    }
+
+    private static void writeXor(BitWriter out, XorState state, long bits) {
+        long xor = bits ^ state.previous;
+        if (xor == 0) {
+            out.writeBits(0b0, 1);
+            return;
+        }
+        out.writeBits(0b1, 1);
+        // Leading zeros are stored in 5 bits
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (state.leadingZeros >= 0 && leading >= state.leadingZeros && trailing >= state.trailingZeros) {
+            // The changed bits fit in the previous window
+            out.writeBits(0b0, 1);
+            out.writeBits(xor >>> state.trailingZeros, 64 - state.leadingZeros - state.trailingZeros);
+        } else {
+            int meaningful = 64 - leading - trailing;
+            out.writeBits(0b1, 1);
+            out.writeBits(leading, 5);
+            out.writeBits(meaningful - 1, 6);
+            out.writeBits(xor >>> trailing, meaningful);
+            state.leadingZeros = leading;
+            state.trailingZeros = trailing;
+        }
+    }
+
+    private static long readXor(BitReader in, XorState state) {
+        if (in.readBits(1) == 0) {
+            return state.previous;
+        }
+        if (in.readBits(1) == 1) {
+            state.leadingZeros = (int) in.readBits(5);
+            int meaningful = (int) in.readBits(6) + 1;
+            state.trailingZeros = 64 - state.leadingZeros - meaningful;
+        }
+        int meaningful = 64 - state.leadingZeros - state.trailingZeros;
+        return state.previous ^ (in.readBits(meaningful) << state.trailingZeros);
+    }
+
+    /**
+     * Writes bits most significant first into a growing byte array.
+     */
+    private static final class BitWriter {
+        private byte[] bytes;
+        private long bitPosition;
+
+        BitWriter(int initialBytes) {
+            bytes = new byte[Math.max(16, initialBytes)];
+        }
+
+        void writeBits(long value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                int byteIndex = (int) (bitPosition >>> 3);
+                if (byteIndex == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                if (((value >>> i) & 1) != 0) {
+                    bytes[byteIndex] |= (byte) (0x80 >>> (bitPosition & 7));
+                }
+                bitPosition++;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, (int) ((bitPosition + 7) >>> 3));
+        }
+    }
+
+    private static final class BitReader {
+        private final ByteBuffer buffer;
+        private final int start;
+        private long bitPosition;
+
+        BitReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.start = buffer.position();
+        }
+
+        long readBits(int count) {
+            long value = 0;
+            for (int i = 0; i < count; i++) {
+                int byteIndex = start + (int) (bitPosition >>> 3);
+                int bit = (buffer.get(byteIndex) >>> (7 - (bitPosition & 7))) & 1;
+                value = (value << 1) | bit;
+                bitPosition++;
+            }
+            return value;
+        }
+    }
+}
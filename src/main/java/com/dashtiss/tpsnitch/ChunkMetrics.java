@@ -0,0 +1,150 @@
+package com.dashtiss.tpsnitch;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.server.level.ServerLevel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chunk loading and world I/O: how many chunks were loaded, generated, unloaded and saved each
+ * interval, how long the server thread spent handing saves off and how long the I/O workers took
+ * to write them, how many chunks each dimension has loaded and how many chunk tasks are queued up
+ * for the server thread.
+ *
+ * <p>The event counters only ever grow, so whichever thread fires an event can count it without
+ * locking, and the server thread works out each interval's numbers from the difference to the
+ * totals it saw last time.
+ */
+public class ChunkMetrics {
+
+    private static final ChunkMetrics INSTANCE = new ChunkMetrics();
+
+    // Incremented from any thread
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder unloads = new LongAdder();
+    private final LongAdder saves = new LongAdder();
+    private final LongAdder saveServerThreadNanos = new LongAdder();
+    private final AtomicLong saveServerThreadMaxNanos = new AtomicLong();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final AtomicLong writeMaxNanos = new AtomicLong();
+
+    // Server thread only
+    private long lastLoads;
+    private long lastGenerated;
+    private long lastUnloads;
+    private long lastSaves;
+    private long lastSaveServerThreadNanos;
+    private long lastWrites;
+    private long lastWriteNanos;
+    private int pendingTasksPeak;
+
+    public static ChunkMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Counts a chunk being loaded, whether it was read from disk or generated.
+     */
+    public void onLoad() {
+        loads.increment();
+    }
+
+    /**
+     * Counts a newly generated chunk. Generated chunks are counted as loads too.
+     */
+    public void onGenerate() {
+        generated.increment();
+    }
+
+    public void onUnload() {
+        unloads.increment();
+    }
+
+    /**
+     * Counts a chunk save that had something to save.
+     *
+     * @param nanos Time the server thread spent on it before handing it to the I/O worker.
+     */
+    public void recordSaveServerThread(long nanos) {
+        saves.increment();
+        saveServerThreadNanos.add(nanos);
+        saveServerThreadMaxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Counts a chunk written to its region file. Called on the I/O worker threads.
+     *
+     * @param nanos Time spent serialising and writing it.
+     */
+    public void recordWrite(long nanos) {
+        writes.increment();
+        writeNanos.add(nanos);
+        writeMaxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Samples the chunk task queues to catch their peak. Server thread only.
+     */
+    public void sample(MinecraftServer server) {
+        int pending = 0;
+        for (ServerLevel level : server.getAllLevels()) {
+            pending += level.getChunkSource().getPendingTasksCount();
+        }
+        pendingTasksPeak = Math.max(pendingTasksPeak, pending);
+    }
+
+    /**
+     * Copies this interval's chunk statistics into a sample and starts a new interval. Server thread only.
+     */
+    public void fill(StatsSample sample, MinecraftServer server) {
+        long loadsTotal = loads.sum();
+        long generatedTotal = generated.sum();
+        long unloadsTotal = unloads.sum();
+        long savesTotal = saves.sum();
+        long saveServerThreadNanosTotal = saveServerThreadNanos.sum();
+        long writesTotal = writes.sum();
+        long writeNanosTotal = writeNanos.sum();
+
+        sample.chunkMetrics = true;
+        sample.chunkLoads = loadsTotal - lastLoads;
+        sample.chunksGenerated = generatedTotal - lastGenerated;
+        sample.chunkUnloads = unloadsTotal - lastUnloads;
+        sample.chunkSaves = savesTotal - lastSaves;
+        sample.chunkSaveServerThreadMeanNanos = sample.chunkSaves > 0 ? (saveServerThreadNanosTotal - lastSaveServerThreadNanos) / sample.chunkSaves : 0;
+        sample.chunkSaveServerThreadMaxNanos = saveServerThreadMaxNanos.getAndSet(0);
+        sample.chunkWrites = writesTotal - lastWrites;
+        sample.chunkWriteMeanNanos = sample.chunkWrites > 0 ? (writeNanosTotal - lastWriteNanos) / sample.chunkWrites : 0;
+        sample.chunkWriteMaxNanos = writeMaxNanos.getAndSet(0);
+
+        List<StatsSample.LevelChunkStats> levels = new ArrayList<>();
+        int loaded = 0;
+        int pending = 0;
+        for (ServerLevel level : server.getAllLevels()) {
+            ServerChunkCache chunkSource = level.getChunkSource();
+            int levelLoaded = chunkSource.getLoadedChunksCount();
+            int levelPending = chunkSource.getPendingTasksCount();
+            levels.add(new StatsSample.LevelChunkStats(level.dimension().location().toString(), levelLoaded, levelPending));
+            loaded += levelLoaded;
+            pending += levelPending;
+        }
+        sample.chunksLoaded = loaded;
+        sample.chunkTasksPending = pending;
+        sample.chunkTasksPendingPeak = Math.max(pendingTasksPeak, pending);
+        sample.chunkLevels = levels;
+
+        lastLoads = loadsTotal;
+        lastGenerated = generatedTotal;
+        lastUnloads = unloadsTotal;
+        lastSaves = savesTotal;
+        lastSaveServerThreadNanos = saveServerThreadNanosTotal;
+        lastWrites = writesTotal;
+        lastWriteNanos = writeNanosTotal;
+        pendingTasksPeak = 0;
+    }
+}
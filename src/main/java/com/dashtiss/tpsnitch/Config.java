@@ -10,6 +10,12 @@ public class Config extends MidnightConfig {
 
     public static final String LOGS = "logs";
     public static final String UPDATES = "updates";
+    public static final String PROFILER = "profiler";
+    public static final String METRICS = "metrics";
+    public static final String WATCHDOG = "watchdog";
+    public static final String JVM = "jvm";
+    public static final String WORLD = "world";
+    public static final String NETWORK = "network";
 
     @Entry(
             name = "Time Between Logs",
@@ -18,6 +24,14 @@ public class Config extends MidnightConfig {
     )
     public static int TimeBetweenTicks = 600; // in Ticks, default is 30 seconds. 30*20=600
 
+    @Entry(
+            name = "Player Sweep Interval",
+            category = LOGS,
+            min = 1
+    )
+    @Comment(name="How often (in ticks) player pings are sampled and the session list is checked against the player list")
+    public static int PlayerSweepTicks = 20;
+
     @Entry(
             name = "Log File Path"
     )
@@ -36,10 +50,294 @@ public class Config extends MidnightConfig {
     )
     public static int MaxLogs = 100; // Maximum number of logs to keep
 
+    @Entry(
+            name = "Log Format",
+            category = LOGS
+    )
+    @Comment(name="JSON rewrites one file on every save. NDJSON appends to rotating segment files and suits large Max Logs values. TSDB keeps compact binary history with 1m/1h/1d rollups")
+    public static LogFileFormat LogFormat = LogFileFormat.JSON;
+
+    @Entry(
+            name = "Compact JSON",
+            category = LOGS
+    )
+    @Comment(name="If true, the JSON log is written without indentation. Smaller and faster to write for large Max Logs values")
+    public static boolean CompactJson = false;
+
+    @Entry(
+            name = "Segment Size",
+            category = LOGS,
+            min = 1
+    )
+    public static int SegmentMaxEntries = 10_000; // Entries per NDJSON segment before starting a new one
+
+    @Entry(
+            name = "TSDB Raw Retention",
+            category = LOGS,
+            min = 0
+    )
+    @Comment(name="Days of TSDB history to keep at full resolution, and for the 1 minute, 1 hour and 1 day rollups below (0 keeps everything)")
+    public static int TsdbRawRetentionDays = 7;
+
+    @Entry(
+            name = "TSDB 1m Retention",
+            category = LOGS,
+            min = 0
+    )
+    public static int TsdbMinuteRetentionDays = 30;
+
+    @Entry(
+            name = "TSDB 1h Retention",
+            category = LOGS,
+            min = 0
+    )
+    public static int TsdbHourRetentionDays = 730;
+
+    @Entry(
+            name = "TSDB 1d Retention",
+            category = LOGS,
+            min = 0
+    )
+    public static int TsdbDayRetentionDays = 0;
+
+    @Entry(
+            name = "Tick History Size",
+            category = LOGS,
+            min = 20
+    )
+    @Comment(name="How many recent ticks to keep in memory for /tpsnitch recent (6000 is five minutes, about 120 KB). Takes effect after a restart")
+    public static int HistoryTicks = 6_000;
+
+    @Entry(
+            name = "Flush Interval",
+            category = LOGS,
+            min = 1
+    )
+    @Comment(name="How often (in seconds) the background writer flushes queued samples to disk")
+    public static int FlushIntervalSeconds = 30;
+
+    @Entry(
+            name = "Writer Queue Capacity",
+            category = LOGS,
+            min = 2
+    )
+    @Comment(name="How many samples can wait for the background writer before samples are dropped")
+    public static int WriterQueueCapacity = 64;
+
+    @Entry(
+            name = "Writer Batch Size",
+            category = LOGS,
+            min = 1
+    )
+    public static int WriterBatchSize = 32; // Maximum samples written per file update
+
+    @Entry(
+            name = "Writer Drop Policy",
+            category = LOGS
+    )
+    @Comment(name="Which sample to drop when the writer queue is full")
+    public static DropPolicy WriterDropPolicy = DropPolicy.DROP_OLDEST;
+
+    @Entry(
+            name = "Hotspot Profiler",
+            category = PROFILER
+    )
+    @Comment(name="If true, samples entity and block entity ticks to find which types and chunks cost the most")
+    public static boolean ProfilerEnabled = false;
+
+    @Entry(
+            name = "Profiler Sample Interval",
+            category = PROFILER,
+            min = 1
+    )
+    public static int ProfilerSampleInterval = 16; // Time one in this many entity ticks (raised automatically if over budget)
+
+    @Entry(
+            name = "Profiler Budget",
+            category = PROFILER,
+            min = 0.01,
+            max = 100
+    )
+    @Comment(name="Maximum share of the 50 ms tick budget (in percent) the profiler may spend on itself")
+    public static double ProfilerBudgetPercent = 0.5;
+
+    @Entry(
+            name = "Profiler Top N",
+            category = PROFILER,
+            min = 1
+    )
+    public static int ProfilerTopN = 10; // Hotspots of each kind written per interval
+
+    @Entry(
+            name = "Overhead Budget",
+            category = PROFILER,
+            min = 0.01,
+            max = 100
+    )
+    @Comment(name="Share of the 50 ms tick budget (in percent) TPSnitch may spend on itself before the governor cuts back")
+    public static double OverheadBudgetPercent = 1.0;
+
+    @Entry(
+            name = "Overhead Governor",
+            category = PROFILER
+    )
+    @Comment(name="If true, expensive collectors run less often and the hotspot profiler samples less while TPSnitch is over its overhead budget")
+    public static boolean OverheadGovernorEnabled = true;
+
+    @Entry(
+            name = "Metrics Endpoint",
+            category = METRICS
+    )
+    @Comment(name="If true, serves live metrics over HTTP at /metrics (Prometheus) and /metrics.json")
+    public static boolean MetricsEnabled = false;
+
+    @Entry(
+            name = "Metrics Port",
+            category = METRICS,
+            min = 0,
+            max = 65535
+    )
+    public static int MetricsPort = 9225;
+
+    @Entry(
+            name = "Metrics Bind Address",
+            category = METRICS
+    )
+    @Comment(name="Address the metrics endpoint listens on. Keep it on 127.0.0.1 unless your firewall protects the port")
+    public static String MetricsBindAddress = "127.0.0.1";
+
+    @Entry(
+            name = "Command Permission Level",
+            category = METRICS,
+            min = 0,
+            max = 4
+    )
+    @Comment(name="Permission level needed to use /tpsnitch. 0 lets everyone use it, 2 is the usual level for operators")
+    public static int CommandPermissionLevel = 2;
+
+    @Entry(
+            name = "Lag Watchdog",
+            category = WATCHDOG
+    )
+    @Comment(name="If true, captures the server thread's stack during long ticks and writes flame-graph-ready reports")
+    public static boolean LagWatchdogEnabled = false;
+
+    @Entry(
+            name = "Lag Threshold",
+            category = WATCHDOG,
+            min = 50
+    )
+    public static int LagThresholdMillis = 1000; // Start sampling once a tick has run this long
+
+    @Entry(
+            name = "Lag Sample Interval",
+            category = WATCHDOG,
+            min = 1,
+            max = 1000
+    )
+    public static int LagSampleIntervalMillis = 10; // Time between stack samples during a capture
+
+    @Entry(
+            name = "Lag Max Capture",
+            category = WATCHDOG,
+            min = 1
+    )
+    public static int LagMaxCaptureSeconds = 30; // Stop sampling a single tick after this long
+
+    @Entry(
+            name = "Lag Report Cooldown",
+            category = WATCHDOG,
+            min = 0
+    )
+    @Comment(name="Minimum seconds between two lag captures, so a lag storm doesn't make things worse")
+    public static int LagReportCooldownSeconds = 60;
+
+    @Entry(
+            name = "Lag Report Budget",
+            category = WATCHDOG,
+            min = 1
+    )
+    @Comment(name="Maximum disk space (in MB) for lag reports; the oldest reports are deleted first")
+    public static int LagReportBudgetMegabytes = 50;
+
+    @Entry(
+            name = "Lag Report Directory",
+            category = WATCHDOG
+    )
+    public static String LagReportDirectory = "tpsnitch-lag-reports";
+
+    @Entry(
+            name = "JVM Metrics",
+            category = JVM
+    )
+    @Comment(name="If true, logs GC activity, allocation rate and heap usage with every sample. Takes effect after a restart")
+    public static boolean JvmMetricsEnabled = true;
+
+    @Entry(
+            name = "JFR Events",
+            category = JVM
+    )
+    @Comment(name="If true, streams GC pause and safepoint events from Java Flight Recorder for exact pause times")
+    public static boolean JfrEventsEnabled = true;
+
+    @Entry(
+            name = "Heap Sample Interval",
+            category = JVM,
+            min = 1
+    )
+    public static int JvmSampleTicks = 20; // How often (in ticks) heap usage is checked for the interval's peak
+
+    @Entry(
+            name = "Chunk Sample Interval",
+            category = WORLD,
+            min = 1
+    )
+    public static int ChunkSampleTicks = 20; // How often (in ticks) the chunk task queues are checked for the interval's peak
+
+    @Entry(
+            name = "Network Metrics",
+            category = NETWORK
+    )
+    @Comment(name="If true, counts packets and bytes in and out per packet type and per player")
+    public static boolean NetworkMetricsEnabled = true;
+
+    @Entry(
+            name = "Network Top N",
+            category = NETWORK,
+            min = 1
+    )
+    public static int NetworkTopN = 10; // Packet types and players (by bytes) written per interval
+
     @Entry(
             name = "Auto Update",
             category = UPDATES
     )
     @Comment(name="If true, the mod will automatically download and install updates when a new version is found at startup")
     public static boolean AutoUpdate = false;
+
+    @Entry(
+            name = "Update API URL",
+            category = UPDATES
+    )
+    @Comment(name="Base URL of the Modrinth API used for update checks. Point it at a local server to test the updater")
+    public static String UpdateApiUrl = "https://api.modrinth.com/v2";
+
+    @Entry(
+            name = "Update Timeout (Seconds)",
+            category = UPDATES,
+            min = 1
+    )
+    @Comment(name="How long the update check waits to connect, for a response, or for more of a download before giving up")
+    public static int UpdateTimeoutSeconds = 10;
+
+    public enum LogFileFormat {
+        JSON,  // One JSON object keyed by timestamp, rewritten on every save
+        NDJSON, // Append-only newline-delimited JSON segments
+        TSDB    // Compressed columnar blocks with 1m/1h/1d rollups
+    }
+
+    public enum DropPolicy {
+        DROP_OLDEST, // Throw away the oldest queued sample to make room
+        DROP_NEWEST  // Throw away the sample that didn't fit
+    }
 }
@@ -0,0 +1,101 @@
+package com.dashtiss.tpsnitch;
+
+import net.minecraft.server.level.ServerLevel;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times each dimension's part of the tick separately, so a laggy Nether or modded dimension
+ * stands out from the server-wide numbers.
+ *
+ * <p>Only used from the server thread. Each level gets its own histogram the first time it ticks;
+ * after that, timing a level tick is an identity-map lookup and a histogram record, with no allocation.
+ */
+public class DimensionTimings {
+
+    // Same clamp as TickTimings; nothing useful happens to a dimension tick above a minute
+    private static final long HIGHEST_TRACKABLE_NANOS = 60_000_000_000L;
+
+    // The server creates one ServerLevel per dimension and keeps it, so reference equality is enough and skips hashCode/equals
+    private final Map<ServerLevel, Level> levels = new IdentityHashMap<>();
+
+    /**
+     * Call from START_WORLD_TICK.
+     */
+    public void startTick(ServerLevel level, long nowNanos) {
+        Level timing = levels.get(level);
+        if (timing == null) {
+            timing = new Level(level.dimension().location().toString());
+            levels.put(level, timing);
+        }
+        timing.tickStartNanos = nowNanos;
+    }
+
+    /**
+     * Call from END_WORLD_TICK.
+     */
+    public void endTick(ServerLevel level, long nowNanos) {
+        Level timing = levels.get(level);
+        if (timing == null || timing.tickStartNanos < 0) {
+            return;
+        }
+        timing.histogram.record(nowNanos - timing.tickStartNanos);
+        timing.tickStartNanos = -1;
+    }
+
+    /**
+     * Forgets a level, e.g. when it is unloaded.
+     */
+    public void remove(ServerLevel level) {
+        levels.remove(level);
+    }
+
+    /**
+     * Copies this interval's per-dimension statistics into a sample.
+     *
+     * @param totalTickNanos Time spent in whole server ticks during the interval, used to work out each dimension's share.
+     */
+    public void fill(StatsSample sample, long totalTickNanos) {
+        List<StatsSample.DimensionStats> dimensions = new ArrayList<>(levels.size());
+        for (Level timing : levels.values()) {
+            LongHistogram histogram = timing.histogram;
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            double share = totalTickNanos > 0 ? (double) histogram.getSum() / totalTickNanos : 0.0;
+            dimensions.add(new StatsSample.DimensionStats(
+                    timing.name,
+                    histogram.getTotalCount(),
+                    histogram.getSum(),
+                    share,
+                    histogram.getMean(),
+                    histogram.getValueAtPercentile(50.0),
+                    histogram.getValueAtPercentile(90.0),
+                    histogram.getValueAtPercentile(99.0),
+                    histogram.getMax()));
+        }
+        sample.dimensions = dimensions;
+    }
+
+    /**
+     * Starts a new interval for every dimension.
+     */
+    public void reset() {
+        for (Level timing : levels.values()) {
+            timing.histogram.reset();
+        }
+    }
+
+    private static class Level {
+        private final String name;
+        private final LongHistogram histogram = new LongHistogram(HIGHEST_TRACKABLE_NANOS);
+        private long tickStartNanos = -1;
+
+        private Level(String name) {
+            this.name = name;
+        }
+    }
+}
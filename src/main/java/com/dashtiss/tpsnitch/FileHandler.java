@@ -1,26 +1,41 @@
 package com.dashtiss.tpsnitch;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 
+import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.Type;
-import java.util.Date;
-import java.util.HashMap;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap; // Use TreeMap to keep keys (timestamps) sorted
-import java.text.SimpleDateFormat;
+import java.util.OptionalLong;
+import java.util.function.Consumer;
 
 public class FileHandler {
 
-
-    // Date format to use for the JSON keys in the stats file
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    // Gson instances are thread-safe, so the whole mod shares this one instead of building one per call
+    public static final Gson GSON = new Gson();
 
     // Maximum number of log entries to keep
     private static int MAX_LOG_ENTRIES = 100;
@@ -43,72 +58,639 @@ public class FileHandler {
      * to place files there.
      */
     public static void saveFile(int Players, double TPS, long MSTP, String logFilePath) {
-        // 1. Get the current timestamp
-        String timestamp = DATE_FORMAT.format(new Date());
-
-        // 2. Create a map for the current stats
-        Map<String, Object> currentStats = new HashMap<>();
-        currentStats.put("tps", TPS);
-        currentStats.put("mspt", MSTP); // Note: Using MSTP as provided, but MSPT is more common
-        currentStats.put("playerCount", Players);
+        saveFile(List.of(new StatsSample(System.currentTimeMillis(), Players, TPS, MSTP)), logFilePath);
+    }
 
-        // 3. Define the type for Gson to handle the nested map structure
-        // Using TreeMap to ensure keys are sorted for easy removal of the oldest entry
-        Type dataType = new TypeToken<TreeMap<String, Map<String, Object>>>(){}.getType();
+    /**
+     * Saves a batch of samples to the JSON file in a single read-modify-write.
+     * This is what the {@link StatsWriter} thread calls; it should not be called from the server thread.
+     *
+     * @param samples     The samples to add, oldest first.
+     * @param logFilePath The path to the JSON file where the stats will be saved.
+     */
+    public static void saveFile(List<StatsSample> samples, String logFilePath) {
+        if (samples.isEmpty()) {
+            return;
+        }
 
-        // 4. Read existing data from the JSON file
-        TreeMap<String, Map<String, Object>> allStats = new TreeMap<>(); // Use TreeMap here
         File jsonFile = new File(logFilePath);
-        Gson gson = new GsonBuilder().setPrettyPrinting().create(); // Use pretty printing for readability
 
         // Ensure the parent directory exists before reading or writing
         File parentDir = jsonFile.getParentFile();
         if (parentDir != null && !parentDir.exists()) {
-            // System.out.println("Parent directory does not exist, attempting to create: " + parentDir.getAbsolutePath()); // Removed print
             boolean dirsCreated = parentDir.mkdirs(); // Create parent directories if they don't exist
-            if (dirsCreated) {
-                // System.out.println("Successfully created parent directory: " + parentDir.getAbsolutePath()); // Removed print
-            } else {
+            if (!dirsCreated) {
                 System.err.println("Error: Failed to create parent directory: " + parentDir.getAbsolutePath());
                 return; // Exit the function if parent directory creation fails
             }
         }
 
+        // 1. Stream the existing entries in. Only the newest maxEntries can survive the trim,
+        // so no more than that are ever held in memory.
+        int maxEntries = Config.MaxLogs > 0 ? Config.MaxLogs : MAX_LOG_ENTRIES;
+        ArrayDeque<StatsSample> kept = new ArrayDeque<>();
         if (jsonFile.exists() && jsonFile.length() > 0) {
-            try (FileReader reader = new FileReader(jsonFile)) {
-                // Read the existing JSON data
-                TreeMap<String, Map<String, Object>> existingData = gson.fromJson(reader, dataType); // Read into TreeMap
-                if (existingData != null) {
-                    allStats.putAll(existingData); // Add existing data to our map
-                }
-            } catch (IOException e) {
-                System.err.println("Error reading JSON file '" + logFilePath + "': " + e.getMessage());
-                // For now, we'll just print an error and proceed as if the file was empty
-            } catch (JsonSyntaxException e) {
+            try {
+                readLog(jsonFile.toPath(), sample -> {
+                    kept.addLast(sample);
+                    if (kept.size() > maxEntries) {
+                        kept.removeFirst();
+                    }
+                });
+            } catch (EOFException | MalformedJsonException | JsonParseException | IllegalStateException e) {
+                // Saves are atomic, so this file was damaged by something else. Keep the entries we
+                // could read and move the damaged file aside instead of overwriting the rest of the history.
                 System.err.println("Error parsing JSON file (invalid syntax) '" + logFilePath + "': " + e.getMessage());
-                // For now, we'll just print an error and proceed as if the file was empty
+                preserveDamagedFile(jsonFile.toPath(), kept.size());
+            } catch (IOException e) {
+                // Couldn't read it at all; writing now would replace the history with just this batch
+                System.err.println("Error reading JSON file '" + logFilePath + "', skipping this save: " + e.getMessage());
+                return;
             }
         }
 
-        // 5. Add the new entry
-        allStats.put(timestamp, currentStats);
-
-        // 6. Enforce the maximum number of log entries
-        while (allStats.size() > MAX_LOG_ENTRIES) {
-            // TreeMap keeps keys sorted, so the first key is the oldest timestamp
-            String oldestTimestamp = allStats.firstKey();
-            allStats.remove(oldestTimestamp);
-            // System.out.println("Removed oldest log entry with timestamp: " + oldestTimestamp + " to maintain limit."); // Removed print
+        // 2. Add the new entries, keeping the log sorted. Keys have one-second resolution,
+        // so a newer sample replaces an older one with the same key.
+        List<StatsSample> entries = new ArrayList<>(kept.size() + samples.size());
+        entries.addAll(kept);
+        entries.addAll(samples);
+        entries.sort(Comparator.comparingLong(sample -> sample.timestampMillis));
+        List<StatsSample> unique = new ArrayList<>(entries.size());
+        for (StatsSample sample : entries) {
+            if (!unique.isEmpty() && unique.getLast().timestampMillis / 1000 == sample.timestampMillis / 1000) {
+                unique.removeLast();
+            }
+            unique.add(sample);
         }
 
+        // 3. Enforce the maximum number of log entries
+        List<StatsSample> toWrite = unique.subList(Math.max(0, unique.size() - maxEntries), unique.size());
 
-        // 7. Write the updated data back to the JSON file
-        try (FileWriter writer = new FileWriter(jsonFile)) {
-            gson.toJson(allStats, writer);
-            // System.out.println("Successfully logged stats for timestamp: " + timestamp + " to " + logFilePath); // Removed print
+        // 4. Stream the entries out to a temporary file and swap it in, so a crash mid-save
+        // leaves the previous log in place instead of a truncated one
+        try {
+            writeAtomically(jsonFile.toPath(), out -> {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                writeLog(writer, toWrite);
+            });
         } catch (IOException e) {
             System.err.println("Error writing to JSON file '" + logFilePath + "': " + e.getMessage());
             // Decide how to handle the error
         }
     }
+
+    /**
+     * Writes the content of a file through an output stream. The stream must not be closed.
+     */
+    @FunctionalInterface
+    public interface FileContent {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Replaces a file without ever leaving it half-written. The content goes to {@code <name>.tmp}
+     * next to the target, is fsynced, and is then renamed over the target in one step. After a crash
+     * the target holds either the old or the new content.
+     *
+     * @param target  The file to create or replace.
+     * @param content Writes the new content. Anything it buffers must be flushed before it returns.
+     */
+    public static void writeAtomically(Path target, FileContent content) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Closing this stream would close the channel before it is forced, so it is only flushed
+            OutputStream out = Channels.newOutputStream(channel);
+            content.write(out);
+            out.flush();
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(target.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Flushes a directory entry change (a rename or a new file) to disk. Some platforms,
+     * Windows included, can't open a directory for this; there the rename is left to the OS.
+     */
+    static void syncDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported here
+        }
+    }
+
+    /**
+     * Renames a damaged log to {@code <name>.corrupt-<epochMillis>} so it can be recovered by hand.
+     */
+    private static void preserveDamagedFile(Path file, int entriesRead) {
+        Path aside = file.resolveSibling(file.getFileName() + ".corrupt-" + System.currentTimeMillis());
+        try {
+            Files.move(file, aside);
+            System.err.println("Kept the " + entriesRead + " entries that could be read; the damaged file was moved to '" + aside + "'");
+        } catch (IOException e) {
+            System.err.println("Error moving damaged JSON file '" + file + "' aside: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes samples as a JSON log document (one object keyed by timestamp), straight from the
+     * sample fields. Indented unless {@link Config#CompactJson} is set.
+     *
+     * @param out     Where to write. It is flushed but not closed.
+     * @param samples The samples to write, oldest first.
+     */
+    public static void writeLog(Writer out, Iterable<StatsSample> samples) throws IOException {
+        JsonWriter writer = newLogWriter(out);
+        writer.beginObject();
+        for (StatsSample sample : samples) {
+            writeEntry(writer, sample);
+        }
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Creates a JSON writer using the configured log layout (pretty or compact).
+     */
+    public static JsonWriter newLogWriter(Writer out) {
+        return newLogWriter(out, Config.CompactJson);
+    }
+
+    /**
+     * Creates a JSON writer for a log, without indentation if {@code compact} is set.
+     */
+    public static JsonWriter newLogWriter(Writer out, boolean compact) {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setIndent(compact ? "" : "  ");
+        return writer;
+    }
+
+    /**
+     * Writes one {@code "timestamp": {stats}} entry of a JSON log.
+     */
+    public static void writeEntry(JsonWriter writer, StatsSample sample) throws IOException {
+        writer.name(Timestamps.format(sample.timestampMillis));
+        writeStats(writer, sample, false);
+    }
+
+    /**
+     * Writes a sample as a single-line record (stats plus {@code timestamp} and {@code epochMillis})
+     * for the append-only log. No newline is added.
+     */
+    public static void writeRecord(Writer out, StatsSample sample) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writeStats(writer, sample, true);
+        writer.flush();
+    }
+
+    /**
+     * Creates the sink for the configured {@link Config#LogFormat}.
+     *
+     * @param logFilePath The configured log file path.
+     */
+    public static StatsSink createSink(String logFilePath) {
+        return switch (Config.LogFormat) {
+            case NDJSON -> new SegmentLog(logFilePath);
+            case TSDB -> new TimeSeriesStore(logFilePath);
+            default -> samples -> saveFile(samples, logFilePath);
+        };
+    }
+
+    private static void writeStats(JsonWriter writer, StatsSample sample, boolean withTimestamp) throws IOException {
+        writer.beginObject();
+        if (withTimestamp) {
+            writer.name("timestamp").value(Timestamps.format(sample.timestampMillis));
+            writer.name("epochMillis").value(sample.timestampMillis);
+        }
+        writer.name("tps").value(sample.tps);
+        writer.name("tps1m").value(sample.tps1m);
+        writer.name("tps5m").value(sample.tps5m);
+        writer.name("tps15m").value(sample.tps15m);
+        writer.name("mspt").value(sample.mspt); // Note: Using MSTP as provided, but MSPT is more common
+        writer.name("playerCount").value(sample.players);
+
+        writer.name("playerActivity").beginObject();
+        writer.name("peak").value(sample.peakPlayers);
+        writer.name("joins").value(sample.joins);
+        writer.name("leaves").value(sample.leaves);
+        writer.name("sessions").beginObject();
+        writer.name("ended").value(sample.sessionsEnded);
+        writer.name("meanMillis").value(sample.sessionMeanMillis);
+        writer.name("p50Millis").value(sample.sessionP50Millis);
+        writer.name("maxMillis").value(sample.sessionMaxMillis);
+        writer.endObject();
+        writer.name("pingMillis").beginObject();
+        writer.name("p50").value(sample.pingP50Millis);
+        writer.name("p90").value(sample.pingP90Millis);
+        writer.name("p99").value(sample.pingP99Millis);
+        writer.name("max").value(sample.pingMaxMillis);
+        writer.endObject();
+        writer.endObject();
+
+        // Per-tick percentiles, only present once at least one tick has been measured
+        if (sample.tickCount > 0) {
+            writer.name("tickCount").value(sample.tickCount);
+            writer.name("ticksOver50ms").value(sample.ticksOver50ms);
+            writer.name("msptNanos").beginObject();
+            writer.name("mean").value(sample.msptMeanNanos);
+            writer.name("p50").value(sample.msptP50Nanos);
+            writer.name("p90").value(sample.msptP90Nanos);
+            writer.name("p99").value(sample.msptP99Nanos);
+            writer.name("p999").value(sample.msptP999Nanos);
+            writer.name("max").value(sample.msptMaxNanos);
+            writer.endObject();
+        }
+
+        if (sample.jvmMetrics) {
+            writer.name("jvm").beginObject();
+            writer.name("gcCount").value(sample.gcCount);
+            writer.name("gcTimeMillis").value(sample.gcTimeMillis);
+            if (sample.jfrEvents) {
+                writer.name("gcPauses").beginObject();
+                writer.name("count").value(sample.gcPauses);
+                writer.name("totalNanos").value(sample.gcPauseTotalNanos);
+                writer.name("maxNanos").value(sample.gcPauseMaxNanos);
+                writer.endObject();
+                writer.name("safepoints").beginObject();
+                writer.name("count").value(sample.safepoints);
+                writer.name("totalNanos").value(sample.safepointTotalNanos);
+                writer.endObject();
+            }
+            writer.name("allocatedBytes").value(sample.allocatedBytes);
+            writer.name("allocationBytesPerSecond").value(sample.allocationBytesPerSecond);
+            writer.name("heapBytes").beginObject();
+            writer.name("used").value(sample.heapUsedBytes);
+            writer.name("peak").value(sample.heapPeakBytes);
+            writer.name("committed").value(sample.heapCommittedBytes);
+            writer.name("max").value(sample.heapMaxBytes);
+            writer.endObject();
+            if (sample.oldGenUsedBytes >= 0) {
+                writer.name("oldGenBytes").beginObject();
+                writer.name("used").value(sample.oldGenUsedBytes);
+                writer.name("peak").value(sample.oldGenPeakBytes);
+                writer.name("afterGc").value(sample.oldGenAfterGcBytes);
+                writer.name("max").value(sample.oldGenMaxBytes);
+                writer.endObject();
+            }
+            writer.endObject();
+        }
+
+        if (sample.chunkMetrics) {
+            writer.name("chunks").beginObject();
+            writer.name("loaded").value(sample.chunksLoaded);
+            writer.name("loads").value(sample.chunkLoads);
+            writer.name("generated").value(sample.chunksGenerated);
+            writer.name("unloads").value(sample.chunkUnloads);
+            writer.name("saves").value(sample.chunkSaves);
+            writer.name("saveServerThreadNanos").beginObject();
+            writer.name("mean").value(sample.chunkSaveServerThreadMeanNanos);
+            writer.name("max").value(sample.chunkSaveServerThreadMaxNanos);
+            writer.endObject();
+            writer.name("writes").value(sample.chunkWrites);
+            writer.name("writeNanos").beginObject();
+            writer.name("mean").value(sample.chunkWriteMeanNanos);
+            writer.name("max").value(sample.chunkWriteMaxNanos);
+            writer.endObject();
+            writer.name("pendingTasks").value(sample.chunkTasksPending);
+            writer.name("pendingTasksPeak").value(sample.chunkTasksPendingPeak);
+            writer.name("dimensions").beginObject();
+            for (StatsSample.LevelChunkStats level : sample.chunkLevels) {
+                writer.name(level.dimension()).beginObject();
+                writer.name("loaded").value(level.loaded());
+                writer.name("pendingTasks").value(level.pendingTasks());
+                writer.endObject();
+            }
+            writer.endObject();
+            writer.endObject();
+        }
+
+        if (sample.networkMetrics) {
+            writer.name("network").beginObject();
+            writer.name("packetsIn").value(sample.netPacketsIn);
+            writer.name("bytesIn").value(sample.netBytesIn);
+            writer.name("packetsOut").value(sample.netPacketsOut);
+            writer.name("bytesOut").value(sample.netBytesOut);
+            writer.name("packetTypes");
+            writeTraffic(writer, sample.packetTypes);
+            writer.name("topTalkers");
+            writeTraffic(writer, sample.topTalkers);
+            writer.endObject();
+        }
+
+        if (!sample.dimensions.isEmpty()) {
+            writer.name("dimensions").beginObject();
+            for (StatsSample.DimensionStats dimension : sample.dimensions) {
+                writer.name(dimension.dimension()).beginObject();
+                writer.name("ticks").value(dimension.ticks());
+                writer.name("totalNanos").value(dimension.totalNanos());
+                writer.name("share").value(dimension.share());
+                writer.name("msptNanos").beginObject();
+                writer.name("mean").value(dimension.meanNanos());
+                writer.name("p50").value(dimension.p50Nanos());
+                writer.name("p90").value(dimension.p90Nanos());
+                writer.name("p99").value(dimension.p99Nanos());
+                writer.name("max").value(dimension.maxNanos());
+                writer.endObject();
+                writer.endObject();
+            }
+            writer.endObject();
+        }
+
+        if (!sample.hotspots.isEmpty()) {
+            writer.name("hotspots").beginArray();
+            for (HotspotProfiler.Hotspot hotspot : sample.hotspots) {
+                writer.beginObject();
+                writer.name("kind").value(hotspot.kind());
+                writer.name("name").value(hotspot.name());
+                writer.name("nanos").value(hotspot.nanos());
+                writer.name("samples").value(hotspot.samples());
+                writer.endObject();
+            }
+            writer.endArray();
+        }
+
+        if (!sample.overheadHooks.isEmpty()) {
+            writer.name("overhead").beginObject();
+            writer.name("meanNanos").value(sample.overheadMeanNanos);
+            writer.name("p99Nanos").value(sample.overheadP99Nanos);
+            writer.name("maxNanos").value(sample.overheadMaxNanos);
+            writer.name("budgetShare").value(sample.overheadBudgetShare);
+            writer.name("governorLevel").value(sample.governorLevel);
+            writer.name("hooks").beginObject();
+            for (StatsSample.HookStats hook : sample.overheadHooks) {
+                writer.name(hook.hook()).beginObject();
+                writer.name("totalNanos").value(hook.totalNanos());
+                writer.name("maxNanos").value(hook.maxNanos());
+                writer.endObject();
+            }
+            writer.endObject();
+            writer.endObject();
+        }
+        writer.endObject();
+    }
+
+    private static void writeTraffic(JsonWriter writer, List<StatsSample.TrafficStats> traffic) throws IOException {
+        writer.beginArray();
+        for (StatsSample.TrafficStats stats : traffic) {
+            writer.beginObject();
+            writer.name("name").value(stats.name());
+            writer.name("packetsIn").value(stats.packetsIn());
+            writer.name("bytesIn").value(stats.bytesIn());
+            writer.name("packetsOut").value(stats.packetsOut());
+            writer.name("bytesOut").value(stats.bytesOut());
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Reads a sample back from a JSON object, either an append-only record or a value from the old JSON log.
+     *
+     * @param object    The JSON object holding the stats.
+     * @throws JsonParseException if the object has a {@code timestamp} that can't be parsed.
+     */
+    public static StatsSample fromJsonObject(JsonObject object) {
+        StatsSample sample = new StatsSample();
+        if (object.has("epochMillis")) {
+            sample.timestampMillis = object.get("epochMillis").getAsLong();
+        } else if (object.has("timestamp")) {
+            String timestamp = object.get("timestamp").getAsString();
+            sample.timestampMillis = Timestamps.parse(timestamp)
+                    .orElseThrow(() -> new JsonParseException("Unreadable timestamp '" + timestamp + "'"));
+        }
+        if (object.has("tps")) {
+            sample.tps = object.get("tps").getAsDouble();
+        }
+        if (object.has("tps1m")) {
+            sample.tps1m = object.get("tps1m").getAsDouble();
+            sample.tps5m = object.get("tps5m").getAsDouble();
+            sample.tps15m = object.get("tps15m").getAsDouble();
+        }
+        if (object.has("mspt")) {
+            sample.mspt = object.get("mspt").getAsLong();
+        }
+        if (object.has("playerCount")) {
+            sample.players = object.get("playerCount").getAsInt();
+        }
+        if (object.has("playerActivity")) {
+            JsonObject playerActivity = object.getAsJsonObject("playerActivity");
+            sample.peakPlayers = (int) getLong(playerActivity, "peak");
+            sample.joins = getLong(playerActivity, "joins");
+            sample.leaves = getLong(playerActivity, "leaves");
+            if (playerActivity.has("sessions")) {
+                JsonObject sessions = playerActivity.getAsJsonObject("sessions");
+                sample.sessionsEnded = getLong(sessions, "ended");
+                sample.sessionMeanMillis = getLong(sessions, "meanMillis");
+                sample.sessionP50Millis = getLong(sessions, "p50Millis");
+                sample.sessionMaxMillis = getLong(sessions, "maxMillis");
+            }
+            if (playerActivity.has("pingMillis")) {
+                JsonObject pingMillis = playerActivity.getAsJsonObject("pingMillis");
+                sample.pingP50Millis = getLong(pingMillis, "p50");
+                sample.pingP90Millis = getLong(pingMillis, "p90");
+                sample.pingP99Millis = getLong(pingMillis, "p99");
+                sample.pingMaxMillis = getLong(pingMillis, "max");
+            }
+        }
+        if (object.has("tickCount")) {
+            sample.tickCount = object.get("tickCount").getAsLong();
+        }
+        if (object.has("ticksOver50ms")) {
+            sample.ticksOver50ms = object.get("ticksOver50ms").getAsLong();
+        }
+        if (object.has("msptNanos")) {
+            JsonObject msptNanos = object.getAsJsonObject("msptNanos");
+            sample.msptMeanNanos = getLong(msptNanos, "mean");
+            sample.msptP50Nanos = getLong(msptNanos, "p50");
+            sample.msptP90Nanos = getLong(msptNanos, "p90");
+            sample.msptP99Nanos = getLong(msptNanos, "p99");
+            sample.msptP999Nanos = getLong(msptNanos, "p999");
+            sample.msptMaxNanos = getLong(msptNanos, "max");
+        }
+        if (object.has("jvm")) {
+            JsonObject jvm = object.getAsJsonObject("jvm");
+            sample.jvmMetrics = true;
+            sample.gcCount = getLong(jvm, "gcCount");
+            sample.gcTimeMillis = getLong(jvm, "gcTimeMillis");
+            if (jvm.has("gcPauses")) {
+                JsonObject gcPauses = jvm.getAsJsonObject("gcPauses");
+                JsonObject safepoints = jvm.has("safepoints") ? jvm.getAsJsonObject("safepoints") : new JsonObject();
+                sample.jfrEvents = true;
+                sample.gcPauses = getLong(gcPauses, "count");
+                sample.gcPauseTotalNanos = getLong(gcPauses, "totalNanos");
+                sample.gcPauseMaxNanos = getLong(gcPauses, "maxNanos");
+                sample.safepoints = getLong(safepoints, "count");
+                sample.safepointTotalNanos = getLong(safepoints, "totalNanos");
+            }
+            sample.allocatedBytes = getLong(jvm, "allocatedBytes");
+            sample.allocationBytesPerSecond = getLong(jvm, "allocationBytesPerSecond");
+            JsonObject heapBytes = jvm.has("heapBytes") ? jvm.getAsJsonObject("heapBytes") : new JsonObject();
+            sample.heapUsedBytes = getLong(heapBytes, "used");
+            sample.heapPeakBytes = getLong(heapBytes, "peak");
+            sample.heapCommittedBytes = getLong(heapBytes, "committed");
+            sample.heapMaxBytes = getLong(heapBytes, "max");
+            if (jvm.has("oldGenBytes")) {
+                JsonObject oldGenBytes = jvm.getAsJsonObject("oldGenBytes");
+                sample.oldGenUsedBytes = getLong(oldGenBytes, "used");
+                sample.oldGenPeakBytes = getLong(oldGenBytes, "peak");
+                sample.oldGenAfterGcBytes = getLong(oldGenBytes, "afterGc");
+                sample.oldGenMaxBytes = getLong(oldGenBytes, "max");
+            } else {
+                sample.oldGenUsedBytes = -1;
+            }
+        }
+        if (object.has("chunks")) {
+            JsonObject chunks = object.getAsJsonObject("chunks");
+            // Older logs called the server thread's part "saveNanos"
+            String saveKey = chunks.has("saveServerThreadNanos") ? "saveServerThreadNanos" : "saveNanos";
+            JsonObject saveNanos = chunks.has(saveKey) ? chunks.getAsJsonObject(saveKey) : new JsonObject();
+            JsonObject writeNanos = chunks.has("writeNanos") ? chunks.getAsJsonObject("writeNanos") : new JsonObject();
+            sample.chunkMetrics = true;
+            sample.chunksLoaded = (int) getLong(chunks, "loaded");
+            sample.chunkLoads = getLong(chunks, "loads");
+            sample.chunksGenerated = getLong(chunks, "generated");
+            sample.chunkUnloads = getLong(chunks, "unloads");
+            sample.chunkSaves = getLong(chunks, "saves");
+            sample.chunkSaveServerThreadMeanNanos = getLong(saveNanos, "mean");
+            sample.chunkSaveServerThreadMaxNanos = getLong(saveNanos, "max");
+            sample.chunkWrites = getLong(chunks, "writes");
+            sample.chunkWriteMeanNanos = getLong(writeNanos, "mean");
+            sample.chunkWriteMaxNanos = getLong(writeNanos, "max");
+            sample.chunkTasksPending = (int) getLong(chunks, "pendingTasks");
+            sample.chunkTasksPendingPeak = (int) getLong(chunks, "pendingTasksPeak");
+            if (chunks.has("dimensions")) {
+                List<StatsSample.LevelChunkStats> levels = new ArrayList<>();
+                for (Map.Entry<String, JsonElement> entry : chunks.getAsJsonObject("dimensions").entrySet()) {
+                    JsonObject level = entry.getValue().getAsJsonObject();
+                    levels.add(new StatsSample.LevelChunkStats(entry.getKey(), (int) getLong(level, "loaded"), (int) getLong(level, "pendingTasks")));
+                }
+                sample.chunkLevels = levels;
+            }
+        }
+        if (object.has("network")) {
+            JsonObject network = object.getAsJsonObject("network");
+            sample.networkMetrics = true;
+            sample.netPacketsIn = getLong(network, "packetsIn");
+            sample.netBytesIn = getLong(network, "bytesIn");
+            sample.netPacketsOut = getLong(network, "packetsOut");
+            sample.netBytesOut = getLong(network, "bytesOut");
+            sample.packetTypes = readTraffic(network, "packetTypes");
+            sample.topTalkers = readTraffic(network, "topTalkers");
+        }
+        if (object.has("dimensions")) {
+            List<StatsSample.DimensionStats> dimensions = new ArrayList<>();
+            for (Map.Entry<String, JsonElement> entry : object.getAsJsonObject("dimensions").entrySet()) {
+                JsonObject stats = entry.getValue().getAsJsonObject();
+                JsonObject msptNanos = stats.has("msptNanos") ? stats.getAsJsonObject("msptNanos") : new JsonObject();
+                dimensions.add(new StatsSample.DimensionStats(
+                        entry.getKey(),
+                        getLong(stats, "ticks"),
+                        getLong(stats, "totalNanos"),
+                        stats.has("share") ? stats.get("share").getAsDouble() : 0.0,
+                        getLong(msptNanos, "mean"),
+                        getLong(msptNanos, "p50"),
+                        getLong(msptNanos, "p90"),
+                        getLong(msptNanos, "p99"),
+                        getLong(msptNanos, "max")));
+            }
+            sample.dimensions = dimensions;
+        }
+        if (object.has("hotspots")) {
+            List<HotspotProfiler.Hotspot> hotspots = new ArrayList<>();
+            for (JsonElement element : object.getAsJsonArray("hotspots")) {
+                JsonObject entry = element.getAsJsonObject();
+                hotspots.add(new HotspotProfiler.Hotspot(
+                        entry.get("kind").getAsString(),
+                        entry.get("name").getAsString(),
+                        getLong(entry, "nanos"),
+                        getLong(entry, "samples")));
+            }
+            sample.hotspots = hotspots;
+        }
+        if (object.has("overhead")) {
+            JsonObject overhead = object.getAsJsonObject("overhead");
+            sample.overheadMeanNanos = getLong(overhead, "meanNanos");
+            sample.overheadP99Nanos = getLong(overhead, "p99Nanos");
+            sample.overheadMaxNanos = getLong(overhead, "maxNanos");
+            sample.overheadBudgetShare = overhead.has("budgetShare") ? overhead.get("budgetShare").getAsDouble() : 0.0;
+            sample.governorLevel = (int) getLong(overhead, "governorLevel");
+            if (overhead.has("hooks")) {
+                List<StatsSample.HookStats> hooks = new ArrayList<>();
+                for (Map.Entry<String, JsonElement> entry : overhead.getAsJsonObject("hooks").entrySet()) {
+                    JsonObject hook = entry.getValue().getAsJsonObject();
+                    hooks.add(new StatsSample.HookStats(entry.getKey(), getLong(hook, "totalNanos"), getLong(hook, "maxNanos")));
+                }
+                sample.overheadHooks = hooks;
+            }
+        }
+        return sample;
+    }
+
+    private static List<StatsSample.TrafficStats> readTraffic(JsonObject object, String key) {
+        if (!object.has(key)) {
+            return List.of();
+        }
+        List<StatsSample.TrafficStats> traffic = new ArrayList<>();
+        for (JsonElement element : object.getAsJsonArray(key)) {
+            JsonObject entry = element.getAsJsonObject();
+            traffic.add(new StatsSample.TrafficStats(entry.get("name").getAsString(),
+                    getLong(entry, "packetsIn"), getLong(entry, "bytesIn"),
+                    getLong(entry, "packetsOut"), getLong(entry, "bytesOut")));
+        }
+        return traffic;
+    }
+
+    private static long getLong(JsonObject object, String key) {
+        return object.has(key) ? object.get(key).getAsLong() : 0;
+    }
+
+    /**
+     * Reads every entry from an old-style JSON log (one object keyed by timestamp), oldest first.
+     * Entries whose timestamp can't be parsed are skipped.
+     *
+     * @param logFilePath The JSON log to read.
+     * @return The samples in the file, or an empty list if it couldn't be read.
+     */
+    public static List<StatsSample> readLegacyFile(String logFilePath) {
+        List<StatsSample> samples = new ArrayList<>();
+        try {
+            readLog(Path.of(logFilePath), samples::add);
+        } catch (IOException e) {
+            System.err.println("Error reading JSON file '" + logFilePath + "': " + e.getMessage());
+        } catch (JsonParseException | IllegalStateException e) {
+            System.err.println("Error parsing JSON file (invalid syntax) '" + logFilePath + "': " + e.getMessage());
+        }
+        return samples;
+    }
+
+    /**
+     * Streams the entries of a JSON log to a consumer in file order. Only one entry is parsed at a time,
+     * so reading doesn't depend on the size of the log. Entries whose timestamp can't be parsed are skipped.
+     */
+    public static void readLog(Path path, Consumer<StatsSample> consumer) throws IOException {
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(path, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                JsonElement value = JsonParser.parseReader(reader);
+                OptionalLong timestampMillis = Timestamps.parse(key);
+                if (timestampMillis.isEmpty()) {
+                    System.err.println("Skipping entry with unreadable timestamp '" + key + "' in '" + path + "'");
+                    continue;
+                }
+                StatsSample sample = fromJsonObject(value.getAsJsonObject());
+                sample.timestampMillis = timestampMillis.getAsLong();
+                consumer.accept(sample);
+            }
+            reader.endObject();
+        }
+    }
 }
@@ -0,0 +1,315 @@
+package com.dashtiss.tpsnitch;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.entity.BlockEntityType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Opt-in sampling profiler that works out which entity types, block entity types and chunks
+ * are eating the tick. Hooked in by the ServerLevel and LevelChunk mixins.
+ *
+ * <p>Only one in every N entity/block entity ticks is actually timed, and its time is scaled up
+ * by N. Results go into plain {@code long[]} counters indexed by registry id (and a fixed-size
+ * open-addressing table for chunks), so the hot path never allocates. The sample interval adapts
+ * to keep the profiler's own cost under {@link Config#ProfilerBudgetPercent} of the tick budget.
+ *
+ * <p>Everything except {@link #getLastHotspots()} must be called from the server thread.
+ */
+public class HotspotProfiler {
+
+    public static final String KIND_ENTITY = "entity";
+    public static final String KIND_BLOCK_ENTITY = "block_entity";
+    public static final String KIND_CHUNK = "chunk";
+
+    // Fixed number of chunks we track per interval; chunks beyond this are still counted per type
+    private static final int CHUNK_TABLE_SIZE = 4096;
+
+    // Upper bound for the adaptive sample interval
+    private static final int MAX_SAMPLE_INTERVAL = 1 << 16;
+
+    private static final HotspotProfiler INSTANCE = new HotspotProfiler();
+
+    // Per-type counters, indexed by registry id. Grown if a registry turns out to be bigger.
+    private long[] entityNanos = new long[256];
+    private long[] entitySamples = new long[256];
+    private long[] blockEntityNanos = new long[128];
+    private long[] blockEntitySamples = new long[128];
+
+    // Open-addressing table of chunk -> time. A slot is free when chunkLevels[slot] is null.
+    private final ServerLevel[] chunkLevels = new ServerLevel[CHUNK_TABLE_SIZE];
+    private final long[] chunkKeys = new long[CHUNK_TABLE_SIZE];
+    private final long[] chunkNanos = new long[CHUNK_TABLE_SIZE];
+    private final long[] chunkSamples = new long[CHUNK_TABLE_SIZE];
+    private int chunksTracked;
+
+    // Sampling state
+    private boolean enabled;
+    private int sampleInterval = 1;
+    private int countdown = 1;
+    private long entityStartNanos = -1;
+    private long blockEntityStartNanos = -1;
+
+    // How many ticks were timed this server tick, for the overhead estimate
+    private int timedThisTick;
+    private long estimatedCostPerSampleNanos = 50;
+    // Set by the overhead governor while TPSnitch as a whole is over budget
+    private int budgetDivisor = 1;
+
+    // Result of the last finished interval, readable from any thread
+    private volatile List<Hotspot> lastHotspots = List.of();
+
+    public static HotspotProfiler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Picks up config changes and calibrates the overhead estimate. Call once per server tick start.
+     */
+    public void startServerTick() {
+        if (enabled != Config.ProfilerEnabled) {
+            enabled = Config.ProfilerEnabled;
+            if (enabled) {
+                calibrate();
+                sampleInterval = Math.max(1, Config.ProfilerSampleInterval);
+                countdown = sampleInterval;
+            }
+        }
+        timedThisTick = 0;
+    }
+
+    /**
+     * Adjusts the sample interval so the profiler stays within its overhead budget. Call once per server tick end.
+     */
+    public void endServerTick() {
+        if (!enabled) {
+            return;
+        }
+        long overhead = timedThisTick * estimatedCostPerSampleNanos;
+        long budget = (long) (TickTimings.TICK_BUDGET_NANOS * Math.max(0.0, Config.ProfilerBudgetPercent) / 100.0) / budgetDivisor;
+        int minimum = Math.max(1, Config.ProfilerSampleInterval);
+        if (overhead > budget && sampleInterval < MAX_SAMPLE_INTERVAL) {
+            sampleInterval = Math.min(MAX_SAMPLE_INTERVAL, sampleInterval * 2);
+        } else if (overhead < budget / 4 && sampleInterval > minimum) {
+            sampleInterval = Math.max(minimum, sampleInterval / 2);
+        }
+    }
+
+    /**
+     * @return The estimated cost of this tick's sampling. Valid between {@link #endServerTick()} and the next tick start.
+     */
+    public long getTickOverheadNanos() {
+        return enabled ? timedThisTick * estimatedCostPerSampleNanos : 0;
+    }
+
+    /**
+     * Divides the profiler's budget, so the sample interval adapts down to it. Used by {@link SelfProfiler}'s governor.
+     */
+    public void setBudgetDivisor(int divisor) {
+        budgetDivisor = Math.max(1, divisor);
+    }
+
+    public void beginEntity() {
+        entityStartNanos = shouldSample() ? System.nanoTime() : -1;
+    }
+
+    public void endEntity(ServerLevel level, Entity entity) {
+        if (entityStartNanos < 0) {
+            return;
+        }
+        long nanos = (System.nanoTime() - entityStartNanos) * sampleInterval;
+        entityStartNanos = -1;
+
+        int id = BuiltInRegistries.ENTITY_TYPE.getId(entity.getType());
+        if (id >= 0) {
+            if (id >= entityNanos.length) {
+                entityNanos = Arrays.copyOf(entityNanos, id * 2);
+                entitySamples = Arrays.copyOf(entitySamples, id * 2);
+            }
+            entityNanos[id] += nanos;
+            entitySamples[id]++;
+        }
+        addChunk(level, entity.getBlockX() >> 4, entity.getBlockZ() >> 4, nanos);
+    }
+
+    public void beginBlockEntity() {
+        blockEntityStartNanos = shouldSample() ? System.nanoTime() : -1;
+    }
+
+    public void endBlockEntity(BlockEntity blockEntity) {
+        if (blockEntityStartNanos < 0) {
+            return;
+        }
+        long nanos = (System.nanoTime() - blockEntityStartNanos) * sampleInterval;
+        blockEntityStartNanos = -1;
+
+        int id = BuiltInRegistries.BLOCK_ENTITY_TYPE.getId(blockEntity.getType());
+        if (id >= 0) {
+            if (id >= blockEntityNanos.length) {
+                blockEntityNanos = Arrays.copyOf(blockEntityNanos, id * 2);
+                blockEntitySamples = Arrays.copyOf(blockEntitySamples, id * 2);
+            }
+            blockEntityNanos[id] += nanos;
+            blockEntitySamples[id]++;
+        }
+        Level level = blockEntity.getLevel();
+        if (level instanceof ServerLevel serverLevel) {
+            BlockPos pos = blockEntity.getBlockPos();
+            addChunk(serverLevel, pos.getX() >> 4, pos.getZ() >> 4, nanos);
+        }
+    }
+
+    private boolean shouldSample() {
+        if (!enabled || --countdown > 0) {
+            return false;
+        }
+        countdown = sampleInterval;
+        timedThisTick++;
+        return true;
+    }
+
+    private void addChunk(ServerLevel level, int chunkX, int chunkZ, long nanos) {
+        long key = ((long) chunkX & 0xFFFFFFFFL) | (((long) chunkZ & 0xFFFFFFFFL) << 32);
+        int mask = CHUNK_TABLE_SIZE - 1;
+        int slot = (int) (mix(key) ^ System.identityHashCode(level)) & mask;
+        for (int probe = 0; probe < CHUNK_TABLE_SIZE; probe++) {
+            ServerLevel existing = chunkLevels[slot];
+            if (existing == null) {
+                // Leave some room so probing stays short; once the table is this full, new chunks are ignored
+                if (chunksTracked >= CHUNK_TABLE_SIZE * 3 / 4) {
+                    return;
+                }
+                chunkLevels[slot] = level;
+                chunkKeys[slot] = key;
+                chunksTracked++;
+            } else if (existing != level || chunkKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+                continue;
+            }
+            chunkNanos[slot] += nanos;
+            chunkSamples[slot]++;
+            return;
+        }
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * Estimates how much one timed call costs us, so the budget check has something to go on.
+     */
+    private void calibrate() {
+        final int rounds = 1000;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            System.nanoTime();
+        }
+        long perCall = (System.nanoTime() - start) / rounds;
+        // Two clock reads plus roughly one more for the registry lookup and counter updates
+        estimatedCostPerSampleNanos = Math.max(20, perCall * 3);
+    }
+
+    /**
+     * Builds the top-N hotspots of each kind for the interval so far.
+     */
+    public List<Hotspot> currentHotspots(int topN) {
+        List<Hotspot> hotspots = new ArrayList<>();
+        addTop(hotspots, KIND_ENTITY, entityNanos, entitySamples, topN, id -> name(BuiltInRegistries.ENTITY_TYPE.getKey(BuiltInRegistries.ENTITY_TYPE.byId(id))));
+        addTop(hotspots, KIND_BLOCK_ENTITY, blockEntityNanos, blockEntitySamples, topN, id -> {
+            BlockEntityType<?> type = BuiltInRegistries.BLOCK_ENTITY_TYPE.byId(id);
+            return type == null ? "unknown" : name(BuiltInRegistries.BLOCK_ENTITY_TYPE.getKey(type));
+        });
+        addTop(hotspots, KIND_CHUNK, chunkNanos, chunkSamples, topN, slot -> {
+            long key = chunkKeys[slot];
+            return chunkLevels[slot].dimension().location() + " " + (int) key + "," + (int) (key >>> 32);
+        });
+        return hotspots;
+    }
+
+    /**
+     * Copies this interval's hotspots into a sample, publishes them for {@link #getLastHotspots()},
+     * and starts a new interval.
+     */
+    public void fill(StatsSample sample) {
+        if (!enabled) {
+            sample.hotspots = List.of();
+            return;
+        }
+        List<Hotspot> hotspots = List.copyOf(currentHotspots(Math.max(1, Config.ProfilerTopN)));
+        sample.hotspots = hotspots;
+        lastHotspots = hotspots;
+        reset();
+    }
+
+    private void reset() {
+        Arrays.fill(entityNanos, 0);
+        Arrays.fill(entitySamples, 0);
+        Arrays.fill(blockEntityNanos, 0);
+        Arrays.fill(blockEntitySamples, 0);
+        Arrays.fill(chunkLevels, null);
+        Arrays.fill(chunkNanos, 0);
+        Arrays.fill(chunkSamples, 0);
+        chunksTracked = 0;
+    }
+
+    /**
+     * @return The hotspots from the last finished interval. Safe to call from any thread.
+     */
+    public List<Hotspot> getLastHotspots() {
+        return lastHotspots;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return How many entity/block entity ticks are skipped for every one that is timed.
+     */
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    private static void addTop(List<Hotspot> out, String kind, long[] nanos, long[] samples, int topN, IntFunction<String> names) {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < nanos.length; i++) {
+            if (samples[i] > 0) {
+                indices.add(i);
+            }
+        }
+        indices.sort(Comparator.comparingLong((Integer i) -> nanos[i]).reversed());
+        for (int i = 0; i < Math.min(topN, indices.size()); i++) {
+            int index = indices.get(i);
+            out.add(new Hotspot(kind, names.apply(index), nanos[index], samples[index]));
+        }
+    }
+
+    private static String name(ResourceLocation location) {
+        return location == null ? "unknown" : location.toString();
+    }
+
+    /**
+     * Estimated tick time attributed to one entity type, block entity type or chunk.
+     *
+     * @param kind    One of {@link #KIND_ENTITY}, {@link #KIND_BLOCK_ENTITY} or {@link #KIND_CHUNK}.
+     * @param name    Registry id of the type, or "dimension x,z" for a chunk.
+     * @param nanos   Estimated total tick time (sampled time scaled by the sample interval).
+     * @param samples How many ticks were actually timed.
+     */
+    public record Hotspot(String kind, String name, long nanos, long samples) {
+    }
+}
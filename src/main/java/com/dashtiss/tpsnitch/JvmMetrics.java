@@ -0,0 +1,248 @@
+package com.dashtiss.tpsnitch;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM health: garbage collections, GC pauses, allocation rate, heap and old generation occupancy
+ * and safepoint time, so a TPS drop can be lined up with what the JVM was doing at the time.
+ *
+ * <p>Collection counts, allocation and memory usage come from the management MXBeans, which are
+ * cheap enough to read on the server thread. Individual pauses and safepoints are only visible
+ * through JFR, so a {@link RecordingStream} subscribed to just those events runs on its own
+ * thread. Its callbacks only add to counters, and the recording keeps a bounded amount of events
+ * on disk, so a stalled consumer can't pile anything up in memory.
+ */
+public class JvmMetrics {
+
+    // Limits for the JFR recording's buffered events
+    private static final long JFR_MAX_BYTES = 4L * 1024 * 1024;
+    private static final Duration JFR_MAX_AGE = Duration.ofSeconds(30);
+
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    // Null if the collector doesn't have a recognisable old generation (e.g. non-generational ZGC)
+    private final MemoryPoolMXBean oldGen = findOldGen();
+    // Null if the JVM can't count allocated bytes
+    private final com.sun.management.ThreadMXBean threads = findAllocationCounter();
+
+    // Added to by the JFR thread, drained by the server thread
+    private final AtomicLong pauses = new AtomicLong();
+    private final AtomicLong pauseNanos = new AtomicLong();
+    private final AtomicLong pauseMaxNanos = new AtomicLong();
+    private final AtomicLong safepoints = new AtomicLong();
+    private final AtomicLong safepointNanos = new AtomicLong();
+
+    private volatile JfrEvents jfr;
+
+    // Server thread only
+    private long lastGcCount;
+    private long lastGcMillis;
+    private long lastAllocatedBytes;
+    private long lastFillMillis;
+    private long heapPeak;
+    private long oldGenPeak;
+
+    public JvmMetrics() {
+        lastGcCount = totalGcCount();
+        lastGcMillis = totalGcMillis();
+        lastAllocatedBytes = allocatedBytes();
+        lastFillMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Starts streaming GC pause and safepoint events from JFR. If JFR isn't available (or is
+     * disabled with {@code -XX:-FlightRecorder}) the pause and safepoint numbers are left out and
+     * everything else still works.
+     */
+    public synchronized void startJfr() {
+        if (jfr != null) {
+            return;
+        }
+        try {
+            JfrEvents events = new JfrEvents();
+            events.start();
+            jfr = events;
+            Tpsnitch.LOGGER.debug("Streaming GC pause and safepoint events from JFR.");
+        } catch (RuntimeException | LinkageError e) {
+            Tpsnitch.LOGGER.warn("JFR isn't available, GC pause and safepoint times won't be recorded: {}", e.getMessage());
+        }
+    }
+
+    public synchronized void stop() {
+        JfrEvents events = jfr;
+        jfr = null;
+        if (events != null) {
+            events.close();
+        }
+    }
+
+    /**
+     * Samples heap occupancy to catch peaks between logged intervals. Server thread only.
+     */
+    public void sample() {
+        heapPeak = Math.max(heapPeak, memory.getHeapMemoryUsage().getUsed());
+        if (oldGen != null) {
+            oldGenPeak = Math.max(oldGenPeak, oldGen.getUsage().getUsed());
+        }
+    }
+
+    /**
+     * Copies this interval's JVM statistics into a sample and starts a new interval. Server thread only.
+     */
+    public void fill(StatsSample sample) {
+        long now = System.currentTimeMillis();
+        long gcCount = totalGcCount();
+        long gcMillis = totalGcMillis();
+        long allocated = allocatedBytes();
+        sample.jvmMetrics = true;
+        sample.gcCount = gcCount - lastGcCount;
+        sample.gcTimeMillis = gcMillis - lastGcMillis;
+        if (allocated >= 0 && lastAllocatedBytes >= 0) {
+            sample.allocatedBytes = allocated - lastAllocatedBytes;
+            sample.allocationBytesPerSecond = now > lastFillMillis ? sample.allocatedBytes * 1000 / (now - lastFillMillis) : 0;
+        }
+
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        sample.heapUsedBytes = heap.getUsed();
+        sample.heapPeakBytes = Math.max(heapPeak, heap.getUsed());
+        sample.heapCommittedBytes = heap.getCommitted();
+        sample.heapMaxBytes = heap.getMax();
+        if (oldGen != null) {
+            MemoryUsage usage = oldGen.getUsage();
+            MemoryUsage afterGc = oldGen.getCollectionUsage();
+            sample.oldGenUsedBytes = usage.getUsed();
+            sample.oldGenPeakBytes = Math.max(oldGenPeak, usage.getUsed());
+            sample.oldGenAfterGcBytes = afterGc == null ? -1 : afterGc.getUsed();
+            sample.oldGenMaxBytes = usage.getMax();
+        } else {
+            sample.oldGenUsedBytes = -1;
+        }
+
+        if (jfr != null) {
+            sample.jfrEvents = true;
+            sample.gcPauses = pauses.getAndSet(0);
+            sample.gcPauseTotalNanos = pauseNanos.getAndSet(0);
+            sample.gcPauseMaxNanos = pauseMaxNanos.getAndSet(0);
+            sample.safepoints = safepoints.getAndSet(0);
+            sample.safepointTotalNanos = safepointNanos.getAndSet(0);
+        }
+
+        lastGcCount = gcCount;
+        lastGcMillis = gcMillis;
+        lastAllocatedBytes = allocated;
+        lastFillMillis = now;
+        heapPeak = 0;
+        oldGenPeak = 0;
+    }
+
+    private long totalGcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(0, collector.getCollectionCount());
+        }
+        return total;
+    }
+
+    private long totalGcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    private long allocatedBytes() {
+        return threads == null ? -1 : threads.getTotalThreadAllocatedBytes();
+    }
+
+    private static MemoryPoolMXBean findOldGen() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            String name = pool.getName();
+            if (pool.getType() == MemoryType.HEAP && (name.contains("Old Gen") || name.contains("Tenured") || name.contains("Old Generation"))) {
+                return pool;
+            }
+        }
+        return null;
+    }
+
+    private static com.sun.management.ThreadMXBean findAllocationCounter() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean threads && threads.isThreadAllocatedMemorySupported()) {
+            if (!threads.isThreadAllocatedMemoryEnabled()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+            }
+            return threads;
+        }
+        return null;
+    }
+
+    /**
+     * The JFR side, kept in its own class so nothing from {@code jdk.jfr} is loaded unless it's used.
+     */
+    private class JfrEvents {
+        private final RecordingStream stream = new RecordingStream();
+        private final Thread thread;
+
+        // JFR thread only. Safepoints never overlap, so the last one begun is the one that ends next
+        private long safepointId = -1;
+        private long safepointStartNanos;
+
+        private JfrEvents() {
+            stream.setMaxSize(JFR_MAX_BYTES);
+            stream.setMaxAge(JFR_MAX_AGE);
+            stream.enable("jdk.GCPhasePause").withoutThreshold();
+            stream.enable("jdk.SafepointBegin").withoutThreshold();
+            stream.enable("jdk.SafepointEnd").withoutThreshold();
+            stream.onEvent("jdk.GCPhasePause", this::onPause);
+            stream.onEvent("jdk.SafepointBegin", this::onSafepointBegin);
+            stream.onEvent("jdk.SafepointEnd", this::onSafepointEnd);
+            thread = new Thread(stream::start, "TPSnitch-JFR");
+            thread.setDaemon(true);
+        }
+
+        private void start() {
+            thread.start();
+        }
+
+        private void close() {
+            stream.close();
+        }
+
+        private void onPause(RecordedEvent event) {
+            long nanos = event.getDuration().toNanos();
+            pauses.incrementAndGet();
+            pauseNanos.addAndGet(nanos);
+            pauseMaxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private void onSafepointBegin(RecordedEvent event) {
+            safepointId = event.getLong("safepointId");
+            safepointStartNanos = toNanos(event);
+        }
+
+        private void onSafepointEnd(RecordedEvent event) {
+            if (event.getLong("safepointId") != safepointId) {
+                return;
+            }
+            safepointId = -1;
+            safepoints.incrementAndGet();
+            safepointNanos.addAndGet(Math.max(0, toNanos(event) + event.getDuration().toNanos() - safepointStartNanos));
+        }
+
+        private static long toNanos(RecordedEvent event) {
+            return event.getStartTime().getEpochSecond() * 1_000_000_000L + event.getStartTime().getNano();
+        }
+    }
+}
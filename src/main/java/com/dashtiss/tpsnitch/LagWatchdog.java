@@ -0,0 +1,267 @@
+package com.dashtiss.tpsnitch;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches for ticks that run too long and captures what the server thread was doing.
+ *
+ * <p>The server thread only publishes when each tick starts and ends (two volatile writes per tick).
+ * A separate watchdog thread sleeps until the running tick would cross {@link Config#LagThresholdMillis},
+ * and if that tick is still running then, it samples the server thread's stack at a high rate until the
+ * tick finishes. The samples are written as folded stacks ({@code frame;frame;frame count}), which
+ * flame graph tools read directly.
+ *
+ * <p>Taking a stack trace briefly pauses the server thread, so captures are rate limited, capped in
+ * length, written on a separate thread, and old reports are deleted to stay within a disk budget.
+ */
+public class LagWatchdog {
+
+    // Published by the server thread
+    private volatile long tickStartNanos;
+    private volatile long tickNumber;
+    private volatile boolean tickRunning;
+
+    private final Path reportDirectory;
+    private final Thread serverThread;
+    private final ThreadPoolExecutor reportWriter;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    // Watchdog thread only
+    private long lastCaptureNanos = Long.MIN_VALUE;
+
+    // Each written by a single thread, readable from any
+    private volatile long reportsWritten;
+    private volatile long capturesSkipped;
+
+    /**
+     * @param serverThread    The thread to watch and sample.
+     * @param reportDirectory Where to write the folded stack reports.
+     */
+    public LagWatchdog(Thread serverThread, Path reportDirectory) {
+        this.serverThread = serverThread;
+        this.reportDirectory = reportDirectory;
+        // One writer thread and room for one waiting report; anything beyond that is dropped rather than queued up
+        this.reportWriter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1), runnable -> {
+            Thread writer = new Thread(runnable, "TPSnitch-LagReportWriter");
+            writer.setDaemon(true);
+            return writer;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Call at the start of every tick, from the server thread.
+     */
+    public void tickStarted(long nowNanos) {
+        tickStartNanos = nowNanos;
+        tickNumber = tickNumber + 1;
+        tickRunning = true;
+    }
+
+    /**
+     * Call at the end of every tick, from the server thread.
+     */
+    public void tickEnded() {
+        tickRunning = false;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "TPSnitch-LagWatchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        Thread watchdogThread;
+        synchronized (this) {
+            watchdogThread = thread;
+            thread = null;
+        }
+        running = false;
+        if (watchdogThread != null) {
+            watchdogThread.interrupt();
+        }
+        reportWriter.shutdown();
+    }
+
+    private void run() {
+        long lastCapturedTick = -1;
+        while (running) {
+            long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Config.LagThresholdMillis));
+            long now = System.nanoTime();
+            boolean inProgress = tickRunning;
+            // The start is published before the number, so this start is never older than the tick read here
+            long tick = tickNumber;
+            long tickStart = tickStartNanos;
+
+            // With no uncaptured tick running, the next one starts after now and can't cross the threshold
+            // before now + threshold
+            long deadline = (inProgress && tick != lastCapturedTick ? tickStart : now) + thresholdNanos;
+            if (deadline - now > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(deadline - now);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            lastCapturedTick = tick;
+
+            if (lastCaptureNanos != Long.MIN_VALUE && now - lastCaptureNanos < TimeUnit.SECONDS.toNanos(Config.LagReportCooldownSeconds)) {
+                capturesSkipped++;
+                continue;
+            }
+            lastCaptureNanos = now;
+            capture(tick, tickStart);
+        }
+    }
+
+    /**
+     * Samples the server thread's stack until the given tick ends or the capture hits its time limit.
+     *
+     * @param tickStart When the tick started, as read together with its number. By the time the capture
+     *                  ends the server thread has usually published the next tick's start.
+     */
+    private void capture(long tick, long tickStart) {
+        Map<String, Integer> folded = new HashMap<>();
+        long captureStart = System.nanoTime();
+        long maxCaptureNanos = TimeUnit.SECONDS.toNanos(Math.max(1, Config.LagMaxCaptureSeconds));
+        int samples = 0;
+        StringBuilder line = new StringBuilder(1024);
+
+        while (running && tickRunning && tickNumber == tick && System.nanoTime() - captureStart < maxCaptureNanos) {
+            StackTraceElement[] stack = serverThread.getStackTrace();
+            if (stack.length > 0) {
+                line.setLength(0);
+                // Folded stacks go from the root frame to the leaf
+                for (int i = stack.length - 1; i >= 0; i--) {
+                    if (i != stack.length - 1) {
+                        line.append(';');
+                    }
+                    line.append(stack[i].getClassName()).append('.').append(stack[i].getMethodName());
+                }
+                folded.merge(line.toString(), 1, Integer::sum);
+                samples++;
+            }
+            try {
+                Thread.sleep(Math.max(1, Config.LagSampleIntervalMillis));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        long tickMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - tickStart);
+        if (samples == 0) {
+            return;
+        }
+        Tpsnitch.LOGGER.warn("Tick {} took at least {} ms, captured {} stack samples.", tick, tickMillis, samples);
+
+        // Zero-padded epoch millis, so the names sort by age whatever the time zone or clock changes
+        String fileName = String.format(Locale.ROOT, "lag-%013d-%dms.folded", System.currentTimeMillis(), tickMillis);
+        reportWriter.execute(() -> writeReport(fileName, folded));
+    }
+
+    private void writeReport(String fileName, Map<String, Integer> folded) {
+        List<String> lines = new ArrayList<>(folded.size());
+        long size = 0;
+        for (Map.Entry<String, Integer> entry : folded.entrySet()) {
+            String line = entry.getKey() + ' ' + entry.getValue();
+            lines.add(line);
+            size += line.length() + 1;
+        }
+
+        try {
+            Files.createDirectories(reportDirectory);
+            if (!makeRoom(size)) {
+                Tpsnitch.LOGGER.warn("Lag report {} ({} bytes) is bigger than the report budget, not writing it.", fileName, size);
+                return;
+            }
+            Path file = reportDirectory.resolve(fileName);
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            }
+            reportsWritten++;
+            Tpsnitch.LOGGER.info("Lag report written to {}", file);
+        } catch (IOException e) {
+            Tpsnitch.LOGGER.error("Failed to write lag report {}: {}", fileName, e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the oldest reports until a new report of the given size fits within the budget.
+     *
+     * @return false if the report wouldn't fit even with the directory empty.
+     */
+    private boolean makeRoom(long newReportBytes) throws IOException {
+        long budget = Math.max(1, Config.LagReportBudgetMegabytes) * 1024L * 1024L;
+        if (newReportBytes > budget) {
+            return false;
+        }
+
+        List<Path> reports = new ArrayList<>();
+        long used = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(reportDirectory, "lag-*.folded")) {
+            for (Path report : stream) {
+                reports.add(report);
+                used += Files.size(report);
+            }
+        }
+        reports.sort(Comparator.comparingLong(LagWatchdog::reportEpochMillis));
+        for (Path oldest : reports) {
+            if (used + newReportBytes <= budget) {
+                break;
+            }
+            used -= Files.size(oldest);
+            Files.deleteIfExists(oldest);
+        }
+        return true;
+    }
+
+    /**
+     * @return When a report was written, from its name, or 0 if the name has no number there. The older
+     * local-time names ({@code lag-yyyyMMdd-...}) parse as small numbers, so both are deleted first.
+     */
+    private static long reportEpochMillis(Path report) {
+        String name = report.getFileName().toString();
+        int end = name.indexOf('-', 4);
+        if (end < 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(name.substring(4, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public long getReportsWritten() {
+        return reportsWritten;
+    }
+
+    public long getCapturesSkipped() {
+        return capturesSkipped;
+    }
+}
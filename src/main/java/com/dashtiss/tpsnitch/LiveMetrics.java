@@ -0,0 +1,182 @@
+package com.dashtiss.tpsnitch;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * The latest metrics, published by the server thread once per tick and readable from any thread.
+ *
+ * <p>This is a seqlock: the server thread bumps {@code version} to an odd number, writes the
+ * fields, then bumps it back to even. Readers copy the fields and retry if the version changed
+ * underneath them. The server thread never waits for readers and never allocates, so however
+ * many scrapes come in they can't slow the tick down.
+ */
+public class LiveMetrics {
+
+    private volatile long version;
+
+    // Guarded by version; see class comment
+    private final MetricsSnapshot current = new MetricsSnapshot();
+
+    /**
+     * Publishes the per-tick values. Server thread only.
+     */
+    public void publishTick(long timestampMillis, long tickNumber, double tps, double tps1m, double tps5m, double tps15m, long averageTickNanos,
+                            long lastTickNanos, int players, long overheadNanos, int governorLevel,
+                            int writerQueueDepth, long writerDropped, long lagReportsWritten, long lagCapturesSkipped) {
+        beginWrite();
+        current.timestampMillis = timestampMillis;
+        current.tickNumber = tickNumber;
+        current.tps = tps;
+        current.tps1m = tps1m;
+        current.tps5m = tps5m;
+        current.tps15m = tps15m;
+        current.averageTickNanos = averageTickNanos;
+        current.lastTickNanos = lastTickNanos;
+        current.players = players;
+        current.overheadNanos = overheadNanos;
+        current.governorLevel = governorLevel;
+        current.writerQueueDepth = writerQueueDepth;
+        current.writerDropped = writerDropped;
+        current.lagReportsWritten = lagReportsWritten;
+        current.lagCapturesSkipped = lagCapturesSkipped;
+        endWrite();
+    }
+
+    /**
+     * Publishes the percentiles of a finished interval. Server thread only.
+     */
+    public void publishInterval(StatsSample sample) {
+        beginWrite();
+        current.intervalTicks = sample.tickCount;
+        current.intervalTicksOver50ms = sample.ticksOver50ms;
+        current.intervalMeanNanos = sample.msptMeanNanos;
+        current.intervalP50Nanos = sample.msptP50Nanos;
+        current.intervalP90Nanos = sample.msptP90Nanos;
+        current.intervalP99Nanos = sample.msptP99Nanos;
+        current.intervalP999Nanos = sample.msptP999Nanos;
+        current.intervalMaxNanos = sample.msptMaxNanos;
+        current.intervalOverheadMeanNanos = sample.overheadMeanNanos;
+        current.intervalOverheadP99Nanos = sample.overheadP99Nanos;
+        current.intervalOverheadMaxNanos = sample.overheadMaxNanos;
+        current.intervalGcCount = sample.gcCount;
+        current.intervalGcPauseTotalNanos = sample.gcPauseTotalNanos;
+        current.intervalGcPauseMaxNanos = sample.gcPauseMaxNanos;
+        current.intervalSafepointTotalNanos = sample.safepointTotalNanos;
+        current.intervalAllocationBytesPerSecond = sample.allocationBytesPerSecond;
+        current.heapUsedBytes = sample.heapUsedBytes;
+        current.heapMaxBytes = sample.heapMaxBytes;
+        current.oldGenAfterGcBytes = sample.oldGenAfterGcBytes;
+        current.intervalChunkLoads = sample.chunkLoads;
+        current.intervalChunksGenerated = sample.chunksGenerated;
+        current.intervalChunkSaveServerThreadMeanNanos = sample.chunkSaveServerThreadMeanNanos;
+        current.intervalChunkWrites = sample.chunkWrites;
+        current.intervalChunkWriteMeanNanos = sample.chunkWriteMeanNanos;
+        current.intervalChunkWriteMaxNanos = sample.chunkWriteMaxNanos;
+        current.chunksLoaded = sample.chunksLoaded;
+        current.chunkTasksPending = sample.chunkTasksPending;
+        current.intervalNetPacketsIn = sample.netPacketsIn;
+        current.intervalNetBytesIn = sample.netBytesIn;
+        current.intervalNetPacketsOut = sample.netPacketsOut;
+        current.intervalNetBytesOut = sample.netBytesOut;
+        endWrite();
+    }
+
+    /**
+     * Publishes player activity. Server thread only.
+     */
+    public void publishPlayers(long joinsTotal, long leavesTotal, int sessionsOpen,
+                               long pingP50Millis, long pingP99Millis, long pingMaxMillis) {
+        beginWrite();
+        current.joinsTotal = joinsTotal;
+        current.leavesTotal = leavesTotal;
+        current.sessionsOpen = sessionsOpen;
+        current.pingP50Millis = pingP50Millis;
+        current.pingP99Millis = pingP99Millis;
+        current.pingMaxMillis = pingMaxMillis;
+        endWrite();
+    }
+
+    /**
+     * Copies the latest metrics into {@code out}. Never blocks the server thread; if a write is
+     * in progress this spins until it finishes, which only takes a handful of nanoseconds.
+     *
+     * @return {@code out}, for convenience.
+     */
+    public MetricsSnapshot read(MetricsSnapshot out) {
+        while (true) {
+            long before = version;
+            if ((before & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            out.timestampMillis = current.timestampMillis;
+            out.tickNumber = current.tickNumber;
+            out.tps = current.tps;
+            out.tps1m = current.tps1m;
+            out.tps5m = current.tps5m;
+            out.tps15m = current.tps15m;
+            out.averageTickNanos = current.averageTickNanos;
+            out.lastTickNanos = current.lastTickNanos;
+            out.players = current.players;
+            out.overheadNanos = current.overheadNanos;
+            out.governorLevel = current.governorLevel;
+            out.intervalTicks = current.intervalTicks;
+            out.intervalTicksOver50ms = current.intervalTicksOver50ms;
+            out.intervalMeanNanos = current.intervalMeanNanos;
+            out.intervalP50Nanos = current.intervalP50Nanos;
+            out.intervalP90Nanos = current.intervalP90Nanos;
+            out.intervalP99Nanos = current.intervalP99Nanos;
+            out.intervalP999Nanos = current.intervalP999Nanos;
+            out.intervalMaxNanos = current.intervalMaxNanos;
+            out.intervalOverheadMeanNanos = current.intervalOverheadMeanNanos;
+            out.intervalOverheadP99Nanos = current.intervalOverheadP99Nanos;
+            out.intervalOverheadMaxNanos = current.intervalOverheadMaxNanos;
+            out.intervalGcCount = current.intervalGcCount;
+            out.intervalGcPauseTotalNanos = current.intervalGcPauseTotalNanos;
+            out.intervalGcPauseMaxNanos = current.intervalGcPauseMaxNanos;
+            out.intervalSafepointTotalNanos = current.intervalSafepointTotalNanos;
+            out.intervalAllocationBytesPerSecond = current.intervalAllocationBytesPerSecond;
+            out.heapUsedBytes = current.heapUsedBytes;
+            out.heapMaxBytes = current.heapMaxBytes;
+            out.oldGenAfterGcBytes = current.oldGenAfterGcBytes;
+            out.intervalChunkLoads = current.intervalChunkLoads;
+            out.intervalChunksGenerated = current.intervalChunksGenerated;
+            out.intervalChunkSaveServerThreadMeanNanos = current.intervalChunkSaveServerThreadMeanNanos;
+            out.intervalChunkWrites = current.intervalChunkWrites;
+            out.intervalChunkWriteMeanNanos = current.intervalChunkWriteMeanNanos;
+            out.intervalChunkWriteMaxNanos = current.intervalChunkWriteMaxNanos;
+            out.chunksLoaded = current.chunksLoaded;
+            out.chunkTasksPending = current.chunkTasksPending;
+            out.intervalNetPacketsIn = current.intervalNetPacketsIn;
+            out.intervalNetBytesIn = current.intervalNetBytesIn;
+            out.intervalNetPacketsOut = current.intervalNetPacketsOut;
+            out.intervalNetBytesOut = current.intervalNetBytesOut;
+            out.joinsTotal = current.joinsTotal;
+            out.leavesTotal = current.leavesTotal;
+            out.sessionsOpen = current.sessionsOpen;
+            out.pingP50Millis = current.pingP50Millis;
+            out.pingP99Millis = current.pingP99Millis;
+            out.pingMaxMillis = current.pingMaxMillis;
+            out.writerQueueDepth = current.writerQueueDepth;
+            out.writerDropped = current.writerDropped;
+            out.lagReportsWritten = current.lagReportsWritten;
+            out.lagCapturesSkipped = current.lagCapturesSkipped;
+
+            // The copies above must be done before we check the version again
+            VarHandle.loadLoadFence();
+            if (version == before) {
+                return out;
+            }
+        }
+    }
+
+    private void beginWrite() {
+        version = version + 1;
+        // Keep the field writes that follow from being seen before the version goes odd
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite() {
+        version = version + 1;
+    }
+}
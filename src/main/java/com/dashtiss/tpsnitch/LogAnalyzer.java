@@ -0,0 +1,610 @@
+package com.dashtiss.tpsnitch;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Offline analysis of the stats logs from one or more servers. Run it with
+ * {@code ./gradlew analyzeLogs --args="..."}, or straight from the mod jar with Gson added to the
+ * classpath (the jar doesn't bundle it; Minecraft provides it on a server). It doesn't need a running
+ * server, Minecraft or Fabric.
+ *
+ * <p>That only works as long as nothing here reaches {@link Config} or {@link Tpsnitch}: MidnightLib
+ * is bundled jar-in-jar and Tpsnitch needs Fabric, so neither can be loaded from a plain classpath.
+ * The log readers take their settings as arguments and report problems on {@code System.err}
+ * instead. {@code LogAnalyzerTest} runs the analyzer without those classes to keep it that way.
+ *
+ * <p>Every server's logs are parsed on their own virtual thread, one entry at a time, and each
+ * thread keeps that server's summary up to date as it goes. The samples are then merged by
+ * timestamp through small bounded queues into a common timeline of fixed-width buckets. Percentiles
+ * come from fixed-size histograms and only the worst intervals are kept, so memory use depends on
+ * the number of servers and not on the size of their logs.
+ *
+ * <p>Accepts the old JSON logs, {@code .ndjson} segment files, segment directories and TSDB store
+ * directories (read through {@link TimeSeriesStore#readOnly}, so a live server's store is safe to read).
+ * Given a JSON log path, the segment directory and store next to it are read too, so the configured
+ * {@code Log File Path} can be passed whichever format the server writes. They are read in the order
+ * a server moves through them (JSON, then segments, then the store), and entries an earlier format
+ * already covered are skipped, since each format imports the older ones when it first starts.
+ *
+ * <p>With {@code --export}, a single server's logs are instead written out as one JSON log in the old
+ * {@code TPSLogs.json} layout, for tools that only read that format.
+ */
+public final class LogAnalyzer {
+
+    private static final String USAGE = """
+            Usage: java -cp <mod jar>:<gson jar> com.dashtiss.tpsnitch.LogAnalyzer [options] [name=]<log> ...
+                   ./gradlew analyzeLogs --args="[options] [name=]<log> ..."
+              <log>              A JSON log, an .ndjson segment, a segment directory or a TSDB store directory.
+                                 Name defaults to the file name.
+              --bucket <seconds> Width of the shared timeline buckets (default 60)
+              --tier <tier>      Which TSDB tier to read: raw, 1m, 1h or 1d (default raw)
+              --top <n>          How many worst intervals and timeline buckets to list (default 10)
+              --timeline <file>  Also write the merged timeline to a CSV file
+              --export <file>    Write a single <log> out as one JSON log in the old TPSLogs.json layout
+                                 instead of analyzing it (the --tier option picks what a TSDB store exports)""";
+
+    // Samples waiting to be merged, per server. Keeps the readers from running ahead of the merge.
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // Highest MSPT the histograms can tell apart; longer intervals are still counted as the max
+    private static final long HIGHEST_NANOS = 60_000_000_000L;
+    private static final double MAX_TPS = 20.0;
+
+    // Worst first: lowest TPS, then highest MSPT
+    private static final Comparator<Interval> WORST_FIRST = Comparator.comparingDouble(Interval::tps)
+            .thenComparing(Comparator.comparingLong(Interval::msptNanos).reversed());
+
+    private final List<Source> sources;
+    private final long bucketMillis;
+    private final int top;
+    private final Path timelineFile;
+    private final TimeSeriesStore.Tier tier;
+
+    public LogAnalyzer(List<Source> sources, long bucketMillis, int top, Path timelineFile, TimeSeriesStore.Tier tier) {
+        this.sources = List.copyOf(sources);
+        this.bucketMillis = bucketMillis;
+        this.top = top;
+        this.timelineFile = timelineFile;
+        this.tier = tier;
+    }
+
+    public static void main(String[] args) {
+        long bucketSeconds = 60;
+        int top = 10;
+        Path timelineFile = null;
+        Path exportFile = null;
+        TimeSeriesStore.Tier tier = TimeSeriesStore.Tier.RAW;
+        List<Source> sources = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--bucket" -> bucketSeconds = Long.parseLong(optionValue(args, ++i));
+                    case "--top" -> top = Integer.parseInt(optionValue(args, ++i));
+                    case "--timeline" -> timelineFile = Path.of(optionValue(args, ++i));
+                    case "--export" -> exportFile = Path.of(optionValue(args, ++i));
+                    case "--tier" -> tier = TimeSeriesStore.Tier.fromName(optionValue(args, ++i));
+                    case "-h", "--help" -> {
+                        System.out.println(USAGE);
+                        return;
+                    }
+                    default -> {
+                        Source source = Source.parse(args[i]);
+                        if (!names.add(source.name())) {
+                            // Two servers whose logs have the same file name: tell them apart by path instead
+                            source = new Source(source.path().toString(), source.path());
+                            names.add(source.name());
+                        }
+                        sources.add(source);
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        if (sources.isEmpty() || bucketSeconds < 1 || top < 1 || (exportFile != null && sources.size() > 1)) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        if (exportFile != null) {
+            try {
+                long entries = export(sources.get(0), tier, exportFile);
+                System.out.println("Exported " + entries + " entries to " + exportFile);
+                System.exit(0);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error exporting '" + sources.get(0).path() + "' to '" + exportFile + "': " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        try {
+            boolean complete = new LogAnalyzer(sources, bucketSeconds * 1000, top, timelineFile, tier).run(System.out);
+            System.exit(complete ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println("Error writing the timeline to '" + timelineFile + "': " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes every entry of one server's logs to a single JSON log, replacing {@code output} in one step.
+     * Entries from a TSDB store only carry what the store keeps (see {@link TimeSeriesPoint#toSample()}).
+     *
+     * @return How many entries were written.
+     */
+    public static long export(Source source, TimeSeriesStore.Tier tier, Path output) throws IOException {
+        long[] entries = {0};
+        FileHandler.writeAtomically(output, out -> {
+            JsonWriter writer = FileHandler.newLogWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), false);
+            writer.beginObject();
+            try {
+                read(source, tier, sample -> {
+                    try {
+                        FileHandler.writeEntry(writer, sample);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    entries[0]++;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.endObject();
+            writer.flush();
+        });
+        return entries[0];
+    }
+
+    /**
+     * Reads one server's logs in the order the server moved through the formats, skipping entries an
+     * earlier format already covered.
+     */
+    static void read(Source source, TimeSeriesStore.Tier tier, Consumer<StatsSample> consumer) throws IOException {
+        // Newest entry passed on so far; entries up to skipUntil[0] were read from an earlier format
+        long[] newest = {Long.MIN_VALUE};
+        long[] skipUntil = {Long.MIN_VALUE};
+        Consumer<StatsSample> unseen = sample -> {
+            if (sample.timestampMillis <= skipUntil[0]) {
+                return;
+            }
+            newest[0] = Math.max(newest[0], sample.timestampMillis);
+            consumer.accept(sample);
+        };
+
+        String previousFormat = null;
+        for (Path file : source.files()) {
+            String format = Files.isDirectory(file) ? "tsdb" : file.getFileName().toString().endsWith(".ndjson") ? "ndjson" : "json";
+            if (previousFormat != null && !format.equals(previousFormat)) {
+                skipUntil[0] = newest[0];
+            }
+            previousFormat = format;
+            switch (format) {
+                case "tsdb" -> TimeSeriesStore.readOnly(file).forEach(tier, Long.MIN_VALUE, Long.MAX_VALUE, point -> unseen.accept(point.toSample()));
+                case "ndjson" -> SegmentLog.readSegment(file, unseen);
+                default -> FileHandler.readLog(file, unseen);
+            }
+        }
+    }
+
+    private static String optionValue(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    /**
+     * Reads every source and prints the report.
+     *
+     * @return False if any of the logs couldn't be read completely.
+     */
+    public boolean run(Appendable out) throws IOException, InterruptedException {
+        List<ServerReader> readers = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            readers.add(new ServerReader(i, sources.get(i)));
+        }
+
+        Timeline timeline = new Timeline(readers.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+             Writer csv = timelineFile == null ? null : Files.newBufferedWriter(timelineFile, StandardCharsets.UTF_8)) {
+            for (ServerReader reader : readers) {
+                executor.submit(reader::run);
+            }
+            if (csv != null) {
+                csv.write("time,servers,meanTps,minTps,minTpsServer,maxMsptMs");
+                for (Source source : sources) {
+                    csv.write("," + csvField(source.name() + " tps"));
+                }
+                csv.write("\n");
+            }
+            try {
+                merge(readers, timeline, csv);
+            } finally {
+                // Only matters if the merge failed: unblocks readers waiting on a full queue
+                executor.shutdownNow();
+            }
+        }
+
+        boolean complete = true;
+        for (ServerReader reader : readers) {
+            complete &= !reader.failed;
+        }
+        report(out, readers, timeline);
+        return complete;
+    }
+
+    /**
+     * Takes the samples from all readers in timestamp order and adds them to the timeline.
+     */
+    private void merge(List<ServerReader> readers, Timeline timeline, Writer csv) throws IOException, InterruptedException {
+        PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.comparingLong((Head head) -> head.point.timestampMillis()));
+        for (ServerReader reader : readers) {
+            Point first = reader.queue.take();
+            if (first != Point.END) {
+                heads.add(new Head(reader, first));
+            }
+        }
+
+        long bucketStart = Long.MIN_VALUE;
+        while (!heads.isEmpty()) {
+            Head head = heads.poll();
+            long start = Math.floorDiv(head.point.timestampMillis(), bucketMillis) * bucketMillis;
+            // A log that goes back in time (e.g. the clock was changed) is added to the current bucket
+            if (start > bucketStart) {
+                if (bucketStart != Long.MIN_VALUE) {
+                    timeline.close(bucketStart, csv);
+                }
+                bucketStart = start;
+            }
+            timeline.add(head.reader.index, head.point);
+
+            Point next = head.reader.queue.take();
+            if (next != Point.END) {
+                head.point = next;
+                heads.add(head);
+            }
+        }
+        if (bucketStart != Long.MIN_VALUE) {
+            timeline.close(bucketStart, csv);
+        }
+    }
+
+    private void report(Appendable out, List<ServerReader> readers, Timeline timeline) throws IOException {
+        Summary fleet = new Summary();
+        List<Interval> worst = new ArrayList<>();
+        for (ServerReader reader : readers) {
+            fleet.add(reader.summary);
+            worst.addAll(reader.summary.worst);
+        }
+        worst.sort(WORST_FIRST);
+
+        if (fleet.intervals == 0) {
+            out.append("No intervals found.\n");
+            return;
+        }
+        out.append(String.format(Locale.ROOT, "TPSnitch log analysis: %d server(s), %d intervals, %s to %s%n%n",
+                readers.size(), fleet.intervals, Timestamps.format(fleet.firstMillis), Timestamps.format(fleet.lastMillis)));
+
+        int nameWidth = "fleet".length();
+        for (ServerReader reader : readers) {
+            nameWidth = Math.max(nameWidth, reader.source.name().length());
+        }
+        String columns = "%-" + nameWidth + "s %9s %7s %7s %7s %7s %8s %8s %8s %8s %9s %9s%n";
+        out.append(String.format(Locale.ROOT, columns, "server", "intervals", "TPS p50", "TPS p10", "TPS p1", "TPS min",
+                "MSPT p50", "MSPT p90", "MSPT p99", "MSPT max", "max tick", "slow tick"));
+        for (ServerReader reader : readers) {
+            reader.summary.print(out, columns, reader.source.name());
+        }
+        fleet.print(out, columns, "fleet");
+        out.append("MSPT is each interval's mean, max tick the longest single tick, slow ticks the share over 50 ms.\n");
+
+        out.append(String.format(Locale.ROOT, "%nWorst intervals (lowest TPS):%n"));
+        for (Interval interval : worst.subList(0, Math.min(top, worst.size()))) {
+            out.append(String.format(Locale.ROOT, "  %s  %-" + nameWidth + "s  TPS %5.2f  MSPT %8.1f ms  max tick %s%n",
+                    Timestamps.format(interval.timestampMillis()), sources.get(interval.server()).name(), interval.tps(),
+                    millis(interval.msptNanos()), interval.maxTickNanos() > 0 ? String.format(Locale.ROOT, "%.1f ms", millis(interval.maxTickNanos())) : "-"));
+        }
+
+        out.append(String.format(Locale.ROOT, "%nWorst %d s buckets across the fleet (lowest mean TPS):%n", bucketMillis / 1000));
+        List<Bucket> buckets = new ArrayList<>(timeline.worst);
+        buckets.sort(Comparator.comparingDouble(Bucket::meanTps));
+        for (Bucket bucket : buckets) {
+            out.append(String.format(Locale.ROOT, "  %s  %d/%d servers  mean TPS %5.2f  min TPS %5.2f (%s)  max MSPT %.1f ms%n",
+                    Timestamps.format(bucket.startMillis()), bucket.servers(), readers.size(), bucket.meanTps(),
+                    bucket.minTps(), sources.get(bucket.minTpsServer()).name(), millis(bucket.maxMsptNanos())));
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    /**
+     * One server's logs.
+     *
+     * @param name What to call the server in the report.
+     * @param path A JSON log, a segment file, a segment directory or a TSDB store directory.
+     */
+    public record Source(String name, Path path) {
+
+        /**
+         * Parses a {@code name=path} or plain {@code path} argument.
+         */
+        static Source parse(String argument) {
+            int equals = argument.indexOf('=');
+            if (equals > 0) {
+                return new Source(argument.substring(0, equals), Path.of(argument.substring(equals + 1)));
+            }
+            Path path = Path.of(argument);
+            String name = path.getFileName() == null ? argument : path.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            return new Source(dot > 0 ? name.substring(0, dot) : name, path);
+        }
+
+        /**
+         * Works out which files to read, in order. A TSDB store is listed as its directory.
+         */
+        List<Path> files() throws IOException {
+            if (Files.isDirectory(path)) {
+                return TimeSeriesStore.isStore(path) ? List.of(path) : SegmentLog.listSegments(path);
+            }
+            List<Path> files = new ArrayList<>();
+            if (Files.isRegularFile(path)) {
+                files.add(path);
+            }
+            // The server may have moved on to segments since this JSON log was written
+            if (!path.getFileName().toString().endsWith(".ndjson")) {
+                Path segments = SegmentLog.segmentDirectory(path);
+                if (Files.isDirectory(segments)) {
+                    files.addAll(SegmentLog.listSegments(segments));
+                }
+                Path store = TimeSeriesStore.storeDirectory(path);
+                if (TimeSeriesStore.isStore(store)) {
+                    files.add(store);
+                }
+            }
+            if (files.isEmpty()) {
+                throw new IOException("No log found at '" + path + "'");
+            }
+            return files;
+        }
+    }
+
+    /**
+     * The parts of a sample the timeline needs. MSPT is the interval's mean tick time.
+     */
+    private record Point(long timestampMillis, double tps, long msptNanos) {
+        static final Point END = new Point(Long.MAX_VALUE, 0, 0);
+    }
+
+    private record Interval(int server, long timestampMillis, double tps, long msptNanos, long maxTickNanos) {
+    }
+
+    private record Bucket(long startMillis, int servers, double meanTps, double minTps, int minTpsServer, long maxMsptNanos) {
+    }
+
+    private static final class Head {
+        private final ServerReader reader;
+        private Point point;
+
+        private Head(ServerReader reader, Point point) {
+            this.reader = reader;
+            this.point = point;
+        }
+    }
+
+    /**
+     * Parses one server's logs on a virtual thread, summarising them and passing each sample on to the merge.
+     */
+    private final class ServerReader {
+        private final int index;
+        private final Source source;
+        private final BlockingQueue<Point> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        // Only read after the reader has queued Point.END
+        private final Summary summary = new Summary();
+        private volatile boolean failed;
+
+        private ServerReader(int index, Source source) {
+            this.index = index;
+            this.source = source;
+        }
+
+        private void run() {
+            try {
+                read(source, tier, this::accept);
+            } catch (IOException | RuntimeException e) {
+                // Keep what was read so far; the report covers it
+                System.err.println("Error reading logs for '" + source.name() + "': " + e.getMessage());
+                failed = true;
+            } finally {
+                put(Point.END);
+            }
+        }
+
+        private void accept(StatsSample sample) {
+            // Logs from before per-tick timings only have the whole-millisecond MSPT
+            long msptNanos = sample.tickCount > 0 ? sample.msptMeanNanos : sample.mspt * 1_000_000L;
+            summary.record(new Interval(index, sample.timestampMillis, sample.tps, msptNanos, sample.msptMaxNanos), sample, top);
+            put(new Point(sample.timestampMillis, sample.tps, msptNanos));
+        }
+
+        private void put(Point point) {
+            try {
+                queue.put(point);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reading logs", e);
+            }
+        }
+    }
+
+    /**
+     * Percentiles and worst intervals for one server, or the whole fleet.
+     */
+    private static final class Summary {
+        // TPS is recorded as milli-TPS below 20, which the histogram resolves best where TPS is close to 20
+        private final LongHistogram tpsDeficit = new LongHistogram((long) (MAX_TPS * 1000));
+        private final LongHistogram mspt = new LongHistogram(HIGHEST_NANOS);
+        // Worst intervals kept so far, best of them first so it's the one dropped
+        private final PriorityQueue<Interval> worst = new PriorityQueue<>(WORST_FIRST.reversed());
+        private long intervals;
+        private long firstMillis = Long.MAX_VALUE;
+        private long lastMillis = Long.MIN_VALUE;
+        private long maxTickNanos;
+        private long ticks;
+        private long slowTicks;
+
+        private void record(Interval interval, StatsSample sample, int keep) {
+            intervals++;
+            firstMillis = Math.min(firstMillis, interval.timestampMillis());
+            lastMillis = Math.max(lastMillis, interval.timestampMillis());
+            tpsDeficit.record(Math.round((MAX_TPS - Math.min(MAX_TPS, interval.tps())) * 1000));
+            mspt.record(interval.msptNanos());
+            maxTickNanos = Math.max(maxTickNanos, interval.maxTickNanos());
+            ticks += sample.tickCount;
+            slowTicks += sample.ticksOver50ms;
+            worst.add(interval);
+            if (worst.size() > keep) {
+                worst.poll();
+            }
+        }
+
+        private void add(Summary other) {
+            intervals += other.intervals;
+            firstMillis = Math.min(firstMillis, other.firstMillis);
+            lastMillis = Math.max(lastMillis, other.lastMillis);
+            tpsDeficit.add(other.tpsDeficit);
+            mspt.add(other.mspt);
+            maxTickNanos = Math.max(maxTickNanos, other.maxTickNanos);
+            ticks += other.ticks;
+            slowTicks += other.slowTicks;
+        }
+
+        private double tpsAtPercentile(double percentile) {
+            return MAX_TPS - tpsDeficit.getValueAtPercentile(100 - percentile) / 1000.0;
+        }
+
+        private void print(Appendable out, String columns, String name) throws IOException {
+            if (intervals == 0) {
+                out.append(String.format(Locale.ROOT, columns, name, 0, "-", "-", "-", "-", "-", "-", "-", "-", "-", "-"));
+                return;
+            }
+            out.append(String.format(Locale.ROOT, columns, name, intervals,
+                    String.format(Locale.ROOT, "%.2f", tpsAtPercentile(50)),
+                    String.format(Locale.ROOT, "%.2f", tpsAtPercentile(10)),
+                    String.format(Locale.ROOT, "%.2f", tpsAtPercentile(1)),
+                    String.format(Locale.ROOT, "%.2f", MAX_TPS - tpsDeficit.getMax() / 1000.0),
+                    String.format(Locale.ROOT, "%.1f", millis(mspt.getValueAtPercentile(50))),
+                    String.format(Locale.ROOT, "%.1f", millis(mspt.getValueAtPercentile(90))),
+                    String.format(Locale.ROOT, "%.1f", millis(mspt.getValueAtPercentile(99))),
+                    String.format(Locale.ROOT, "%.1f", millis(mspt.getMax())),
+                    maxTickNanos > 0 ? String.format(Locale.ROOT, "%.1f", millis(maxTickNanos)) : "-",
+                    ticks > 0 ? String.format(Locale.ROOT, "%.2f%%", 100.0 * slowTicks / ticks) : "-"));
+        }
+    }
+
+    /**
+     * The merged timeline. Holds one bucket's worth of per-server totals, plus the worst buckets so far.
+     */
+    private final class Timeline {
+        private final double[] tpsSum;
+        private final int[] samples;
+        private final long[] maxMsptNanos;
+        // Best of the worst first, so it's the one dropped
+        private final PriorityQueue<Bucket> worst = new PriorityQueue<>(Comparator.comparingDouble(Bucket::meanTps).reversed());
+
+        private Timeline(int servers) {
+            tpsSum = new double[servers];
+            samples = new int[servers];
+            maxMsptNanos = new long[servers];
+        }
+
+        private void add(int server, Point point) {
+            tpsSum[server] += point.tps();
+            samples[server]++;
+            maxMsptNanos[server] = Math.max(maxMsptNanos[server], point.msptNanos());
+        }
+
+        /**
+         * Finishes the current bucket, writes it to the CSV if there is one and starts the next.
+         */
+        private void close(long startMillis, Writer csv) throws IOException {
+            int servers = 0;
+            double meanSum = 0;
+            double minTps = Double.MAX_VALUE;
+            int minTpsServer = -1;
+            long maxMspt = 0;
+            for (int i = 0; i < samples.length; i++) {
+                if (samples[i] == 0) {
+                    continue;
+                }
+                double mean = tpsSum[i] / samples[i];
+                servers++;
+                meanSum += mean;
+                if (mean < minTps) {
+                    minTps = mean;
+                    minTpsServer = i;
+                }
+                maxMspt = Math.max(maxMspt, maxMsptNanos[i]);
+            }
+            Bucket bucket = new Bucket(startMillis, servers, meanSum / servers, minTps, minTpsServer, maxMspt);
+
+            if (csv != null) {
+                StringBuilder row = new StringBuilder();
+                row.append(Timestamps.format(startMillis)).append(',').append(servers)
+                        .append(String.format(Locale.ROOT, ",%.2f,%.2f,", bucket.meanTps(), minTps))
+                        .append(csvField(sources.get(minTpsServer).name()))
+                        .append(String.format(Locale.ROOT, ",%.1f", millis(maxMspt)));
+                for (int i = 0; i < samples.length; i++) {
+                    row.append(',');
+                    if (samples[i] > 0) {
+                        row.append(String.format(Locale.ROOT, "%.2f", tpsSum[i] / samples[i]));
+                    }
+                }
+                csv.write(row.append('\n').toString());
+            }
+
+            worst.add(bucket);
+            if (worst.size() > top) {
+                worst.poll();
+            }
+            Arrays.fill(tpsSum, 0);
+            Arrays.fill(samples, 0);
+            Arrays.fill(maxMsptNanos, 0);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.dashtiss.tpsnitch;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-memory histogram of long values with log-linear buckets, in the style of HdrHistogram.
+ * Values below 128 are counted exactly; above that every power-of-two range is split into 64 buckets,
+ * so any recorded value is known to within about 1.6%. All state lives in a single {@code long[]}
+ * allocated up front, so {@link #record(long)} never allocates.
+ *
+ * <p>Not thread-safe: each histogram is meant to be owned by one thread (normally the server thread).
+ */
+public class LongHistogram {
+
+    // Values below 2^SUB_BUCKET_BITS get their own bucket
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+    private final long highestTrackableValue;
+    private final long[] counts;
+
+    private long totalCount;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * @param highestTrackableValue Values above this are clamped to it (max is still tracked exactly).
+     */
+    public LongHistogram(long highestTrackableValue) {
+        this.highestTrackableValue = Math.max(SUB_BUCKET_COUNT, highestTrackableValue);
+        this.counts = new long[bucketIndex(this.highestTrackableValue) + 1];
+    }
+
+    /**
+     * Records one value. Negative values are treated as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[bucketIndex(Math.min(value, highestTrackableValue))]++;
+        totalCount++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Adds all counts from another histogram with the same highest trackable value.
+     */
+    public void add(LongHistogram other) {
+        int length = Math.min(counts.length, other.counts.length);
+        for (int i = 0; i < length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Clears all recorded values without releasing the backing array.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * Returns the value at the given percentile. The result is the top of the bucket the percentile
+     * falls into (never above the real maximum), so it slightly overestimates rather than hides a spike.
+     *
+     * @param percentile A percentile between 0 and 100.
+     * @return The value at that percentile, or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        double clamped = Math.max(0.0, Math.min(100.0, percentile));
+        long target = Math.max(1, (long) Math.ceil(clamped / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.max(min, Math.min(max, highestValueInBucket(i)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return How many recorded values were strictly greater than the threshold (bucket precision).
+     */
+    public long getCountAbove(long threshold) {
+        long above = 0;
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (lowestValueInBucket(i) <= threshold) {
+                break;
+            }
+            above += counts[i];
+        }
+        return above;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    /**
+     * @return The sum of all recorded values (not clamped).
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS + 1;
+        return SUB_BUCKET_COUNT + (magnitude - SUB_BUCKET_BITS) * HALF_COUNT + (int) ((value >>> shift) - HALF_COUNT);
+    }
+
+    private static long lowestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int offset = index - SUB_BUCKET_COUNT;
+        int magnitude = offset / HALF_COUNT + SUB_BUCKET_BITS;
+        int shift = magnitude - SUB_BUCKET_BITS + 1;
+        return ((long) (offset % HALF_COUNT) + HALF_COUNT) << shift;
+    }
+
+    private static long highestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int magnitude = (index - SUB_BUCKET_COUNT) / HALF_COUNT + SUB_BUCKET_BITS;
+        int shift = magnitude - SUB_BUCKET_BITS + 1;
+        return lowestValueInBucket(index) + (1L << shift) - 1;
+    }
+}
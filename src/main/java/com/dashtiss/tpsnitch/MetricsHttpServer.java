@@ -0,0 +1,328 @@
+package com.dashtiss.tpsnitch;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Small embedded HTTP server that exposes the live metrics for monitoring systems.
+ * <ul>
+ *     <li>{@code /metrics} - Prometheus text format</li>
+ *     <li>{@code /metrics.json} - the same values as JSON</li>
+ * </ul>
+ * Requests are handled on virtual threads and only ever read from {@link LiveMetrics},
+ * so scrapes never touch the server thread or the log files.
+ */
+public class MetricsHttpServer {
+
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+
+    private final LiveMetrics metrics;
+    private final SamplingScheduler scheduler;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public MetricsHttpServer(LiveMetrics metrics, SamplingScheduler scheduler) {
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Binds the server and starts accepting scrapes.
+     *
+     * @param bindAddress Address to listen on, e.g. "127.0.0.1".
+     * @param port        Port to listen on, or 0 to pick a free one.
+     */
+    public void start(String bindAddress, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        // HttpServer picks the longest matching context, so /metrics.json doesn't fall into /metrics
+        server.createContext("/metrics", exchange ->
+                respond(exchange, PROMETHEUS_CONTENT_TYPE, renderPrometheus(metrics.read(new MetricsSnapshot()), scheduler.getStats())));
+        server.createContext("/metrics.json", exchange ->
+                respond(exchange, JSON_CONTENT_TYPE, renderJson(metrics.read(new MetricsSnapshot()), scheduler.getStats())));
+        server.start();
+        Tpsnitch.LOGGER.info("Metrics endpoint listening on http://{}:{}/metrics", bindAddress, getPort());
+    }
+
+    /**
+     * Stops the server, giving in-flight scrapes a moment to finish.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(1);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return The port actually bound, useful when started with port 0.
+     */
+    public int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Renders a snapshot and the collector costs in the Prometheus text exposition format.
+     */
+    public static String renderPrometheus(MetricsSnapshot snapshot, List<SamplingScheduler.CollectorStats> collectors) {
+        StringBuilder out = new StringBuilder(2048);
+        gauge(out, "tpsnitch_tps", "Ticks per second, capped at 20.", snapshot.tps);
+        out.append("# HELP tpsnitch_tps_rolling Rolling ticks per second from wall-clock tick intervals.\n");
+        out.append("# TYPE tpsnitch_tps_rolling gauge\n");
+        out.append("tpsnitch_tps_rolling{window=\"1m\"} ").append(format(snapshot.tps1m)).append('\n');
+        out.append("tpsnitch_tps_rolling{window=\"5m\"} ").append(format(snapshot.tps5m)).append('\n');
+        out.append("tpsnitch_tps_rolling{window=\"15m\"} ").append(format(snapshot.tps15m)).append('\n');
+        gauge(out, "tpsnitch_tick_average_seconds", "Average tick time as reported by the server.", seconds(snapshot.averageTickNanos));
+        gauge(out, "tpsnitch_tick_last_seconds", "Duration of the most recent tick.", seconds(snapshot.lastTickNanos));
+        gauge(out, "tpsnitch_players", "Players online.", snapshot.players);
+
+        out.append("# HELP tpsnitch_tick_interval_seconds Tick time percentiles over the last logged interval.\n");
+        out.append("# TYPE tpsnitch_tick_interval_seconds summary\n");
+        quantile(out, "0.5", snapshot.intervalP50Nanos);
+        quantile(out, "0.9", snapshot.intervalP90Nanos);
+        quantile(out, "0.99", snapshot.intervalP99Nanos);
+        quantile(out, "0.999", snapshot.intervalP999Nanos);
+        quantile(out, "1", snapshot.intervalMaxNanos);
+        out.append("tpsnitch_tick_interval_seconds_sum ").append(format(seconds(snapshot.intervalMeanNanos * snapshot.intervalTicks))).append('\n');
+        out.append("tpsnitch_tick_interval_seconds_count ").append(snapshot.intervalTicks).append('\n');
+
+        counter(out, "tpsnitch_player_joins_total", "Player joins since the server started.", snapshot.joinsTotal);
+        counter(out, "tpsnitch_player_leaves_total", "Player disconnects since the server started.", snapshot.leavesTotal);
+        out.append("# HELP tpsnitch_player_ping_seconds Player ping percentiles over the current interval.\n");
+        out.append("# TYPE tpsnitch_player_ping_seconds gauge\n");
+        out.append("tpsnitch_player_ping_seconds{quantile=\"0.5\"} ").append(format(snapshot.pingP50Millis / 1000.0)).append('\n');
+        out.append("tpsnitch_player_ping_seconds{quantile=\"0.99\"} ").append(format(snapshot.pingP99Millis / 1000.0)).append('\n');
+        out.append("tpsnitch_player_ping_seconds{quantile=\"1\"} ").append(format(snapshot.pingMaxMillis / 1000.0)).append('\n');
+
+        gauge(out, "tpsnitch_interval_gc_collections", "Garbage collections in the last logged interval.", snapshot.intervalGcCount);
+        gauge(out, "tpsnitch_interval_gc_pause_seconds", "Total GC pause time in the last logged interval (needs JFR).", seconds(snapshot.intervalGcPauseTotalNanos));
+        gauge(out, "tpsnitch_interval_gc_pause_max_seconds", "Longest GC pause in the last logged interval (needs JFR).", seconds(snapshot.intervalGcPauseMaxNanos));
+        gauge(out, "tpsnitch_interval_safepoint_seconds", "Time spent in safepoints in the last logged interval (needs JFR).", seconds(snapshot.intervalSafepointTotalNanos));
+        gauge(out, "tpsnitch_allocation_bytes_per_second", "Heap allocation rate over the last logged interval.", snapshot.intervalAllocationBytesPerSecond);
+        gauge(out, "tpsnitch_heap_used_bytes", "Heap in use at the end of the last logged interval.", snapshot.heapUsedBytes);
+        gauge(out, "tpsnitch_heap_max_bytes", "Maximum heap size.", snapshot.heapMaxBytes);
+        gauge(out, "tpsnitch_old_gen_after_gc_bytes", "Old generation occupancy after the last collection.", snapshot.oldGenAfterGcBytes);
+
+        gauge(out, "tpsnitch_chunks_loaded", "Chunks loaded across all dimensions.", snapshot.chunksLoaded);
+        gauge(out, "tpsnitch_interval_chunk_loads", "Chunks loaded (from disk or generated) in the last logged interval.", snapshot.intervalChunkLoads);
+        gauge(out, "tpsnitch_interval_chunks_generated", "Chunks generated in the last logged interval.", snapshot.intervalChunksGenerated);
+        gauge(out, "tpsnitch_interval_chunk_save_server_thread_mean_seconds", "Average server thread time per chunk save, before the I/O worker writes it, in the last logged interval.", seconds(snapshot.intervalChunkSaveServerThreadMeanNanos));
+        gauge(out, "tpsnitch_interval_chunk_writes", "Chunks written to region files in the last logged interval.", snapshot.intervalChunkWrites);
+        gauge(out, "tpsnitch_interval_chunk_write_mean_seconds", "Average I/O worker time per chunk written to its region file in the last logged interval.", seconds(snapshot.intervalChunkWriteMeanNanos));
+        gauge(out, "tpsnitch_interval_chunk_write_max_seconds", "Longest chunk write to a region file in the last logged interval.", seconds(snapshot.intervalChunkWriteMaxNanos));
+        gauge(out, "tpsnitch_chunk_tasks_pending", "Chunk tasks waiting to run on the server thread.", snapshot.chunkTasksPending);
+
+        out.append("# HELP tpsnitch_interval_network_packets Packets sent and received in the last logged interval.\n");
+        out.append("# TYPE tpsnitch_interval_network_packets gauge\n");
+        out.append("tpsnitch_interval_network_packets{direction=\"in\"} ").append(snapshot.intervalNetPacketsIn).append('\n');
+        out.append("tpsnitch_interval_network_packets{direction=\"out\"} ").append(snapshot.intervalNetPacketsOut).append('\n');
+        out.append("# HELP tpsnitch_interval_network_bytes Encoded packet bytes sent and received in the last logged interval.\n");
+        out.append("# TYPE tpsnitch_interval_network_bytes gauge\n");
+        out.append("tpsnitch_interval_network_bytes{direction=\"in\"} ").append(snapshot.intervalNetBytesIn).append('\n');
+        out.append("tpsnitch_interval_network_bytes{direction=\"out\"} ").append(snapshot.intervalNetBytesOut).append('\n');
+
+        gauge(out, "tpsnitch_interval_ticks_over_budget", "Ticks over 50 ms in the last logged interval.", snapshot.intervalTicksOver50ms);
+        gauge(out, "tpsnitch_overhead_seconds", "Time TPSnitch itself spent in the most recent tick.", seconds(snapshot.overheadNanos));
+        out.append("# HELP tpsnitch_interval_overhead_seconds Time TPSnitch itself spent per tick over the last logged interval.\n");
+        out.append("# TYPE tpsnitch_interval_overhead_seconds summary\n");
+        out.append("tpsnitch_interval_overhead_seconds{quantile=\"0.99\"} ").append(format(seconds(snapshot.intervalOverheadP99Nanos))).append('\n');
+        out.append("tpsnitch_interval_overhead_seconds{quantile=\"1\"} ").append(format(seconds(snapshot.intervalOverheadMaxNanos))).append('\n');
+        out.append("tpsnitch_interval_overhead_seconds_sum ").append(format(seconds(snapshot.intervalOverheadMeanNanos * snapshot.intervalTicks))).append('\n');
+        out.append("tpsnitch_interval_overhead_seconds_count ").append(snapshot.intervalTicks).append('\n');
+        gauge(out, "tpsnitch_governor_level", "How far TPSnitch has cut back its sampling to stay within its overhead budget (0-3).", snapshot.governorLevel);
+        gauge(out, "tpsnitch_writer_queue_depth", "Samples waiting to be written to disk.", snapshot.writerQueueDepth);
+        counter(out, "tpsnitch_writer_dropped_total", "Samples dropped because the writer queue was full.", snapshot.writerDropped);
+        counter(out, "tpsnitch_lag_reports_written_total", "Lag watchdog reports written to disk.", snapshot.lagReportsWritten);
+        counter(out, "tpsnitch_lag_captures_skipped_total", "Long ticks the lag watchdog didn't capture because of the cooldown.", snapshot.lagCapturesSkipped);
+        gauge(out, "tpsnitch_tick_number", "Server tick counter at the time of the snapshot.", snapshot.tickNumber);
+
+        out.append("# HELP tpsnitch_collector_runs_total Times each collector has run.\n");
+        out.append("# TYPE tpsnitch_collector_runs_total counter\n");
+        for (SamplingScheduler.CollectorStats collector : collectors) {
+            collectorSample(out, "tpsnitch_collector_runs_total", collector).append(collector.runs()).append('\n');
+        }
+        out.append("# HELP tpsnitch_collector_seconds_total Time each collector has spent on the server thread.\n");
+        out.append("# TYPE tpsnitch_collector_seconds_total counter\n");
+        for (SamplingScheduler.CollectorStats collector : collectors) {
+            collectorSample(out, "tpsnitch_collector_seconds_total", collector).append(format(seconds(collector.totalNanos()))).append('\n');
+        }
+        out.append("# HELP tpsnitch_collector_last_seconds Duration of each collector's most recent run.\n");
+        out.append("# TYPE tpsnitch_collector_last_seconds gauge\n");
+        for (SamplingScheduler.CollectorStats collector : collectors) {
+            collectorSample(out, "tpsnitch_collector_last_seconds", collector).append(format(seconds(collector.lastNanos()))).append('\n');
+        }
+        out.append("# HELP tpsnitch_collector_interval_ticks How often each collector runs.\n");
+        out.append("# TYPE tpsnitch_collector_interval_ticks gauge\n");
+        for (SamplingScheduler.CollectorStats collector : collectors) {
+            collectorSample(out, "tpsnitch_collector_interval_ticks", collector).append(collector.intervalTicks()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Renders a snapshot and the collector costs as a JSON object.
+     */
+    public static String renderJson(MetricsSnapshot snapshot, List<SamplingScheduler.CollectorStats> collectors) {
+        StringWriter buffer = new StringWriter(1024);
+        try (JsonWriter writer = new JsonWriter(buffer)) {
+            writer.beginObject();
+            writer.name("timestamp").value(Timestamps.format(snapshot.timestampMillis));
+            writer.name("epochMillis").value(snapshot.timestampMillis);
+            writer.name("tickNumber").value(snapshot.tickNumber);
+            writer.name("tps").value(snapshot.tps);
+            writer.name("tps1m").value(snapshot.tps1m);
+            writer.name("tps5m").value(snapshot.tps5m);
+            writer.name("tps15m").value(snapshot.tps15m);
+            writer.name("averageTickNanos").value(snapshot.averageTickNanos);
+            writer.name("lastTickNanos").value(snapshot.lastTickNanos);
+            writer.name("playerCount").value(snapshot.players);
+            writer.name("overheadNanos").value(snapshot.overheadNanos);
+            writer.name("governorLevel").value(snapshot.governorLevel);
+            writer.name("interval").beginObject();
+            writer.name("tickCount").value(snapshot.intervalTicks);
+            writer.name("ticksOver50ms").value(snapshot.intervalTicksOver50ms);
+            writer.name("msptNanos").beginObject();
+            writer.name("mean").value(snapshot.intervalMeanNanos);
+            writer.name("p50").value(snapshot.intervalP50Nanos);
+            writer.name("p90").value(snapshot.intervalP90Nanos);
+            writer.name("p99").value(snapshot.intervalP99Nanos);
+            writer.name("p999").value(snapshot.intervalP999Nanos);
+            writer.name("max").value(snapshot.intervalMaxNanos);
+            writer.endObject();
+            writer.name("overheadNanos").beginObject();
+            writer.name("mean").value(snapshot.intervalOverheadMeanNanos);
+            writer.name("p99").value(snapshot.intervalOverheadP99Nanos);
+            writer.name("max").value(snapshot.intervalOverheadMaxNanos);
+            writer.endObject();
+            writer.endObject();
+            writer.name("jvm").beginObject();
+            writer.name("gcCount").value(snapshot.intervalGcCount);
+            writer.name("gcPauseTotalNanos").value(snapshot.intervalGcPauseTotalNanos);
+            writer.name("gcPauseMaxNanos").value(snapshot.intervalGcPauseMaxNanos);
+            writer.name("safepointTotalNanos").value(snapshot.intervalSafepointTotalNanos);
+            writer.name("allocationBytesPerSecond").value(snapshot.intervalAllocationBytesPerSecond);
+            writer.name("heapUsedBytes").value(snapshot.heapUsedBytes);
+            writer.name("heapMaxBytes").value(snapshot.heapMaxBytes);
+            writer.name("oldGenAfterGcBytes").value(snapshot.oldGenAfterGcBytes);
+            writer.endObject();
+            writer.name("chunks").beginObject();
+            writer.name("loaded").value(snapshot.chunksLoaded);
+            writer.name("loads").value(snapshot.intervalChunkLoads);
+            writer.name("generated").value(snapshot.intervalChunksGenerated);
+            writer.name("saveServerThreadMeanNanos").value(snapshot.intervalChunkSaveServerThreadMeanNanos);
+            writer.name("writes").value(snapshot.intervalChunkWrites);
+            writer.name("writeMeanNanos").value(snapshot.intervalChunkWriteMeanNanos);
+            writer.name("writeMaxNanos").value(snapshot.intervalChunkWriteMaxNanos);
+            writer.name("pendingTasks").value(snapshot.chunkTasksPending);
+            writer.endObject();
+            writer.name("network").beginObject();
+            writer.name("packetsIn").value(snapshot.intervalNetPacketsIn);
+            writer.name("bytesIn").value(snapshot.intervalNetBytesIn);
+            writer.name("packetsOut").value(snapshot.intervalNetPacketsOut);
+            writer.name("bytesOut").value(snapshot.intervalNetBytesOut);
+            writer.endObject();
+            writer.name("players").beginObject();
+            writer.name("online").value(snapshot.players);
+            writer.name("joinsTotal").value(snapshot.joinsTotal);
+            writer.name("leavesTotal").value(snapshot.leavesTotal);
+            writer.name("sessionsOpen").value(snapshot.sessionsOpen);
+            writer.name("pingMillis").beginObject();
+            writer.name("p50").value(snapshot.pingP50Millis);
+            writer.name("p99").value(snapshot.pingP99Millis);
+            writer.name("max").value(snapshot.pingMaxMillis);
+            writer.endObject();
+            writer.endObject();
+            writer.name("writer").beginObject();
+            writer.name("queueDepth").value(snapshot.writerQueueDepth);
+            writer.name("dropped").value(snapshot.writerDropped);
+            writer.endObject();
+            writer.name("lagWatchdog").beginObject();
+            writer.name("reportsWritten").value(snapshot.lagReportsWritten);
+            writer.name("capturesSkipped").value(snapshot.lagCapturesSkipped);
+            writer.endObject();
+            writer.name("collectors").beginArray();
+            for (SamplingScheduler.CollectorStats collector : collectors) {
+                writer.beginObject();
+                writer.name("name").value(collector.name());
+                writer.name("expensive").value(collector.expensive());
+                writer.name("intervalTicks").value(collector.intervalTicks());
+                writer.name("runs").value(collector.runs());
+                writer.name("totalNanos").value(collector.totalNanos());
+                writer.name("lastNanos").value(collector.lastNanos());
+                writer.name("maxNanos").value(collector.maxNanos());
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        } catch (IOException e) {
+            // StringWriter doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return buffer.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static StringBuilder collectorSample(StringBuilder out, String name, SamplingScheduler.CollectorStats collector) {
+        return out.append(name).append("{collector=\"").append(collector.name()).append("\"} ");
+    }
+
+    private static void quantile(StringBuilder out, String quantile, long nanos) {
+        out.append("tpsnitch_tick_interval_seconds{quantile=\"").append(quantile).append("\"} ").append(format(seconds(nanos))).append('\n');
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1_000_000_000.0;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.9g", value);
+    }
+}
@@ -0,0 +1,78 @@
+package com.dashtiss.tpsnitch;
+
+/**
+ * A consistent copy of the live metrics, filled in by {@link LiveMetrics#read(MetricsSnapshot)}.
+ * Readers own their snapshot, so nothing here is shared with the server thread.
+ */
+public class MetricsSnapshot {
+
+    // Updated every tick
+    public long timestampMillis;
+    public long tickNumber;
+    public double tps;
+    public double tps1m;
+    public double tps5m;
+    public double tps15m;
+    public long averageTickNanos;
+    public long lastTickNanos;
+    public int players;
+    public long overheadNanos;
+    public int governorLevel;
+
+    // Updated every logged interval
+    public long intervalTicks;
+    public long intervalTicksOver50ms;
+    public long intervalMeanNanos;
+    public long intervalP50Nanos;
+    public long intervalP90Nanos;
+    public long intervalP99Nanos;
+    public long intervalP999Nanos;
+    public long intervalMaxNanos;
+
+    // TPSnitch's own overhead per tick over the last logged interval
+    public long intervalOverheadMeanNanos;
+    public long intervalOverheadP99Nanos;
+    public long intervalOverheadMaxNanos;
+
+    // JVM health over the last logged interval; pause and safepoint numbers need JFR
+    public long intervalGcCount;
+    public long intervalGcPauseTotalNanos;
+    public long intervalGcPauseMaxNanos;
+    public long intervalSafepointTotalNanos;
+    public long intervalAllocationBytesPerSecond;
+    public long heapUsedBytes;
+    public long heapMaxBytes;
+    public long oldGenAfterGcBytes;
+
+    // Chunk loading over the last logged interval
+    public long intervalChunkLoads;
+    public long intervalChunksGenerated;
+    public long intervalChunkSaveServerThreadMeanNanos;
+    public long intervalChunkWrites;
+    public long intervalChunkWriteMeanNanos;
+    public long intervalChunkWriteMaxNanos;
+    public int chunksLoaded;
+    public int chunkTasksPending;
+
+    // Network traffic over the last logged interval
+    public long intervalNetPacketsIn;
+    public long intervalNetBytesIn;
+    public long intervalNetPacketsOut;
+    public long intervalNetBytesOut;
+
+    // Player activity, updated about once a second
+    public long joinsTotal;
+    public long leavesTotal;
+    public int sessionsOpen;
+    public long pingP50Millis;
+    public long pingP99Millis;
+    public long pingMaxMillis;
+
+    // Writer health, updated every tick
+    public int writerQueueDepth;
+    public long writerDropped;
+
+    // Lag watchdog, updated every tick; 0 while it's off
+    public long lagReportsWritten;
+    public long lagCapturesSkipped;
+}
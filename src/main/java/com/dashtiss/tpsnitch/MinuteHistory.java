@@ -0,0 +1,95 @@
+package com.dashtiss.tpsnitch;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Per-minute tick summaries for the last hour, for the {@code /tpsnitch} command.
+ *
+ * <p>Each tick only adds to the current minute's counters. When a minute ends its summary is
+ * appended and an immutable copy of the list is published, so the command reads a ready-made
+ * snapshot instead of going through {@link TickHistory} or the log file every time it runs.
+ */
+public class MinuteHistory {
+
+    public static final int MINUTES = 60;
+
+    private static final long MINUTE_MILLIS = 60_000L;
+
+    /**
+     * Tick times for one wall-clock minute.
+     *
+     * @param startMillis   Start of the minute, in epoch milliseconds.
+     * @param maxAtMillis   When the longest tick ended.
+     * @param ticksOver50ms Ticks that took longer than the 50 ms budget.
+     */
+    public record Minute(long startMillis, long ticks, long meanNanos, long maxNanos, long maxAtMillis, long ticksOver50ms) {
+    }
+
+    // Server thread only
+    private final ArrayDeque<Minute> finished = new ArrayDeque<>(MINUTES + 1);
+    private long currentStart = Long.MIN_VALUE;
+    private long ticks;
+    private long totalNanos;
+    private long maxNanos;
+    private long maxAtMillis;
+    private long ticksOver50ms;
+
+    // Finished minutes, oldest first, republished once a minute
+    private volatile List<Minute> snapshot = List.of();
+
+    /**
+     * Adds one tick. Server thread only.
+     *
+     * @param timestampMillis When the tick ended.
+     */
+    public void record(long timestampMillis, long durationNanos) {
+        long start = timestampMillis - Math.floorMod(timestampMillis, MINUTE_MILLIS);
+        if (start != currentStart) {
+            finishMinute();
+            currentStart = start;
+        }
+        ticks++;
+        totalNanos += durationNanos;
+        if (durationNanos > maxNanos) {
+            maxNanos = durationNanos;
+            maxAtMillis = timestampMillis;
+        }
+        if (durationNanos > TickTimings.TICK_BUDGET_NANOS) {
+            ticksOver50ms++;
+        }
+    }
+
+    private void finishMinute() {
+        Minute minute = current();
+        if (minute != null) {
+            finished.addLast(minute);
+            if (finished.size() > MINUTES) {
+                finished.removeFirst();
+            }
+            snapshot = List.copyOf(finished);
+        }
+        ticks = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+        maxAtMillis = 0;
+        ticksOver50ms = 0;
+    }
+
+    /**
+     * @return The minute in progress so far, or null if no tick has finished in it yet. Server thread only.
+     */
+    public Minute current() {
+        if (ticks == 0) {
+            return null;
+        }
+        return new Minute(currentStart, ticks, totalNanos / ticks, maxNanos, maxAtMillis, ticksOver50ms);
+    }
+
+    /**
+     * @return The finished minutes of the last hour, oldest first. Safe to call from any thread.
+     */
+    public List<Minute> getFinished() {
+        return snapshot;
+    }
+}
@@ -0,0 +1,215 @@
+package com.dashtiss.tpsnitch;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.PacketType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Packets and bytes in and out, per connection and per packet type.
+ *
+ * <p>Packets are counted by mixins on the packet encoder and decoder, which run on the Netty event
+ * loops. Each connection's counters hang off its channel as an attribute and are only ever
+ * written by that channel's event loop; the per-type counters are shared between event loops and
+ * use {@link LongAdder}s, which spread concurrent updates over separate cells instead of fighting
+ * over one. Counters only ever grow, and the server thread works out each interval's numbers from
+ * the difference to the totals it saw last time, so nothing on the network side waits for it.
+ *
+ * <p>Bytes are the encoded packet sizes, before compression and the length prefix are added.
+ */
+public class NetworkMetrics {
+
+    private static final NetworkMetrics INSTANCE = new NetworkMetrics();
+
+    private static final AttributeKey<Connection> CONNECTION = AttributeKey.valueOf("tpsnitch_traffic");
+
+    private static final Comparator<StatsSample.TrafficStats> BY_BYTES =
+            Comparator.comparingLong((StatsSample.TrafficStats stats) -> stats.bytesIn() + stats.bytesOut()).reversed();
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<PacketType<?>, PacketTypeCounters> packetTypes = new ConcurrentHashMap<>();
+
+    public static NetworkMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Counts a packet read from a channel. Netty event loop only.
+     *
+     * @param bytes The size of the packet's frame.
+     */
+    public void recordInbound(Channel channel, Packet<?> packet, int bytes) {
+        if (!Config.NetworkMetricsEnabled) {
+            return;
+        }
+        connection(channel).recordIn(bytes);
+        counters(packet.type()).recordIn(bytes);
+    }
+
+    /**
+     * Counts a packet written to a channel. Netty event loop only.
+     *
+     * @param bytes The encoded size of the packet.
+     */
+    public void recordOutbound(Channel channel, Packet<?> packet, int bytes) {
+        if (!Config.NetworkMetricsEnabled) {
+            return;
+        }
+        connection(channel).recordOut(bytes);
+        counters(packet.type()).recordOut(bytes);
+    }
+
+    /**
+     * Names a connection after the player using it, for the top talkers. Safe to call from any thread.
+     */
+    public void setName(Channel channel, String name) {
+        connection(channel).name = name;
+    }
+
+    /**
+     * Copies this interval's traffic into a sample and starts a new interval. Server thread only.
+     */
+    public void fill(StatsSample sample) {
+        long packetsIn = 0;
+        long bytesIn = 0;
+        long packetsOut = 0;
+        long bytesOut = 0;
+        List<StatsSample.TrafficStats> types = new ArrayList<>();
+        for (PacketTypeCounters counters : packetTypes.values()) {
+            StatsSample.TrafficStats stats = counters.takeInterval(counters.name);
+            if (stats == null) {
+                continue;
+            }
+            packetsIn += stats.packetsIn();
+            bytesIn += stats.bytesIn();
+            packetsOut += stats.packetsOut();
+            bytesOut += stats.bytesOut();
+            types.add(stats);
+        }
+
+        List<StatsSample.TrafficStats> talkers = new ArrayList<>();
+        Iterator<Connection> iterator = connections.iterator();
+        while (iterator.hasNext()) {
+            Connection connection = iterator.next();
+            // Check before taking the interval so nothing counted before the disconnect is lost
+            boolean closed = !connection.channel.isActive();
+            StatsSample.TrafficStats stats = connection.takeInterval(connection.name);
+            if (stats != null) {
+                talkers.add(stats);
+            }
+            if (closed) {
+                iterator.remove();
+            }
+        }
+
+        int topN = Math.max(1, Config.NetworkTopN);
+        types.sort(BY_BYTES);
+        talkers.sort(BY_BYTES);
+        sample.networkMetrics = true;
+        sample.netPacketsIn = packetsIn;
+        sample.netBytesIn = bytesIn;
+        sample.netPacketsOut = packetsOut;
+        sample.netBytesOut = bytesOut;
+        sample.packetTypes = List.copyOf(types.subList(0, Math.min(topN, types.size())));
+        sample.topTalkers = List.copyOf(talkers.subList(0, Math.min(topN, talkers.size())));
+    }
+
+    private Connection connection(Channel channel) {
+        Attribute<Connection> attribute = channel.attr(CONNECTION);
+        Connection connection = attribute.get();
+        if (connection == null) {
+            Connection created = new Connection(channel);
+            connection = attribute.setIfAbsent(created);
+            if (connection == null) {
+                connection = created;
+                connections.add(created);
+            }
+        }
+        return connection;
+    }
+
+    private PacketTypeCounters counters(PacketType<?> type) {
+        // get() never locks; computeIfAbsent only runs the first time a packet type is seen
+        PacketTypeCounters counters = packetTypes.get(type);
+        if (counters == null) {
+            counters = packetTypes.computeIfAbsent(type, key -> new PacketTypeCounters(
+                    // Both directions can use the same id (keep_alive, custom_payload...)
+                    key.flow().name().toLowerCase(Locale.ROOT) + "/" + key.id()));
+        }
+        return counters;
+    }
+
+    private static class Counters {
+        private final LongAdder packetsIn = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder packetsOut = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+
+        // Server thread only
+        private long lastPacketsIn;
+        private long lastBytesIn;
+        private long lastPacketsOut;
+        private long lastBytesOut;
+
+        void recordIn(int bytes) {
+            packetsIn.increment();
+            bytesIn.add(bytes);
+        }
+
+        void recordOut(int bytes) {
+            packetsOut.increment();
+            bytesOut.add(bytes);
+        }
+
+        /**
+         * @return The traffic since the last call, or null if there was none.
+         */
+        StatsSample.TrafficStats takeInterval(String label) {
+            long totalPacketsIn = packetsIn.sum();
+            long totalBytesIn = bytesIn.sum();
+            long totalPacketsOut = packetsOut.sum();
+            long totalBytesOut = bytesOut.sum();
+            if (totalPacketsIn == lastPacketsIn && totalPacketsOut == lastPacketsOut) {
+                return null;
+            }
+            StatsSample.TrafficStats stats = new StatsSample.TrafficStats(label,
+                    totalPacketsIn - lastPacketsIn, totalBytesIn - lastBytesIn,
+                    totalPacketsOut - lastPacketsOut, totalBytesOut - lastBytesOut);
+            lastPacketsIn = totalPacketsIn;
+            lastBytesIn = totalBytesIn;
+            lastPacketsOut = totalPacketsOut;
+            lastBytesOut = totalBytesOut;
+            return stats;
+        }
+    }
+
+    private static class PacketTypeCounters extends Counters {
+        private final String name;
+
+        private PacketTypeCounters(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Connection extends Counters {
+        private final Channel channel;
+        // The player's name once they've joined, the remote address until then
+        private volatile String name;
+
+        private Connection(Channel channel) {
+            this.channel = channel;
+            this.name = String.valueOf(channel.remoteAddress());
+        }
+    }
+}
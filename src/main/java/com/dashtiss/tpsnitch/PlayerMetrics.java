@@ -0,0 +1,170 @@
+package com.dashtiss.tpsnitch;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Player statistics: the online count, joins and leaves, session lengths and ping.
+ *
+ * <p>The online count comes straight from the server's player list on the server thread, so it
+ * can't drift the way a join/leave counter does. Connection events may fire on network threads,
+ * so they only push onto a lock-free queue; the server thread drains it once per tick. Everything
+ * else is owned by the server thread and published to other threads through {@link LiveMetrics}.
+ */
+public class PlayerMetrics {
+
+    private static final long HIGHEST_SESSION_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    private static final long HIGHEST_PING_MILLIS = 60_000;
+
+    private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+
+    // Server thread only from here on
+    private final Map<UUID, Session> sessions = new HashMap<>();
+    private final LongHistogram sessionMillis = new LongHistogram(HIGHEST_SESSION_MILLIS);
+    private final LongHistogram pingMillis = new LongHistogram(HIGHEST_PING_MILLIS);
+
+    private int online;
+    private int peakOnline;
+    private long joins;
+    private long leaves;
+    private long totalJoins;
+    private long totalLeaves;
+    private long sweepNumber;
+
+    /**
+     * Records a join. Safe to call from any thread.
+     */
+    public void onJoin(UUID player) {
+        events.add(new Event(player, true, System.currentTimeMillis()));
+    }
+
+    /**
+     * Records a disconnect. Safe to call from any thread.
+     */
+    public void onLeave(UUID player) {
+        events.add(new Event(player, false, System.currentTimeMillis()));
+    }
+
+    /**
+     * Updates the online count and handles queued join/leave events. Server thread only, once per tick.
+     */
+    public void tick(MinecraftServer server) {
+        Event event;
+        while ((event = events.poll()) != null) {
+            if (event.join()) {
+                startSession(event.player(), event.timestampMillis());
+            } else {
+                endSession(event.player(), event.timestampMillis());
+            }
+        }
+
+        online = server.getPlayerList().getPlayerCount();
+        peakOnline = Math.max(peakOnline, online);
+    }
+
+    /**
+     * Records everyone's ping and reconciles our sessions with the real player list, in case a
+     * join or disconnect event was missed (failed logins, reloads and so on), then publishes the
+     * player activity. Server thread only; this walks every player, so it runs less often than
+     * {@link #tick(MinecraftServer)}.
+     */
+    public void sweep(MinecraftServer server, LiveMetrics liveMetrics) {
+        long now = System.currentTimeMillis();
+        sweepNumber++;
+        for (ServerPlayer player : server.getPlayerList().getPlayers()) {
+            pingMillis.record(player.connection.latency());
+            Session session = sessions.get(player.getUUID());
+            if (session == null) {
+                session = startSession(player.getUUID(), now);
+            }
+            session.lastSeenSweep = sweepNumber;
+        }
+
+        Iterator<Map.Entry<UUID, Session>> iterator = sessions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Session session = iterator.next().getValue();
+            // Give new sessions one sweep of grace, since the join event can arrive before the player is listed
+            if (session.lastSeenSweep < sweepNumber - 1) {
+                iterator.remove();
+                finishSession(session, now);
+            }
+        }
+
+        liveMetrics.publishPlayers(totalJoins, totalLeaves, sessions.size(),
+                pingMillis.getValueAtPercentile(50.0), pingMillis.getValueAtPercentile(99.0), pingMillis.getMax());
+    }
+
+    private Session startSession(UUID player, long timestampMillis) {
+        Session session = sessions.get(player);
+        if (session == null) {
+            session = new Session(timestampMillis, sweepNumber);
+            sessions.put(player, session);
+            joins++;
+            totalJoins++;
+        }
+        return session;
+    }
+
+    private void endSession(UUID player, long timestampMillis) {
+        Session session = sessions.remove(player);
+        if (session != null) {
+            finishSession(session, timestampMillis);
+        }
+    }
+
+    private void finishSession(Session session, long timestampMillis) {
+        sessionMillis.record(timestampMillis - session.joinedMillis);
+        leaves++;
+        totalLeaves++;
+    }
+
+    /**
+     * @return The number of players online as of the last tick. Server thread only.
+     */
+    public int getOnlineCount() {
+        return online;
+    }
+
+    /**
+     * Copies this interval's player statistics into a sample and starts a new interval.
+     */
+    public void fill(StatsSample sample) {
+        sample.players = online;
+        sample.peakPlayers = peakOnline;
+        sample.joins = joins;
+        sample.leaves = leaves;
+        sample.sessionsEnded = sessionMillis.getTotalCount();
+        sample.sessionMeanMillis = sessionMillis.getMean();
+        sample.sessionP50Millis = sessionMillis.getValueAtPercentile(50.0);
+        sample.sessionMaxMillis = sessionMillis.getMax();
+        sample.pingP50Millis = pingMillis.getValueAtPercentile(50.0);
+        sample.pingP90Millis = pingMillis.getValueAtPercentile(90.0);
+        sample.pingP99Millis = pingMillis.getValueAtPercentile(99.0);
+        sample.pingMaxMillis = pingMillis.getMax();
+
+        peakOnline = online;
+        joins = 0;
+        leaves = 0;
+        sessionMillis.reset();
+        pingMillis.reset();
+    }
+
+    private record Event(UUID player, boolean join, long timestampMillis) {
+    }
+
+    private static class Session {
+        private final long joinedMillis;
+        private long lastSeenSweep;
+
+        private Session(long joinedMillis, long lastSeenSweep) {
+            this.joinedMillis = joinedMillis;
+            this.lastSeenSweep = lastSeenSweep;
+        }
+    }
+}
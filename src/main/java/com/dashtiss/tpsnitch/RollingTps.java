@@ -0,0 +1,115 @@
+package com.dashtiss.tpsnitch;
+
+/**
+ * Rolling 1, 5 and 15 minute TPS, worked out from the real time between tick starts.
+ *
+ * <p>Every second's worth of ticks (20) becomes one TPS sample, which is pushed into three
+ * fixed-size rolling averages. Each push replaces the oldest sample and adjusts a running
+ * total, so updating costs the same no matter how long the window is and nothing is allocated.
+ * Call {@link #tick(long)} from the server thread; the getters can be used from any thread.
+ */
+public class RollingTps {
+
+    private static final int TICKS_PER_SAMPLE = 20;
+    private static final double MAX_TPS = 20.0;
+
+    private final RollingAverage oneMinute = new RollingAverage(60);
+    private final RollingAverage fiveMinutes = new RollingAverage(300);
+    private final RollingAverage fifteenMinutes = new RollingAverage(900);
+
+    private long sampleStartNanos = -1;
+    private int ticksInSample;
+
+    // Published once per sample for readers on other threads
+    private volatile double tps1m = MAX_TPS;
+    private volatile double tps5m = MAX_TPS;
+    private volatile double tps15m = MAX_TPS;
+
+    /**
+     * Call at the start of every tick.
+     *
+     * @param nowNanos The current {@link System#nanoTime()}.
+     */
+    public void tick(long nowNanos) {
+        if (sampleStartNanos < 0) {
+            sampleStartNanos = nowNanos;
+            return;
+        }
+        if (++ticksInSample < TICKS_PER_SAMPLE) {
+            return;
+        }
+
+        long elapsed = nowNanos - sampleStartNanos;
+        if (elapsed > 0) {
+            double tps = TICKS_PER_SAMPLE * 1_000_000_000.0 / elapsed;
+            oneMinute.add(tps, elapsed);
+            fiveMinutes.add(tps, elapsed);
+            fifteenMinutes.add(tps, elapsed);
+            tps1m = Math.min(MAX_TPS, oneMinute.getAverage());
+            tps5m = Math.min(MAX_TPS, fiveMinutes.getAverage());
+            tps15m = Math.min(MAX_TPS, fifteenMinutes.getAverage());
+        }
+        sampleStartNanos = nowNanos;
+        ticksInSample = 0;
+    }
+
+    public double getTps1m() {
+        return tps1m;
+    }
+
+    public double getTps5m() {
+        return tps5m;
+    }
+
+    public double getTps15m() {
+        return tps15m;
+    }
+
+    /**
+     * Copies the rolling averages into a sample.
+     */
+    public void fill(StatsSample sample) {
+        sample.tps1m = tps1m;
+        sample.tps5m = tps5m;
+        sample.tps15m = tps15m;
+    }
+
+    /**
+     * Time-weighted rolling average over a fixed number of samples.
+     * Starts out full of perfect 20 TPS one-second samples, so the long windows don't read low after startup.
+     */
+    private static class RollingAverage {
+        private final double[] samples;
+        private final long[] times;
+        private double total;
+        private long totalTime;
+        private int index;
+
+        private RollingAverage(int size) {
+            samples = new double[size];
+            times = new long[size];
+            for (int i = 0; i < size; i++) {
+                samples[i] = MAX_TPS;
+                times[i] = 1_000_000_000L;
+            }
+            total = MAX_TPS * 1_000_000_000.0 * size;
+            totalTime = 1_000_000_000L * size;
+        }
+
+        private void add(double value, long time) {
+            total -= samples[index] * times[index];
+            totalTime -= times[index];
+            samples[index] = value;
+            times[index] = time;
+            total += value * time;
+            totalTime += time;
+            if (++index == samples.length) {
+                index = 0;
+            }
+        }
+
+        private double getAverage() {
+            return total / totalTime;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.dashtiss.tpsnitch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small bounded, lock-free queue of {@link StatsSample}s.
+ * There is exactly one producer (the server thread) but both the producer and the
+ * writer thread may take from the head, so taking is done with a CAS on the head index.
+ */
+class SampleQueue {
+
+    private final AtomicReferenceArray<StatsSample> slots;
+    private final int mask;
+
+    // Index of the next slot to read. Advanced by CAS since the producer may also drop from here.
+    private final AtomicLong head = new AtomicLong();
+    // Index of the next slot to write. Only ever written by the producer.
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity The requested capacity, rounded up to the next power of two.
+     */
+    SampleQueue(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds a sample to the tail of the queue. Must only be called from the producer thread.
+     *
+     * @return false if the queue is full and the sample was not added.
+     */
+    boolean offer(StatsSample sample) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            return false;
+        }
+        slots.lazySet((int) (t & mask), sample);
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Removes the sample at the head of the queue.
+     *
+     * @return The oldest sample, or null if the queue is empty.
+     */
+    StatsSample poll() {
+        while (true) {
+            long h = head.get();
+            if (h >= tail.get()) {
+                return null;
+            }
+            StatsSample sample = slots.get((int) (h & mask));
+            // If someone else took this slot first the CAS fails and we simply try the next one
+            if (head.compareAndSet(h, h + 1)) {
+                return sample;
+            }
+        }
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
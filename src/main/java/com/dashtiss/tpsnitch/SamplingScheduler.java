@@ -0,0 +1,163 @@
+package com.dashtiss.tpsnitch;
+
+import net.minecraft.server.MinecraftServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntSupplier;
+
+/**
+ * Runs the mod's collectors from the end of the server tick, each at its own cadence.
+ *
+ * <p>Cadences are read from their supplier every tick, so changing the config takes effect
+ * straight away. Collectors marked as expensive are spread out: at most one of them runs per
+ * tick, and when several are due the one that has waited longest goes first while the rest
+ * wait a tick. Newly registered expensive collectors also start at staggered offsets so they
+ * don't all line up on the same tick in the first place. While TPSnitch is over its overhead
+ * budget, {@link #setExpensiveSlowdown(int)} stretches the expensive collectors' intervals.
+ *
+ * <p>Each collector's run time is tracked so its cost shows up on the metrics endpoint.
+ * {@link #tick(MinecraftServer)} is server thread only; {@link #getStats()} is safe from any thread.
+ */
+public class SamplingScheduler {
+
+    /**
+     * A piece of work that runs on the server thread at the end of a tick.
+     */
+    @FunctionalInterface
+    public interface Collector {
+        void collect(MinecraftServer server);
+    }
+
+    /**
+     * How much time a collector has taken since the server started.
+     */
+    public record CollectorStats(String name, boolean expensive, int intervalTicks, long runs,
+                                 long totalNanos, long lastNanos, long maxNanos) {
+    }
+
+    private final List<Task> tasks = new CopyOnWriteArrayList<>();
+
+    // Server thread only
+    private long tickNumber;
+    private int expensiveCount;
+    private int expensiveSlowdown = 1;
+
+    /**
+     * Registers a collector.
+     *
+     * @param name          Short name used in the metrics, e.g. "players".
+     * @param intervalTicks Supplies how often the collector runs, in ticks. Read every tick; values below 1 mean every tick.
+     * @param expensive     Whether the collector should be kept from sharing a tick with other expensive collectors.
+     */
+    public void register(String name, IntSupplier intervalTicks, boolean expensive, Collector collector) {
+        Task task = new Task(name, intervalTicks, expensive, collector);
+        int interval = Math.max(1, intervalTicks.getAsInt());
+        if (expensive) {
+            // The first expensive collector first runs next tick, the second the tick after, and so on
+            task.lastRunTick = tickNumber - Math.max(0, interval - 1 - expensiveCount % interval);
+            expensiveCount++;
+        } else {
+            task.lastRunTick = tickNumber;
+        }
+        tasks.add(task);
+    }
+
+    /**
+     * Makes expensive collectors run this many times less often, see {@link SelfProfiler}. Server thread only.
+     */
+    public void setExpensiveSlowdown(int factor) {
+        expensiveSlowdown = Math.max(1, factor);
+    }
+
+    /**
+     * Runs whatever is due this tick. Server thread only.
+     */
+    public void tick(MinecraftServer server) {
+        tickNumber++;
+        Task expensiveDue = null;
+        long mostOverdue = Long.MIN_VALUE;
+        for (Task task : tasks) {
+            int interval = Math.max(1, task.intervalTicks.getAsInt());
+            if (task.expensive) {
+                interval *= expensiveSlowdown;
+            }
+            if (interval != task.currentInterval) {
+                task.currentInterval = interval;
+            }
+            long overdue = tickNumber - task.lastRunTick - interval;
+            if (overdue < 0) {
+                continue;
+            }
+            if (!task.expensive) {
+                run(task, server);
+            } else if (overdue > mostOverdue) {
+                expensiveDue = task;
+                mostOverdue = overdue;
+            }
+        }
+        if (expensiveDue != null) {
+            run(expensiveDue, server);
+        }
+    }
+
+    private void run(Task task, MinecraftServer server) {
+        long start = System.nanoTime();
+        try {
+            task.collector.collect(server);
+        } catch (RuntimeException e) {
+            // One broken collector shouldn't take the others (or the server) down with it
+            if (task.failures++ == 0) {
+                Tpsnitch.LOGGER.error("Collector '{}' failed; further failures are counted but not logged", task.name, e);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        task.lastRunTick = tickNumber;
+        task.runs = task.runs + 1;
+        task.totalNanos = task.totalNanos + nanos;
+        task.lastNanos = nanos;
+        if (nanos > task.maxNanos) {
+            task.maxNanos = nanos;
+        }
+    }
+
+    /**
+     * @return Each collector's run count and time spent. Safe to call from any thread; the
+     * values of a single collector may be from consecutive runs.
+     */
+    public List<CollectorStats> getStats() {
+        List<CollectorStats> stats = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            stats.add(new CollectorStats(task.name, task.expensive, task.currentInterval, task.runs,
+                    task.totalNanos, task.lastNanos, task.maxNanos));
+        }
+        return stats;
+    }
+
+    private static class Task {
+        private final String name;
+        private final IntSupplier intervalTicks;
+        private final boolean expensive;
+        private final Collector collector;
+
+        // Server thread only
+        private long lastRunTick;
+        private int failures;
+
+        // Written by the server thread only, read by getStats
+        private volatile int currentInterval;
+        private volatile long runs;
+        private volatile long totalNanos;
+        private volatile long lastNanos;
+        private volatile long maxNanos;
+
+        private Task(String name, IntSupplier intervalTicks, boolean expensive, Collector collector) {
+            this.name = name;
+            this.intervalTicks = intervalTicks;
+            this.expensive = expensive;
+            this.collector = collector;
+            this.currentInterval = Math.max(1, intervalTicks.getAsInt());
+        }
+    }
+}
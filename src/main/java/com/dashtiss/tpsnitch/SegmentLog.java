@@ -0,0 +1,373 @@
+package com.dashtiss.tpsnitch;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only stats log made of newline-delimited JSON segment files.
+ * Every sample is one line appended to the active segment, so writing costs the same no matter
+ * how much history is kept. When the active segment is full a new one is started, and the oldest
+ * segments are deleted once there are enough newer ones to cover {@link Config#MaxLogs} entries.
+ *
+ * <p>Segments live in a directory next to the configured log file, e.g. {@code TPSLogs.json}
+ * becomes {@code TPSLogs/segment-000001.ndjson}, {@code TPSLogs/segment-000002.ndjson}, ...
+ *
+ * <p>Every line ends with a {@code "crc32c"} field holding the checksum of the line up to that field,
+ * and each flush is fsynced. A crash can only damage the end of the newest segment, and on startup
+ * that damaged tail is cut off before appending continues.
+ */
+public class SegmentLog implements StatsSink {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".ndjson";
+
+    // Every record ends with ,"crc32c":"xxxxxxxx"}
+    private static final String CHECKSUM_PREFIX = ",\"crc32c\":\"";
+    private static final int CHECKSUM_SUFFIX_LENGTH = CHECKSUM_PREFIX.length() + 8 + 2;
+
+    private final Path legacyFile;
+    private final Path directory;
+
+    // Segment files, oldest first. The last one is the active segment.
+    private final List<Path> segments = new ArrayList<>();
+    private long nextSegmentNumber = 1;
+
+    private FileChannel activeChannel;
+    private Writer activeWriter;
+    private int activeEntries;
+    private boolean opened = false;
+
+    public SegmentLog(String logFilePath) {
+        this.legacyFile = Path.of(logFilePath);
+        this.directory = segmentDirectory(legacyFile);
+    }
+
+    /**
+     * Works out where the segments for a given log file path live.
+     */
+    static Path segmentDirectory(Path logFile) {
+        String name = logFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name + "-segments";
+        return logFile.resolveSibling(baseName);
+    }
+
+    @Override
+    public void write(List<StatsSample> samples) {
+        try {
+            if (!opened) {
+                open();
+            }
+            for (StatsSample sample : samples) {
+                if (activeWriter == null || activeEntries >= Math.max(1, Config.SegmentMaxEntries)) {
+                    rotate();
+                }
+                activeWriter.write(encodeLine(sample));
+                activeEntries++;
+            }
+            activeWriter.flush();
+            activeChannel.force(false);
+        } catch (IOException e) {
+            System.err.println("Error appending to stats segment in '" + directory + "': " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (activeWriter != null) {
+            try {
+                activeWriter.close();
+            } catch (IOException e) {
+                System.err.println("Error closing stats segment in '" + directory + "': " + e.getMessage());
+            }
+            activeWriter = null;
+            activeChannel = null;
+        }
+    }
+
+    /**
+     * Finds the existing segments and migrates a legacy JSON log if there is one.
+     * Done lazily on the writer thread so the server thread never waits on it.
+     */
+    private void open() throws IOException {
+        opened = true;
+        Files.createDirectories(directory);
+
+        segments.addAll(listSegments(directory));
+        if (!segments.isEmpty()) {
+            nextSegmentNumber = segmentNumber(segments.getLast()) + 1;
+        }
+
+        if (segments.isEmpty()) {
+            migrateLegacyLog();
+        } else {
+            // Keep appending to the newest segment; write() rotates if it is already full.
+            Path last = segments.getLast();
+            int dropped = recoverTail(last);
+            if (dropped > 0) {
+                Tpsnitch.LOGGER.warn("Removed {} damaged entries from the end of {} (left by an unclean shutdown).", dropped, last);
+            }
+            activeEntries = countLines(last);
+            openActive(last);
+        }
+    }
+
+    /**
+     * Imports an old whole-document JSON log into the first segment, then renames it out of the way
+     * to {@code <name>.migrated} so it isn't imported twice.
+     */
+    private void migrateLegacyLog() throws IOException {
+        if (!Files.isRegularFile(legacyFile) || Files.size(legacyFile) == 0) {
+            return;
+        }
+        List<StatsSample> legacy = FileHandler.readLegacyFile(legacyFile.toString());
+        if (legacy.isEmpty()) {
+            return;
+        }
+
+        rotate();
+        for (StatsSample sample : legacy) {
+            activeWriter.write(encodeLine(sample));
+            activeEntries++;
+        }
+        activeWriter.flush();
+        activeChannel.force(false);
+
+        Path migrated = legacyFile.resolveSibling(legacyFile.getFileName() + ".migrated");
+        Files.move(legacyFile, migrated);
+        Tpsnitch.LOGGER.info("Migrated {} entries from {} into {}. The old file was kept as {}.", legacy.size(), legacyFile, directory, migrated);
+    }
+
+    /**
+     * Closes the active segment, starts a new one and deletes segments we no longer need.
+     */
+    private void rotate() throws IOException {
+        close();
+        Path next = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, nextSegmentNumber++, SEGMENT_SUFFIX));
+        openActive(next);
+        FileHandler.syncDirectory(directory);
+        activeEntries = 0;
+        segments.add(next);
+        enforceRetention();
+    }
+
+    private void openActive(Path segment) throws IOException {
+        activeChannel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        activeWriter = new BufferedWriter(Channels.newWriter(activeChannel, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Deletes the oldest segments while the remaining full segments still hold at least MaxLogs entries.
+     * Retention works on whole segments, so slightly more than MaxLogs entries can be kept.
+     */
+    private void enforceRetention() {
+        int perSegment = Math.max(1, Config.SegmentMaxEntries);
+        int fullSegmentsNeeded = (Math.max(1, Config.MaxLogs) + perSegment - 1) / perSegment;
+        // The active segment is still filling up, so keep one extra
+        while (segments.size() > fullSegmentsNeeded + 1) {
+            Path oldest = segments.removeFirst();
+            try {
+                Files.deleteIfExists(oldest);
+            } catch (IOException e) {
+                System.err.println("Error deleting old stats segment '" + oldest + "': " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return All segment files currently on disk, oldest first.
+     */
+    public List<Path> getSegments() {
+        return List.copyOf(segments);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Lists the segment files in a segment directory, oldest first.
+     */
+    public static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                if (segmentNumber(path) > 0) {
+                    found.add(path);
+                }
+            }
+        }
+        found.sort((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)));
+        return found;
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int countLines(Path path) throws IOException {
+        int lines = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer.clear()) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    if (buffer.get() == '\n') {
+                        lines++;
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Cuts a torn or corrupted tail off a segment: anything after the last newline, then whole lines
+     * from the end that fail their checksum. Works backwards from the end, so it only reads the
+     * damaged lines and the first good one.
+     *
+     * @return How many (partial) lines were removed.
+     */
+    private static int recoverTail(Path segment) throws IOException {
+        int dropped = 0;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long end = size;
+            while (end > 0) {
+                boolean complete = readBytes(channel, end - 1, 1)[0] == '\n';
+                long lineEnd = complete ? end - 1 : end;
+                long lineStart = findLineStart(channel, lineEnd);
+                if (complete) {
+                    String line = new String(readBytes(channel, lineStart, (int) (lineEnd - lineStart)), StandardCharsets.UTF_8);
+                    if (line.isBlank() || decodeLine(line) != null) {
+                        break;
+                    }
+                }
+                end = lineStart;
+                dropped++;
+            }
+            if (end < size) {
+                channel.truncate(end);
+                channel.force(true);
+            }
+        }
+        return dropped;
+    }
+
+    private static long findLineStart(FileChannel channel, long lineEnd) throws IOException {
+        long position = lineEnd;
+        while (position > 0) {
+            int length = (int) Math.min(8192, position);
+            long chunkStart = position - length;
+            byte[] chunk = readBytes(channel, chunkStart, length);
+            for (int i = length - 1; i >= 0; i--) {
+                if (chunk[i] == '\n') {
+                    return chunkStart + i + 1;
+                }
+            }
+            position = chunkStart;
+        }
+        return 0;
+    }
+
+    private static byte[] readBytes(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Encodes a sample as one checksummed line, including the trailing newline.
+     */
+    static String encodeLine(StatsSample sample) throws IOException {
+        StringWriter record = new StringWriter();
+        FileHandler.writeRecord(record, sample);
+        // Drop the closing brace, checksum everything before the checksum field, then close the object again
+        String body = record.getBuffer().substring(0, record.getBuffer().length() - 1);
+        CRC32C crc = new CRC32C();
+        crc.update(body.getBytes(StandardCharsets.UTF_8));
+        return body + CHECKSUM_PREFIX + String.format("%08x", crc.getValue()) + "\"}\n";
+    }
+
+    /**
+     * Decodes one line written by {@link #encodeLine}. Lines written before checksums were added are accepted as they are.
+     *
+     * @return The sample, or null if the line is damaged.
+     */
+    static StatsSample decodeLine(String line) {
+        int checksumStart = line.length() - CHECKSUM_SUFFIX_LENGTH;
+        if (checksumStart > 0 && line.startsWith(CHECKSUM_PREFIX, checksumStart) && line.endsWith("\"}")) {
+            CRC32C crc = new CRC32C();
+            crc.update(line.substring(0, checksumStart).getBytes(StandardCharsets.UTF_8));
+            String expected = line.substring(checksumStart + CHECKSUM_PREFIX.length(), line.length() - 2);
+            if (!String.format("%08x", crc.getValue()).equals(expected)) {
+                return null;
+            }
+        }
+        try {
+            JsonObject object = JsonParser.parseString(line).getAsJsonObject();
+            return FileHandler.fromJsonObject(object);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads every sample from a single segment file. Lines that can't be parsed are skipped.
+     */
+    public static List<StatsSample> readSegment(Path segment) throws IOException {
+        List<StatsSample> samples = new ArrayList<>();
+        readSegment(segment, samples::add);
+        return samples;
+    }
+
+    /**
+     * Streams the samples in a single segment file to a consumer, one line at a time. Lines that can't be parsed are skipped.
+     */
+    public static void readSegment(Path segment, Consumer<StatsSample> consumer) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                StatsSample sample = decodeLine(line);
+                if (sample != null) {
+                    consumer.accept(sample);
+                } else {
+                    System.err.println("Skipping damaged line in '" + segment + "'");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.dashtiss.tpsnitch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures how much of each tick TPSnitch itself takes, hook by hook, and backs off when that gets
+ * too much.
+ *
+ * <p>Every hook that runs on the server thread adds its time here, and {@link #endTick()} closes
+ * the tick. The per-tick totals go into a histogram for the logged interval. A smoothed share of
+ * the 50 ms tick budget drives the governor: while it stays over {@link Config#OverheadBudgetPercent}
+ * the governor steps up a level, and each level doubles the interval of the expensive collectors
+ * and halves the hotspot profiler's budget. It steps back down once the share has been under half
+ * the limit for a while, so it doesn't flap around the limit.
+ *
+ * <p>Server thread only, apart from {@link #getLevel()}.
+ */
+public class SelfProfiler {
+
+    /**
+     * The places TPSnitch spends time on the server thread.
+     */
+    public enum Hook {
+        TICK_START("tickStart"),
+        WORLD_TICK("worldTick"),
+        COLLECTORS("collectors"),
+        TICK_END("tickEnd"),
+        // Estimated from the number of sampled entity ticks, see HotspotProfiler
+        HOTSPOT_PROFILER("hotspotProfiler");
+
+        private final String key;
+
+        Hook(String key) {
+            this.key = key;
+        }
+
+        public String key() {
+            return key;
+        }
+    }
+
+    private static final Hook[] HOOKS = Hook.values();
+
+    // Each level doubles the expensive collectors' intervals, so level 3 runs them 8x less often
+    private static final int MAX_LEVEL = 3;
+    // Weight of each tick in the smoothed share; about a second's worth of ticks dominate it
+    private static final double SMOOTHING = 0.05;
+    // Ticks to wait at a level before going up another one, and before coming back down
+    private static final int RAISE_AFTER_TICKS = 20;
+    private static final int LOWER_AFTER_TICKS = 200;
+
+    private final long[] tickNanos = new long[HOOKS.length];
+    private final long[] intervalNanos = new long[HOOKS.length];
+    private final long[] intervalMaxNanos = new long[HOOKS.length];
+    // Total overhead per tick over the interval; anything above one second is clamped
+    private final LongHistogram perTick = new LongHistogram(1_000_000_000L);
+
+    private double smoothedShare;
+    private long ticksAtLevel;
+    private volatile int level;
+
+    /**
+     * Adds time spent in a hook to the current tick.
+     */
+    public void add(Hook hook, long nanos) {
+        tickNanos[hook.ordinal()] += nanos;
+    }
+
+    /**
+     * Closes the current tick and updates the governor.
+     *
+     * @return TPSnitch's total time this tick.
+     */
+    public long endTick() {
+        long total = 0;
+        for (int i = 0; i < HOOKS.length; i++) {
+            long nanos = tickNanos[i];
+            total += nanos;
+            intervalNanos[i] += nanos;
+            if (nanos > intervalMaxNanos[i]) {
+                intervalMaxNanos[i] = nanos;
+            }
+            tickNanos[i] = 0;
+        }
+        perTick.record(total);
+        govern((double) total / TickTimings.TICK_BUDGET_NANOS);
+        return total;
+    }
+
+    private void govern(double share) {
+        smoothedShare += (share - smoothedShare) * SMOOTHING;
+        ticksAtLevel++;
+        int current = level;
+        if (!Config.OverheadGovernorEnabled) {
+            if (current != 0) {
+                setLevel(0);
+            }
+            return;
+        }
+        double limit = Math.max(0.0, Config.OverheadBudgetPercent) / 100.0;
+        if (smoothedShare > limit && current < MAX_LEVEL && ticksAtLevel >= RAISE_AFTER_TICKS) {
+            setLevel(current + 1);
+            Tpsnitch.LOGGER.info("TPSnitch is using {}% of the tick budget (limit {}%), collecting less often (level {}).",
+                    String.format(Locale.ROOT, "%.2f", smoothedShare * 100), Config.OverheadBudgetPercent, current + 1);
+        } else if (smoothedShare < limit / 2 && current > 0 && ticksAtLevel >= LOWER_AFTER_TICKS) {
+            setLevel(current - 1);
+            Tpsnitch.LOGGER.info("TPSnitch is back under its overhead budget, governor level {}.", current - 1);
+        }
+    }
+
+    private void setLevel(int newLevel) {
+        level = newLevel;
+        ticksAtLevel = 0;
+    }
+
+    /**
+     * @return How far the governor has backed off, from 0 (not at all) to 3. Safe to call from any thread.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return How many times less often expensive work should run at the current level.
+     */
+    public int getSlowdown() {
+        return 1 << level;
+    }
+
+    /**
+     * Copies this interval's overhead into a sample and starts a new interval.
+     */
+    public void fill(StatsSample sample) {
+        if (perTick.getTotalCount() == 0) {
+            return;
+        }
+        sample.overheadMeanNanos = perTick.getMean();
+        sample.overheadP99Nanos = perTick.getValueAtPercentile(99);
+        sample.overheadMaxNanos = perTick.getMax();
+        sample.overheadBudgetShare = (double) perTick.getMean() / TickTimings.TICK_BUDGET_NANOS;
+        sample.governorLevel = level;
+        List<StatsSample.HookStats> hooks = new ArrayList<>(HOOKS.length);
+        for (int i = 0; i < HOOKS.length; i++) {
+            hooks.add(new StatsSample.HookStats(HOOKS[i].key(), intervalNanos[i], intervalMaxNanos[i]));
+            intervalNanos[i] = 0;
+            intervalMaxNanos[i] = 0;
+        }
+        sample.overheadHooks = hooks;
+        perTick.reset();
+    }
+}
@@ -0,0 +1,167 @@
+package com.dashtiss.tpsnitch;
+
+import java.util.List;
+
+/**
+ * One logged interval worth of server statistics.
+ * Samples are filled in on the server thread and then handed off to the
+ * {@link StatsWriter}. Once a sample has been submitted it must not be changed again.
+ */
+public class StatsSample {
+
+    // Wall-clock time the sample was taken, in epoch milliseconds
+    public long timestampMillis;
+
+    // Number of players online when the sample was taken
+    public int players;
+
+    // Player activity during the interval
+    public int peakPlayers;
+    public long joins;
+    public long leaves;
+    public long sessionsEnded;
+    public long sessionMeanMillis;
+    public long sessionP50Millis;
+    public long sessionMaxMillis;
+    public long pingP50Millis;
+    public long pingP90Millis;
+    public long pingP99Millis;
+    public long pingMaxMillis;
+
+    // Ticks per second, capped at 20
+    public double tps;
+
+    // Rolling TPS over the last 1, 5 and 15 minutes, from real tick-to-tick wall-clock time
+    public double tps1m;
+    public double tps5m;
+    public double tps15m;
+
+    // Milliseconds per tick, as reported by the server
+    public long mspt;
+
+    // Per-tick durations measured over the whole interval, in nanoseconds
+    public long tickCount;
+    public long ticksOver50ms;
+    public long msptMeanNanos;
+    public long msptP50Nanos;
+    public long msptP90Nanos;
+    public long msptP99Nanos;
+    public long msptP999Nanos;
+    public long msptMaxNanos;
+
+    // JVM health over the interval, see JvmMetrics; only set if jvmMetrics is true
+    public boolean jvmMetrics;
+    public long gcCount;
+    public long gcTimeMillis;
+    public long allocatedBytes;
+    public long allocationBytesPerSecond;
+    public long heapUsedBytes;
+    public long heapPeakBytes;
+    public long heapCommittedBytes;
+    public long heapMaxBytes;
+    // -1 if the collector has no old generation we recognise
+    public long oldGenUsedBytes;
+    public long oldGenPeakBytes;
+    public long oldGenAfterGcBytes;
+    public long oldGenMaxBytes;
+
+    // GC pauses and safepoints from JFR; only set if jfrEvents is true
+    public boolean jfrEvents;
+    public long gcPauses;
+    public long gcPauseTotalNanos;
+    public long gcPauseMaxNanos;
+    public long safepoints;
+    public long safepointTotalNanos;
+
+    // Chunk loading and saving over the interval, see ChunkMetrics; only set if chunkMetrics is true
+    public boolean chunkMetrics;
+    public long chunkLoads;
+    public long chunksGenerated;
+    public long chunkUnloads;
+    public long chunkSaves;
+    // Server thread time per save, before the chunk is handed to the I/O worker
+    public long chunkSaveServerThreadMeanNanos;
+    public long chunkSaveServerThreadMaxNanos;
+    // Chunks written to region files by the I/O workers, and the time each write took
+    public long chunkWrites;
+    public long chunkWriteMeanNanos;
+    public long chunkWriteMaxNanos;
+    public int chunksLoaded;
+    public int chunkTasksPending;
+    public int chunkTasksPendingPeak;
+    public List<LevelChunkStats> chunkLevels = List.of();
+
+    // Network traffic over the interval, see NetworkMetrics; only set if networkMetrics is true
+    public boolean networkMetrics;
+    public long netPacketsIn;
+    public long netBytesIn;
+    public long netPacketsOut;
+    public long netBytesOut;
+    public List<TrafficStats> packetTypes = List.of();
+    public List<TrafficStats> topTalkers = List.of();
+
+    // Time spent ticking each dimension during the interval
+    public List<DimensionStats> dimensions = List.of();
+
+    // Top entity types, block entity types and chunks by tick time; empty unless the profiler is on
+    public List<HotspotProfiler.Hotspot> hotspots = List.of();
+
+    // TPSnitch's own time on the server thread per tick, see SelfProfiler; hooks is empty if no ticks were measured
+    public long overheadMeanNanos;
+    public long overheadP99Nanos;
+    public long overheadMaxNanos;
+    // Mean overhead as a fraction of the 50 ms tick budget (0-1)
+    public double overheadBudgetShare;
+    public int governorLevel;
+    public List<HookStats> overheadHooks = List.of();
+
+    public StatsSample() {
+    }
+
+    public StatsSample(long timestampMillis, int players, double tps, long mspt) {
+        this.timestampMillis = timestampMillis;
+        this.players = players;
+        this.tps = tps;
+        this.mspt = mspt;
+    }
+
+    /**
+     * Tick timings for a single dimension over one interval.
+     *
+     * @param dimension  The dimension id, e.g. "minecraft:the_nether".
+     * @param ticks      How many times the dimension ticked.
+     * @param totalNanos Total time spent ticking it.
+     * @param share      Fraction of the server's total tick time spent in this dimension (0-1).
+     */
+    public record DimensionStats(String dimension, long ticks, long totalNanos, double share,
+                                 long meanNanos, long p50Nanos, long p90Nanos, long p99Nanos, long maxNanos) {
+    }
+
+    /**
+     * Chunk counts for a single dimension at the end of an interval.
+     *
+     * @param dimension    The dimension id, e.g. "minecraft:overworld".
+     * @param loaded       Chunks currently loaded.
+     * @param pendingTasks Chunk tasks waiting to run on the server thread.
+     */
+    public record LevelChunkStats(String dimension, int loaded, int pendingTasks) {
+    }
+
+    /**
+     * Network traffic for one packet type or one connection over an interval.
+     *
+     * @param name The packet type, e.g. "clientbound/minecraft:level_chunk_with_light", or the player's name.
+     */
+    public record TrafficStats(String name, long packetsIn, long bytesIn, long packetsOut, long bytesOut) {
+    }
+
+    /**
+     * Time TPSnitch spent in one of its hooks over an interval.
+     *
+     * @param hook       The hook, e.g. "tickEnd".
+     * @param totalNanos Total time over the interval.
+     * @param maxNanos   Most time spent in a single tick.
+     */
+    public record HookStats(String hook, long totalNanos, long maxNanos) {
+    }
+}
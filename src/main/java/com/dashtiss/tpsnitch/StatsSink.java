@@ -0,0 +1,21 @@
+package com.dashtiss.tpsnitch;
+
+import java.util.List;
+
+/**
+ * Somewhere the {@link StatsWriter} can put samples.
+ * Sinks are only ever used from the writer thread, so implementations don't need to be thread-safe.
+ */
+public interface StatsSink {
+
+    /**
+     * Writes a batch of samples, oldest first.
+     */
+    void write(List<StatsSample> samples);
+
+    /**
+     * Flushes and releases anything the sink holds open. Called once when the writer stops.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,187 @@
+package com.dashtiss.tpsnitch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer for stats samples.
+ * The server thread only ever calls {@link #submit(StatsSample)}, which puts the sample on a
+ * bounded lock-free queue and returns straight away. A dedicated daemon thread drains the queue
+ * in batches and hands them to a {@link StatsSink}, so no file I/O happens inside a tick.
+ */
+public class StatsWriter {
+
+    // How full the queue has to be (as a fraction) before we wake the writer early
+    private static final double EARLY_FLUSH_FRACTION = 0.75;
+
+    // How long close() waits for the final drain before giving up
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+
+    private final SampleQueue queue;
+    private final StatsSink sink;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    private volatile boolean running = false;
+    private Thread thread;
+
+    public StatsWriter(int queueCapacity, StatsSink sink) {
+        this.queue = new SampleQueue(Math.max(2, queueCapacity));
+        this.sink = sink;
+    }
+
+    /**
+     * Starts the writer thread. Calling this more than once has no effect.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "TPSnitch-Writer");
+        thread.setDaemon(true);
+        thread.start();
+        Tpsnitch.LOGGER.debug("Stats writer started (queue capacity {}).", queue.capacity());
+    }
+
+    /**
+     * Queues a sample for writing. Never blocks and never touches the disk.
+     * If the queue is full the configured {@link Config.DropPolicy} decides which sample is lost.
+     *
+     * @param sample The sample to write. Must not be modified after this call.
+     * @return true if the sample was queued.
+     */
+    public boolean submit(StatsSample sample) {
+        submitted.incrementAndGet();
+        boolean queued = queue.offer(sample);
+        if (!queued && Config.WriterDropPolicy == Config.DropPolicy.DROP_OLDEST) {
+            // Make room by throwing away the oldest pending sample
+            if (queue.poll() != null) {
+                dropped.incrementAndGet();
+            }
+            queued = queue.offer(sample);
+        }
+        if (!queued) {
+            dropped.incrementAndGet();
+        }
+
+        // Backpressure: don't wait for the next scheduled flush if the queue is filling up
+        Thread writerThread = thread;
+        if (writerThread != null && queue.size() >= queue.capacity() * EARLY_FLUSH_FRACTION) {
+            LockSupport.unpark(writerThread);
+        }
+        return queued;
+    }
+
+    /**
+     * Stops the writer thread after draining everything that is still queued.
+     * Blocks for at most {@value #SHUTDOWN_TIMEOUT_MILLIS} ms.
+     */
+    public void close() {
+        Thread writerThread;
+        synchronized (this) {
+            writerThread = thread;
+            thread = null;
+        }
+        if (writerThread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            Tpsnitch.LOGGER.warn("Stats writer did not finish within {} ms, {} samples may be lost.", SHUTDOWN_TIMEOUT_MILLIS, queue.size());
+        }
+        Tpsnitch.LOGGER.debug("Stats writer stopped. Written: {}, dropped: {}, flushes: {}", written.get(), dropped.get(), flushes.get());
+    }
+
+    private void run() {
+        List<StatsSample> batch = new ArrayList<>();
+        long lastDroppedReported = 0;
+
+        while (running) {
+            long flushIntervalNanos = TimeUnit.SECONDS.toNanos(Math.max(1, Config.FlushIntervalSeconds));
+            LockSupport.parkNanos(this, flushIntervalNanos);
+            flush(batch);
+
+            long droppedNow = dropped.get();
+            if (droppedNow != lastDroppedReported) {
+                Tpsnitch.LOGGER.warn("Stats writer queue was full, {} samples dropped so far.", droppedNow);
+                lastDroppedReported = droppedNow;
+            }
+        }
+
+        // Final drain on shutdown so the last interval isn't lost
+        flush(batch);
+        sink.close();
+    }
+
+    /**
+     * Drains the queue in batches of at most {@link Config#WriterBatchSize} samples.
+     */
+    private void flush(List<StatsSample> batch) {
+        int maxBatch = Math.max(1, Config.WriterBatchSize);
+        StatsSample sample;
+        while ((sample = queue.poll()) != null) {
+            batch.add(sample);
+            if (batch.size() >= maxBatch) {
+                writeBatch(batch);
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(List<StatsSample> batch) {
+        try {
+            sink.write(batch);
+            written.addAndGet(batch.size());
+            flushes.incrementAndGet();
+        } catch (RuntimeException e) {
+            // Never let a bad write kill the writer thread
+            Tpsnitch.LOGGER.error("Failed to write {} stats samples: {}", batch.size(), e.getMessage());
+            if (Config.Verbose) {
+                Tpsnitch.LOGGER.error("Full stack trace:", e);
+            }
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return The number of samples waiting to be written.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return The number of samples lost because the queue was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getFlushCount() {
+        return flushes.get();
+    }
+}
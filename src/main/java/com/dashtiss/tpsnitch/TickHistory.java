@@ -0,0 +1,350 @@
+package com.dashtiss.tpsnitch;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory history of the most recent ticks: when each tick ended, how long it took and how many
+ * players were online. Stored as parallel primitive arrays in a ring, so recording never allocates.
+ *
+ * <p>There is a single writer (the server thread) and any number of readers. Readers never block
+ * the writer: they read without locking and then check that the writer hasn't lapped the entries
+ * they looked at, retrying if it has.
+ *
+ * <p>Timestamps are wall-clock time, which can step backwards (NTP, an admin fixing the clock), so
+ * they aren't assumed to be in order: a time range query looks at every tick held.
+ */
+public class TickHistory {
+
+    // How many times a reader retries before settling for the entries that are still valid
+    private static final int MAX_READ_ATTEMPTS = 4;
+
+    private final int capacity;
+    // One more than the capacity: the slot the writer fills next is never one a reader needs
+    private final int slots;
+    private final long[] timestamps; // Epoch millis at the end of the tick
+    private final long[] durations;  // Tick duration in nanoseconds
+    private final int[] players;
+
+    // Number of ticks ever recorded. Tick n lives in slot n % slots.
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * @param capacity How many ticks to keep, at 20 bytes each. 6000 is five minutes at 20 TPS and takes about 120 KB.
+     */
+    public TickHistory(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.slots = this.capacity + 1;
+        this.timestamps = new long[slots];
+        this.durations = new long[slots];
+        this.players = new int[slots];
+    }
+
+    /**
+     * Records one tick. Must only be called from the server thread.
+     */
+    public void record(long timestampMillis, long durationNanos, int playerCount) {
+        long seq = written.get();
+        int slot = slot(seq);
+        timestamps[slot] = timestampMillis;
+        durations[slot] = durationNanos;
+        players[slot] = playerCount;
+        // Publish the tick only once all three values are in place
+        written.lazySet(seq + 1);
+    }
+
+    /**
+     * @return How many ticks are currently held.
+     */
+    public int size() {
+        return (int) Math.min(written.get(), capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Copies the most recent ticks into the given arrays, oldest first.
+     * Any of the output arrays may be null if that column isn't needed.
+     *
+     * @param count How many ticks to copy at most; also limited by the smallest output array.
+     * @return How many ticks were copied.
+     */
+    public int copyLast(int count, long[] timestampsOut, long[] durationsOut, int[] playersOut) {
+        int limit = Math.min(count, Math.min(length(timestampsOut), Math.min(length(durationsOut), length(playersOut))));
+        for (int attempt = 0; ; attempt++) {
+            long end = written.get();
+            long start = Math.max(0, Math.max(end - capacity, end - limit));
+            copy(start, end, timestampsOut, durationsOut, playersOut, 0);
+
+            long firstValid = firstValidSequence();
+            if (firstValid <= start) {
+                return (int) (end - start);
+            }
+            if (attempt + 1 >= MAX_READ_ATTEMPTS) {
+                return dropOverwritten(start, end, firstValid, timestampsOut, durationsOut, playersOut);
+            }
+        }
+    }
+
+    /**
+     * Computes statistics over the most recent ticks.
+     *
+     * @param count How many ticks to look at.
+     */
+    public WindowStats lastStats(int count) {
+        for (int attempt = 0; ; attempt++) {
+            long end = written.get();
+            long start = Math.max(0, Math.max(end - capacity, end - count));
+            if (attempt + 1 >= MAX_READ_ATTEMPTS) {
+                return validStats(start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+            }
+            WindowStats stats = stats(timestamps, durations, players, slots, start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+            if (firstValidSequence() <= start) {
+                return stats;
+            }
+        }
+    }
+
+    /**
+     * Computes statistics over all ticks that ended within a time range.
+     *
+     * @param fromMillis Start of the range in epoch millis, inclusive.
+     * @param toMillis   End of the range in epoch millis, inclusive.
+     */
+    public WindowStats rangeStats(long fromMillis, long toMillis) {
+        for (int attempt = 0; ; attempt++) {
+            long end = written.get();
+            long oldest = Math.max(0, end - capacity);
+            if (attempt + 1 >= MAX_READ_ATTEMPTS) {
+                return validStats(oldest, end, fromMillis, toMillis);
+            }
+            WindowStats stats = stats(timestamps, durations, players, slots, oldest, end, fromMillis, toMillis);
+            if (firstValidSequence() <= oldest) {
+                return stats;
+            }
+        }
+    }
+
+    /**
+     * Copies every tick that ended within a time range into the given arrays, oldest first. If more
+     * ticks match than the arrays hold, the most recent ones are copied.
+     *
+     * @return How many ticks were copied.
+     */
+    public int copyRange(long fromMillis, long toMillis, long[] timestampsOut, long[] durationsOut, int[] playersOut) {
+        int limit = Math.min(length(timestampsOut), Math.min(length(durationsOut), length(playersOut)));
+        for (int attempt = 0; ; attempt++) {
+            long end = written.get();
+            long oldest = Math.max(0, end - capacity);
+            // Walk back until enough ticks match; the ones in between can be from any time
+            long start = end;
+            int matched = 0;
+            while (start > oldest && matched < limit) {
+                start--;
+                long timestamp = timestamps[slot(start)];
+                if (timestamp >= fromMillis && timestamp <= toMillis) {
+                    matched++;
+                }
+            }
+            if (attempt + 1 >= MAX_READ_ATTEMPTS) {
+                return validRange(start, end, fromMillis, toMillis, timestampsOut, durationsOut, playersOut);
+            }
+            int copied = copyMatching(timestamps, durations, players, slots, start, end, fromMillis, toMillis,
+                    timestampsOut, durationsOut, playersOut);
+            if (firstValidSequence() <= start) {
+                return copied;
+            }
+        }
+    }
+
+    /**
+     * The oldest tick that is guaranteed not to have been overwritten, checked after a read.
+     * The writer may already be filling the next slot, which overwrites one more tick than it has published.
+     */
+    private long firstValidSequence() {
+        // Make sure all the array reads above happen before we look at the write counter again
+        VarHandle.loadLoadFence();
+        return written.get() + 1 - slots;
+    }
+
+    /**
+     * Statistics over the ticks in {@code [start, end)} within a time range that are still valid once
+     * they have been read. Used once the writer has lapped every attempt: the ticks are copied out
+     * first, so the ones overwritten during the copy can be dropped.
+     */
+    private WindowStats validStats(long start, long end, long fromMillis, long toMillis) {
+        int length = (int) (end - start);
+        if (length <= 0) {
+            return WindowStats.EMPTY;
+        }
+        long[] timestampsCopy = new long[length];
+        long[] durationsCopy = new long[length];
+        int[] playersCopy = new int[length];
+        copy(start, end, timestampsCopy, durationsCopy, playersCopy, 0);
+        int kept = dropOverwritten(start, end, firstValidSequence(), timestampsCopy, durationsCopy, playersCopy);
+        return stats(timestampsCopy, durationsCopy, playersCopy, length, 0, kept, fromMillis, toMillis);
+    }
+
+    /**
+     * Like {@link #validStats}, but copies the ticks within the time range to the output arrays.
+     */
+    private int validRange(long start, long end, long fromMillis, long toMillis, long[] timestampsOut, long[] durationsOut, int[] playersOut) {
+        int length = (int) (end - start);
+        if (length <= 0) {
+            return 0;
+        }
+        long[] timestampsCopy = new long[length];
+        long[] durationsCopy = new long[length];
+        int[] playersCopy = new int[length];
+        copy(start, end, timestampsCopy, durationsCopy, playersCopy, 0);
+        int kept = dropOverwritten(start, end, firstValidSequence(), timestampsCopy, durationsCopy, playersCopy);
+        return copyMatching(timestampsCopy, durationsCopy, playersCopy, length, 0, kept, fromMillis, toMillis,
+                timestampsOut, durationsOut, playersOut);
+    }
+
+    /**
+     * Shifts out the copied ticks that the writer overwrote while they were being copied.
+     *
+     * @param firstValid The first valid sequence, checked after the copy.
+     * @return How many ticks are left, starting at index 0.
+     */
+    private static int dropOverwritten(long start, long end, long firstValid, long[] timestampsOut, long[] durationsOut, int[] playersOut) {
+        int lost = (int) Math.min(end - start, Math.max(0, firstValid - start));
+        int kept = (int) (end - start) - lost;
+        shift(lost, kept, timestampsOut, durationsOut, playersOut);
+        return kept;
+    }
+
+    /**
+     * Statistics over the ticks in sequences {@code [start, end)} of a ring of the given size that
+     * ended within a time range.
+     */
+    private static WindowStats stats(long[] timestamps, long[] durations, int[] players, int size, long start, long end,
+                                     long fromMillis, long toMillis) {
+        int count = 0;
+        long firstMillis = 0;
+        long lastMillis = 0;
+        long minNanos = Long.MAX_VALUE;
+        long maxNanos = 0;
+        long totalNanos = 0;
+        int minPlayers = Integer.MAX_VALUE;
+        int maxPlayers = 0;
+        long totalPlayers = 0;
+        for (long seq = start; seq < end; seq++) {
+            int slot = (int) (seq % size);
+            long timestamp = timestamps[slot];
+            if (timestamp < fromMillis || timestamp > toMillis) {
+                continue;
+            }
+            if (count++ == 0) {
+                firstMillis = timestamp;
+            }
+            lastMillis = timestamp;
+            long duration = durations[slot];
+            int playerCount = players[slot];
+            minNanos = Math.min(minNanos, duration);
+            maxNanos = Math.max(maxNanos, duration);
+            totalNanos += duration;
+            minPlayers = Math.min(minPlayers, playerCount);
+            maxPlayers = Math.max(maxPlayers, playerCount);
+            totalPlayers += playerCount;
+        }
+        if (count == 0) {
+            return WindowStats.EMPTY;
+        }
+        return new WindowStats(count, firstMillis, lastMillis,
+                minNanos, maxNanos, totalNanos / count,
+                minPlayers, maxPlayers, (double) totalPlayers / count);
+    }
+
+    /**
+     * Copies the ticks in sequences {@code [start, end)} of a ring of the given size that ended
+     * within a time range, in sequence order.
+     *
+     * @return How many ticks were copied.
+     */
+    private static int copyMatching(long[] timestamps, long[] durations, int[] players, int size, long start, long end,
+                                    long fromMillis, long toMillis, long[] timestampsOut, long[] durationsOut, int[] playersOut) {
+        int limit = Math.min(length(timestampsOut), Math.min(length(durationsOut), length(playersOut)));
+        int copied = 0;
+        for (long seq = start; seq < end && copied < limit; seq++) {
+            int slot = (int) (seq % size);
+            long timestamp = timestamps[slot];
+            if (timestamp < fromMillis || timestamp > toMillis) {
+                continue;
+            }
+            if (timestampsOut != null) {
+                timestampsOut[copied] = timestamp;
+            }
+            if (durationsOut != null) {
+                durationsOut[copied] = durations[slot];
+            }
+            if (playersOut != null) {
+                playersOut[copied] = players[slot];
+            }
+            copied++;
+        }
+        return copied;
+    }
+
+    private void copy(long start, long end, long[] timestampsOut, long[] durationsOut, int[] playersOut, int offset) {
+        for (long seq = start; seq < end; seq++) {
+            int slot = slot(seq);
+            int i = offset + (int) (seq - start);
+            if (timestampsOut != null) {
+                timestampsOut[i] = timestamps[slot];
+            }
+            if (durationsOut != null) {
+                durationsOut[i] = durations[slot];
+            }
+            if (playersOut != null) {
+                playersOut[i] = players[slot];
+            }
+        }
+    }
+
+    private static void shift(int from, int length, long[] timestampsOut, long[] durationsOut, int[] playersOut) {
+        if (timestampsOut != null) {
+            System.arraycopy(timestampsOut, from, timestampsOut, 0, length);
+        }
+        if (durationsOut != null) {
+            System.arraycopy(durationsOut, from, durationsOut, 0, length);
+        }
+        if (playersOut != null) {
+            System.arraycopy(playersOut, from, playersOut, 0, length);
+        }
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % slots);
+    }
+
+    private static int length(long[] array) {
+        return array == null ? Integer.MAX_VALUE : array.length;
+    }
+
+    private static int length(int[] array) {
+        return array == null ? Integer.MAX_VALUE : array.length;
+    }
+
+    /**
+     * Summary of a window of ticks.
+     *
+     * @param count          Number of ticks in the window.
+     * @param fromMillis     When the first tick in the window ended (epoch millis).
+     * @param toMillis       When the last tick in the window ended (epoch millis).
+     * @param minNanos       Fastest tick.
+     * @param maxNanos       Slowest tick.
+     * @param avgNanos       Average tick duration.
+     * @param minPlayers     Fewest players online.
+     * @param maxPlayers     Most players online.
+     * @param avgPlayers     Average players online.
+     */
+    public record WindowStats(int count, long fromMillis, long toMillis,
+                              long minNanos, long maxNanos, long avgNanos,
+                              int minPlayers, int maxPlayers, double avgPlayers) {
+        public static final WindowStats EMPTY = new WindowStats(0, 0, 0, 0, 0, 0, 0, 0, 0);
+    }
+}
@@ -0,0 +1,93 @@
+package com.dashtiss.tpsnitch;
+
+/**
+ * Measures how long every server tick takes and keeps a histogram of the durations for the
+ * current logging interval. Averages hide lag spikes, so each interval reports percentiles,
+ * the worst tick and how many ticks went over the 50 ms budget.
+ *
+ * <p>Only used from the server thread. Recording a tick does not allocate.
+ */
+public class TickTimings {
+
+    // One tick at 20 TPS
+    public static final long TICK_BUDGET_NANOS = 50_000_000L;
+
+    // Anything longer than a minute is clamped in the histogram (max still records the real value)
+    private static final long HIGHEST_TRACKABLE_NANOS = 60_000_000_000L;
+
+    private final LongHistogram histogram = new LongHistogram(HIGHEST_TRACKABLE_NANOS);
+
+    private long tickStartNanos = -1;
+    private long lastTickNanos;
+    private long ticksOverBudget;
+
+    /**
+     * Call at the start of a tick.
+     */
+    public void startTick(long nowNanos) {
+        tickStartNanos = nowNanos;
+    }
+
+    /**
+     * Call at the end of a tick.
+     *
+     * @return How long the tick took in nanoseconds, or -1 if we never saw it start.
+     */
+    public long endTick(long nowNanos) {
+        if (tickStartNanos < 0) {
+            return -1;
+        }
+        long duration = nowNanos - tickStartNanos;
+        tickStartNanos = -1;
+
+        histogram.record(duration);
+        lastTickNanos = duration;
+        if (duration > TICK_BUDGET_NANOS) {
+            ticksOverBudget++;
+        }
+        return duration;
+    }
+
+    /**
+     * Copies this interval's tick statistics into a sample.
+     */
+    public void fill(StatsSample sample) {
+        sample.tickCount = histogram.getTotalCount();
+        sample.ticksOver50ms = ticksOverBudget;
+        sample.msptMeanNanos = histogram.getMean();
+        sample.msptP50Nanos = histogram.getValueAtPercentile(50.0);
+        sample.msptP90Nanos = histogram.getValueAtPercentile(90.0);
+        sample.msptP99Nanos = histogram.getValueAtPercentile(99.0);
+        sample.msptP999Nanos = histogram.getValueAtPercentile(99.9);
+        sample.msptMaxNanos = histogram.getMax();
+    }
+
+    /**
+     * Starts a new interval.
+     */
+    public void reset() {
+        histogram.reset();
+        ticksOverBudget = 0;
+    }
+
+    /**
+     * @return Total time spent in ticks during the current interval, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return histogram.getSum();
+    }
+
+    /**
+     * @return The duration of the most recently finished tick in nanoseconds.
+     */
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    /**
+     * @return The histogram for the current interval. Only read it from the server thread.
+     */
+    public LongHistogram getHistogram() {
+        return histogram;
+    }
+}
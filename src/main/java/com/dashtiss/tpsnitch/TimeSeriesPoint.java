@@ -0,0 +1,157 @@
+package com.dashtiss.tpsnitch;
+
+/**
+ * One point in the time-series store. A raw point is a single logged interval; a point in
+ * one of the rollup tiers summarises every interval that fell into its minute, hour or day.
+ *
+ * <p>Percentiles can't be combined exactly without the underlying histograms, so rollups keep
+ * a tick-weighted average of p50 and the highest p90/p99/p99.9 of the merged points. The latter
+ * never under-report: a percentile of the combined ticks can't be higher than the largest
+ * percentile of its parts.
+ */
+public class TimeSeriesPoint {
+
+    // Start of the bucket for rollups, the sample time for raw points
+    public long timestampMillis;
+
+    public long intervals;
+    public long ticks;
+    public long ticksOver50ms;
+
+    public double tpsMin;
+    public double tpsAvg;
+    public double tpsMax;
+
+    public long msptMeanNanos;
+    public long msptP50Nanos;
+    public long msptP90Nanos;
+    public long msptP99Nanos;
+    public long msptP999Nanos;
+    public long msptMaxNanos;
+
+    public int playersMin;
+    public double playersAvg;
+    public int playersMax;
+
+    public long joins;
+    public long leaves;
+
+    public TimeSeriesPoint() {
+    }
+
+    /**
+     * Converts a logged interval into a raw point.
+     */
+    public static TimeSeriesPoint fromSample(StatsSample sample) {
+        TimeSeriesPoint point = new TimeSeriesPoint();
+        point.timestampMillis = sample.timestampMillis;
+        point.intervals = 1;
+        point.ticks = sample.tickCount;
+        point.ticksOver50ms = sample.ticksOver50ms;
+
+        point.tpsMin = sample.tps;
+        point.tpsAvg = sample.tps;
+        point.tpsMax = sample.tps;
+
+        // Older samples only carry the whole-millisecond average
+        point.msptMeanNanos = sample.msptMeanNanos > 0 ? sample.msptMeanNanos : sample.mspt * 1_000_000L;
+        point.msptP50Nanos = sample.msptP50Nanos;
+        point.msptP90Nanos = sample.msptP90Nanos;
+        point.msptP99Nanos = sample.msptP99Nanos;
+        point.msptP999Nanos = sample.msptP999Nanos;
+        point.msptMaxNanos = sample.msptMaxNanos;
+
+        point.playersMin = sample.players;
+        point.playersAvg = sample.players;
+        point.playersMax = Math.max(sample.players, sample.peakPlayers);
+
+        point.joins = sample.joins;
+        point.leaves = sample.leaves;
+        return point;
+    }
+
+    /**
+     * Turns a point back into a sample, e.g. to analyze or export it. Only what the store keeps is
+     * filled in. For a rollup point, TPS and players are the bucket's averages.
+     */
+    public StatsSample toSample() {
+        StatsSample sample = new StatsSample();
+        sample.timestampMillis = timestampMillis;
+        sample.tps = tpsAvg;
+        sample.mspt = msptMeanNanos / 1_000_000L;
+        sample.players = (int) Math.round(playersAvg);
+        sample.peakPlayers = playersMax;
+        sample.joins = joins;
+        sample.leaves = leaves;
+        sample.tickCount = ticks;
+        sample.ticksOver50ms = ticksOver50ms;
+        sample.msptMeanNanos = msptMeanNanos;
+        sample.msptP50Nanos = msptP50Nanos;
+        sample.msptP90Nanos = msptP90Nanos;
+        sample.msptP99Nanos = msptP99Nanos;
+        sample.msptP999Nanos = msptP999Nanos;
+        sample.msptMaxNanos = msptMaxNanos;
+        return sample;
+    }
+
+    /**
+     * @return A copy of this point moved to the given bucket start.
+     */
+    public TimeSeriesPoint copyAt(long bucketStartMillis) {
+        TimeSeriesPoint copy = new TimeSeriesPoint();
+        copy.timestampMillis = bucketStartMillis;
+        copy.intervals = intervals;
+        copy.ticks = ticks;
+        copy.ticksOver50ms = ticksOver50ms;
+        copy.tpsMin = tpsMin;
+        copy.tpsAvg = tpsAvg;
+        copy.tpsMax = tpsMax;
+        copy.msptMeanNanos = msptMeanNanos;
+        copy.msptP50Nanos = msptP50Nanos;
+        copy.msptP90Nanos = msptP90Nanos;
+        copy.msptP99Nanos = msptP99Nanos;
+        copy.msptP999Nanos = msptP999Nanos;
+        copy.msptMaxNanos = msptMaxNanos;
+        copy.playersMin = playersMin;
+        copy.playersAvg = playersAvg;
+        copy.playersMax = playersMax;
+        copy.joins = joins;
+        copy.leaves = leaves;
+        return copy;
+    }
+
+    /**
+     * Folds another point into this one. The timestamp is left alone.
+     */
+    public void merge(TimeSeriesPoint other) {
+        long totalIntervals = intervals + other.intervals;
+        if (totalIntervals == 0) {
+            return;
+        }
+        // Tick-weighted where we know the tick counts, otherwise every interval counts the same
+        boolean byTicks = ticks + other.ticks > 0;
+        double weight = byTicks ? (double) ticks / (ticks + other.ticks) : (double) intervals / totalIntervals;
+        double intervalWeight = (double) intervals / totalIntervals;
+
+        tpsMin = Math.min(tpsMin, other.tpsMin);
+        tpsAvg = tpsAvg * intervalWeight + other.tpsAvg * (1 - intervalWeight);
+        tpsMax = Math.max(tpsMax, other.tpsMax);
+
+        msptMeanNanos = Math.round(msptMeanNanos * weight + other.msptMeanNanos * (1 - weight));
+        msptP50Nanos = Math.round(msptP50Nanos * weight + other.msptP50Nanos * (1 - weight));
+        msptP90Nanos = Math.max(msptP90Nanos, other.msptP90Nanos);
+        msptP99Nanos = Math.max(msptP99Nanos, other.msptP99Nanos);
+        msptP999Nanos = Math.max(msptP999Nanos, other.msptP999Nanos);
+        msptMaxNanos = Math.max(msptMaxNanos, other.msptMaxNanos);
+
+        playersMin = Math.min(playersMin, other.playersMin);
+        playersAvg = playersAvg * intervalWeight + other.playersAvg * (1 - intervalWeight);
+        playersMax = Math.max(playersMax, other.playersMax);
+
+        intervals = totalIntervals;
+        ticks += other.ticks;
+        ticksOver50ms += other.ticksOver50ms;
+        joins += other.joins;
+        leaves += other.leaves;
+    }
+}
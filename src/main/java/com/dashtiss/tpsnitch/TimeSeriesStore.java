@@ -0,0 +1,819 @@
+package com.dashtiss.tpsnitch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Compact binary stats store. Samples are kept in columnar, Gorilla-compressed blocks
+ * (see {@link BlockCodec}) and rolled up into 1-minute, 1-hour and 1-day tiers, each with its
+ * own retention, so months of history fit in a few MB.
+ *
+ * <p>Each tier lives in its own directory, split into partition files named after the UTC date
+ * they start on (a day, month or year depending on the tier). Retention deletes whole partitions.
+ * A partition is a small header followed by blocks; every block header holds its point count and
+ * time range, so range queries map the file and only decode the blocks that overlap.
+ *
+ * <p>Partitions only ever get whole blocks appended, each with a CRC32C over its header and payload.
+ * The block that is still filling up is kept in {@code open.block} in the tier's directory, which is
+ * replaced atomically on every flush, so nothing waits for a block to fill and a crash can't damage
+ * anything already written. If a crash does leave a torn block at the end of a partition, it is
+ * found by checking blocks backwards from the end and cut off when the partition is next opened.
+ * Rollup buckets that are still open when the server stops are written as partial points; queries
+ * merge points that share a bucket.
+ *
+ * <p>Written from the stats writer thread. Queries may come from any thread. Tools outside the
+ * server open the store with {@link #readOnly(Path)}, which never changes anything on disk.
+ */
+public class TimeSeriesStore implements StatsSink {
+
+    private static final int FILE_MAGIC = 0x54534442; // "TSDB"
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 8;
+    private static final int BLOCK_HEADER_BYTES = 28; // count, payload length, first and last timestamp, CRC32C
+    private static final int CHECKSUMMED_HEADER_BYTES = 24;
+
+    private static final String OPEN_BLOCK_FILE = "open.block";
+
+    private static final String PARTITION_SUFFIX = ".tsdb";
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.BASIC_ISO_DATE;
+
+    public enum Tier {
+        RAW("raw", 0, ChronoUnit.DAYS, 64),
+        MINUTE("1m", 60_000L, ChronoUnit.DAYS, 60),
+        HOUR("1h", 3_600_000L, ChronoUnit.MONTHS, 24),
+        DAY("1d", 86_400_000L, ChronoUnit.YEARS, 31);
+
+        private final String directoryName;
+        private final long bucketMillis;
+        private final ChronoUnit partitionUnit;
+        private final int blockPoints;
+
+        Tier(String directoryName, long bucketMillis, ChronoUnit partitionUnit, int blockPoints) {
+            this.directoryName = directoryName;
+            this.bucketMillis = bucketMillis;
+            this.partitionUnit = partitionUnit;
+            this.blockPoints = blockPoints;
+        }
+
+        /**
+         * @return How many days of this tier to keep, or 0 to keep everything.
+         */
+        public int retentionDays() {
+            return switch (this) {
+                case RAW -> Config.TsdbRawRetentionDays;
+                case MINUTE -> Config.TsdbMinuteRetentionDays;
+                case HOUR -> Config.TsdbHourRetentionDays;
+                case DAY -> Config.TsdbDayRetentionDays;
+            };
+        }
+
+        long bucketStart(long timestampMillis) {
+            return bucketMillis == 0 ? timestampMillis : Math.floorDiv(timestampMillis, bucketMillis) * bucketMillis;
+        }
+
+        LocalDate partitionStart(long timestampMillis) {
+            LocalDate date = Instant.ofEpochMilli(timestampMillis).atZone(ZoneOffset.UTC).toLocalDate();
+            return switch (partitionUnit) {
+                case MONTHS -> date.withDayOfMonth(1);
+                case YEARS -> date.withDayOfYear(1);
+                default -> date;
+            };
+        }
+
+        long partitionEndMillis(LocalDate start) {
+            return start.plus(1, partitionUnit).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        }
+
+        /**
+         * @return The tier with the given directory name: {@code raw}, {@code 1m}, {@code 1h} or {@code 1d}.
+         */
+        public static Tier fromName(String name) {
+            for (Tier tier : values()) {
+                if (tier.directoryName.equals(name)) {
+                    return tier;
+                }
+            }
+            throw new IllegalArgumentException("Unknown tier '" + name + "', expected raw, 1m, 1h or 1d");
+        }
+    }
+
+    private record BlockRef(long offset, int count, int payloadBytes, long firstMillis, long lastMillis, int checksum) {
+    }
+
+    /**
+     * Everything the store knows about one tier.
+     */
+    private static final class TierState {
+        final Tier tier;
+        final Path directory;
+        final TreeMap<LocalDate, Path> partitions = new TreeMap<>();
+        final Map<Path, List<BlockRef>> blockIndex = new HashMap<>();
+
+        // Partition currently being appended to, and the block that is still filling up (it belongs to that partition)
+        LocalDate activePartition;
+        FileChannel activeChannel;
+        final List<TimeSeriesPoint> openBlock = new ArrayList<>();
+        boolean openBlockChanged;
+
+        // Rollup bucket still collecting points (always null for the raw tier)
+        TimeSeriesPoint bucket;
+
+        TierState(Tier tier, Path directory) {
+            this.tier = tier;
+            this.directory = directory;
+        }
+    }
+
+    // Null when read-only; there is nothing to import then
+    private final Path legacyFile;
+    private final Path directory;
+    private final boolean readOnly;
+    private final Map<Tier, TierState> tiers = new EnumMap<>(Tier.class);
+    private boolean opened = false;
+
+    public TimeSeriesStore(String logFilePath) {
+        this(Path.of(logFilePath), storeDirectory(Path.of(logFilePath)), false);
+    }
+
+    private TimeSeriesStore(Path legacyFile, Path directory, boolean readOnly) {
+        this.legacyFile = legacyFile;
+        this.directory = directory;
+        this.readOnly = readOnly;
+        for (Tier tier : Tier.values()) {
+            tiers.put(tier, new TierState(tier, directory.resolve(tier.directoryName)));
+        }
+    }
+
+    /**
+     * Opens an existing store without changing it, so it can be read while a server is still writing
+     * to it. Torn blocks are skipped rather than cut off, retention isn't applied, and rollup buckets
+     * the server hadn't written yet are rebuilt in memory from the tier below. Reads see the store as
+     * it was when it was first read.
+     *
+     * @param directory The store directory, e.g. {@code TPSLogs-tsdb}.
+     */
+    public static TimeSeriesStore readOnly(Path directory) {
+        return new TimeSeriesStore(null, directory, true);
+    }
+
+    /**
+     * @return Whether a directory looks like a stats store, i.e. has at least one tier directory in it.
+     */
+    public static boolean isStore(Path directory) {
+        for (Tier tier : Tier.values()) {
+            if (Files.isDirectory(directory.resolve(tier.directoryName))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Works out where the store for a given log file path lives, e.g. {@code TPSLogs.json}
+     * becomes {@code TPSLogs-tsdb}.
+     */
+    static Path storeDirectory(Path logFile) {
+        String name = logFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return logFile.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + "-tsdb");
+    }
+
+    @Override
+    public synchronized void write(List<StatsSample> samples) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Stats store '" + directory + "' was opened read-only");
+        }
+        try {
+            if (!opened) {
+                open();
+            }
+            for (StatsSample sample : samples) {
+                append(tiers.get(Tier.RAW), TimeSeriesPoint.fromSample(sample));
+            }
+            for (TierState state : tiers.values()) {
+                saveOpenBlock(state);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error writing to stats store in '" + directory + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the rollup buckets that are still open as partial points and closes every partition.
+     */
+    @Override
+    public synchronized void close() {
+        if (!opened) {
+            return;
+        }
+        if (readOnly) {
+            opened = false;
+            return;
+        }
+        try {
+            for (Tier tier : Tier.values()) {
+                TierState state = tiers.get(tier);
+                if (state.bucket != null) {
+                    TimeSeriesPoint partial = state.bucket;
+                    state.bucket = null;
+                    append(state, partial);
+                }
+                saveOpenBlock(state);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error closing stats store in '" + directory + "': " + e.getMessage());
+        }
+        for (TierState state : tiers.values()) {
+            closeActive(state);
+        }
+        opened = false;
+    }
+
+    /**
+     * Returns the points of a tier in a time range, oldest first. Rollup points are keyed by the
+     * start of their bucket, and the bucket that is still open is included.
+     *
+     * @param fromMillis Inclusive start of the range.
+     * @param toMillis   Inclusive end of the range.
+     */
+    public synchronized List<TimeSeriesPoint> query(Tier tier, long fromMillis, long toMillis) {
+        List<TimeSeriesPoint> result = new ArrayList<>();
+        try {
+            if (!opened) {
+                open();
+            }
+            TierState state = tiers.get(tier);
+            readWritten(state, fromMillis, toMillis, result::add);
+            if (state.bucket != null && state.bucket.timestampMillis >= fromMillis && state.bucket.timestampMillis <= toMillis) {
+                result.add(state.bucket.copyAt(state.bucket.timestampMillis));
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading stats store in '" + directory + "': " + e.getMessage());
+        }
+        return mergeBuckets(result, tier);
+    }
+
+    /**
+     * Streams the points of a tier in a time range to a consumer, decoding one block at a time so
+     * memory use doesn't depend on the size of the range. Points come in the order they were written,
+     * which is time order unless the server's clock went backwards; rollup points that share a bucket
+     * are merged as in {@link #query}.
+     *
+     * @param fromMillis Inclusive start of the range.
+     * @param toMillis   Inclusive end of the range.
+     */
+    public synchronized void forEach(Tier tier, long fromMillis, long toMillis, Consumer<TimeSeriesPoint> consumer) throws IOException {
+        if (!opened) {
+            open();
+        }
+        TierState state = tiers.get(tier);
+        BucketMerger merger = new BucketMerger(tier, consumer);
+        readWritten(state, fromMillis, toMillis, merger);
+        if (state.bucket != null && state.bucket.timestampMillis >= fromMillis && state.bucket.timestampMillis <= toMillis) {
+            merger.accept(state.bucket.copyAt(state.bucket.timestampMillis));
+        }
+        merger.finish();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Passes the points of a tier in a time range (the partitions plus the open block) to a consumer.
+     */
+    private static void readWritten(TierState state, long fromMillis, long toMillis, Consumer<TimeSeriesPoint> out) throws IOException {
+        for (Map.Entry<LocalDate, Path> partition : state.partitions.entrySet()) {
+            long startMillis = partition.getKey().atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            if (startMillis > toMillis || state.tier.partitionEndMillis(partition.getKey()) <= fromMillis) {
+                continue;
+            }
+            readPartition(state, partition.getValue(), fromMillis, toMillis, out);
+        }
+        for (TimeSeriesPoint point : state.openBlock) {
+            if (point.timestampMillis >= fromMillis && point.timestampMillis <= toMillis) {
+                out.accept(point.copyAt(point.timestampMillis));
+            }
+        }
+    }
+
+    /**
+     * Adds a point to a tier and feeds it into the next tier's rollup bucket.
+     */
+    private void append(TierState state, TimeSeriesPoint point) throws IOException {
+        store(state, point);
+        Tier parent = parentOf(state.tier);
+        if (parent != null) {
+            accumulate(tiers.get(parent), point);
+        }
+    }
+
+    private static void store(TierState state, TimeSeriesPoint point) throws IOException {
+        LocalDate partition = state.tier.partitionStart(point.timestampMillis);
+        if (state.activePartition == null || partition.isAfter(state.activePartition)) {
+            switchPartition(state, partition);
+        }
+        state.openBlock.add(point);
+        state.openBlockChanged = true;
+        if (state.openBlock.size() >= state.tier.blockPoints) {
+            appendBlock(state, state.openBlock);
+            state.openBlock.clear();
+        }
+    }
+
+    private void accumulate(TierState state, TimeSeriesPoint point) throws IOException {
+        long bucketStart = state.tier.bucketStart(point.timestampMillis);
+        if (state.bucket == null) {
+            state.bucket = point.copyAt(bucketStart);
+        } else if (state.bucket.timestampMillis == bucketStart) {
+            state.bucket.merge(point);
+        } else {
+            TimeSeriesPoint finished = state.bucket;
+            state.bucket = point.copyAt(bucketStart);
+            append(state, finished);
+        }
+    }
+
+    private static Tier parentOf(Tier tier) {
+        return switch (tier) {
+            case RAW -> Tier.MINUTE;
+            case MINUTE -> Tier.HOUR;
+            case HOUR -> Tier.DAY;
+            case DAY -> null;
+        };
+    }
+
+    /**
+     * Encodes points as a block: header (count, payload length, first and last timestamp, CRC32C) then payload.
+     */
+    private static ByteBuffer encodeBlock(List<TimeSeriesPoint> points) {
+        byte[] payload = BlockCodec.encode(points);
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_HEADER_BYTES + payload.length);
+        buffer.putInt(points.size());
+        buffer.putInt(payload.length);
+        buffer.putLong(points.getFirst().timestampMillis);
+        buffer.putLong(points.getLast().timestampMillis);
+        buffer.putInt(0);
+        buffer.put(payload);
+        buffer.putInt(CHECKSUMMED_HEADER_BYTES, checksum(buffer.array(), payload.length));
+        return buffer.flip();
+    }
+
+    // Covers the header fields before the checksum and the payload
+    private static int checksum(byte[] block, int payloadBytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(block, 0, CHECKSUMMED_HEADER_BYTES);
+        crc.update(block, BLOCK_HEADER_BYTES, payloadBytes);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Appends a finished block to the active partition and fsyncs it.
+     */
+    private static void appendBlock(TierState state, List<TimeSeriesPoint> points) throws IOException {
+        ByteBuffer buffer = encodeBlock(points);
+        FileChannel channel = state.activeChannel;
+        long offset = channel.size();
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+        Path path = state.partitions.get(state.activePartition);
+        state.blockIndex.computeIfAbsent(path, p -> new ArrayList<>()).add(new BlockRef(offset, points.size(), buffer.getInt(4),
+                points.getFirst().timestampMillis, points.getLast().timestampMillis, buffer.getInt(CHECKSUMMED_HEADER_BYTES)));
+    }
+
+    /**
+     * Saves the block that is still filling up to the tier's {@code open.block}, replacing the previous
+     * version atomically. The file starts with the epoch day of the partition the block belongs to.
+     */
+    private static void saveOpenBlock(TierState state) throws IOException {
+        if (!state.openBlockChanged) {
+            return;
+        }
+        Path file = state.directory.resolve(OPEN_BLOCK_FILE);
+        if (state.openBlock.isEmpty()) {
+            Files.deleteIfExists(file);
+        } else {
+            ByteBuffer block = encodeBlock(state.openBlock);
+            long epochDay = state.activePartition.toEpochDay();
+            FileHandler.writeAtomically(file, out -> {
+                out.write(ByteBuffer.allocate(Long.BYTES).putLong(epochDay).array());
+                out.write(block.array(), 0, block.limit());
+            });
+        }
+        state.openBlockChanged = false;
+    }
+
+    /**
+     * Picks the open block back up after a restart. It is dropped if it is damaged, or if it was
+     * already appended to its partition before the server stopped.
+     */
+    private void loadOpenBlock(TierState state) throws IOException {
+        Path file = state.directory.resolve(OPEN_BLOCK_FILE);
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        byte[] contents = Files.readAllBytes(file);
+        if (contents.length < Long.BYTES + BLOCK_HEADER_BYTES) {
+            System.err.println("Ignoring damaged open block '" + file + "'");
+            return;
+        }
+        LocalDate partition = LocalDate.ofEpochDay(ByteBuffer.wrap(contents).getLong());
+        byte[] bytes = Arrays.copyOfRange(contents, Long.BYTES, contents.length);
+        ByteBuffer block = ByteBuffer.wrap(bytes);
+        int count = block.getInt(0);
+        int payloadBytes = block.getInt(4);
+        if (count <= 0 || payloadBytes <= 0 || BLOCK_HEADER_BYTES + payloadBytes != bytes.length
+                || block.getInt(CHECKSUMMED_HEADER_BYTES) != checksum(bytes, payloadBytes)) {
+            System.err.println("Ignoring damaged open block '" + file + "'");
+            return;
+        }
+        if (!readOnly) {
+            switchPartition(state, partition);
+        }
+        long firstMillis = block.getLong(8);
+        Path partitionFile = state.partitions.get(partition);
+        List<BlockRef> index = partitionFile == null ? List.of() : blockIndex(state, partitionFile);
+        if (!index.isEmpty() && index.getLast().lastMillis() >= firstMillis) {
+            // Appended as a full block just before a crash; the file is a stale copy
+            state.openBlockChanged = true;
+            return;
+        }
+        state.openBlock.addAll(BlockCodec.decode(ByteBuffer.wrap(bytes, BLOCK_HEADER_BYTES, payloadBytes).slice(), count));
+    }
+
+    /**
+     * Finishes the active partition and starts (or reopens) another, then applies retention.
+     * An unfinished open block is appended to the old partition as a short block.
+     */
+    private static void switchPartition(TierState state, LocalDate partition) throws IOException {
+        if (!state.openBlock.isEmpty()) {
+            appendBlock(state, state.openBlock);
+            state.openBlock.clear();
+            state.openBlockChanged = true;
+        }
+        closeActive(state);
+
+        Path path = state.directory.resolve(partition.format(PARTITION_NAME) + PARTITION_SUFFIX);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < FILE_HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.force(true);
+            FileHandler.syncDirectory(state.directory);
+            state.blockIndex.put(path, new ArrayList<>());
+        }
+        state.partitions.put(partition, path);
+        state.activePartition = partition;
+        state.activeChannel = channel;
+        recoverTail(state, path, channel);
+        enforceRetention(state);
+    }
+
+    /**
+     * Cuts off blocks at the end of a partition that a crash left torn, checking backwards from the
+     * newest block so only the damaged tail is read. Blocks cut short are already left out of the index.
+     */
+    private static void recoverTail(TierState state, Path path, FileChannel channel) throws IOException {
+        List<BlockRef> index = blockIndex(state, path);
+        int dropped = 0;
+        while (!index.isEmpty() && !checksumMatches(channel, index.getLast())) {
+            index.removeLast();
+            dropped++;
+        }
+        long end = index.isEmpty() ? FILE_HEADER_BYTES : index.getLast().offset() + BLOCK_HEADER_BYTES + index.getLast().payloadBytes();
+        if (channel.size() > end) {
+            channel.truncate(end);
+            channel.force(true);
+            Tpsnitch.LOGGER.warn("Removed a damaged tail ({} bad blocks) from {} (left by an unclean shutdown).", dropped, path);
+        }
+    }
+
+    private static boolean checksumMatches(FileChannel channel, BlockRef block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_HEADER_BYTES + block.payloadBytes());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, block.offset() + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return checksum(buffer.array(), block.payloadBytes()) == block.checksum();
+    }
+
+    private static void closeActive(TierState state) {
+        if (state.activeChannel != null) {
+            try {
+                state.activeChannel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing stats partition in '" + state.directory + "': " + e.getMessage());
+            }
+            state.activeChannel = null;
+        }
+        state.activePartition = null;
+    }
+
+    /**
+     * Deletes partitions that ended before the tier's retention window.
+     */
+    private static void enforceRetention(TierState state) {
+        int days = state.tier.retentionDays();
+        if (days <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - days * 86_400_000L;
+        while (!state.partitions.isEmpty()) {
+            Map.Entry<LocalDate, Path> oldest = state.partitions.firstEntry();
+            if (oldest.getKey().equals(state.activePartition) || state.tier.partitionEndMillis(oldest.getKey()) > cutoff) {
+                break;
+            }
+            state.partitions.pollFirstEntry();
+            state.blockIndex.remove(oldest.getValue());
+            try {
+                Files.deleteIfExists(oldest.getValue());
+            } catch (IOException e) {
+                System.err.println("Error deleting old stats partition '" + oldest.getValue() + "': " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Finds the partitions on disk, picks up any unfinished rollup buckets and imports older
+     * logs into an empty store. Done lazily on the writer thread so the server thread never waits on it.
+     */
+    private void open() throws IOException {
+        if (readOnly && !Files.isDirectory(directory)) {
+            throw new IOException("No stats store at '" + directory + "'");
+        }
+        opened = true;
+        boolean empty = true;
+        for (TierState state : tiers.values()) {
+            if (!readOnly) {
+                Files.createDirectories(state.directory);
+            } else if (!Files.isDirectory(state.directory)) {
+                continue;
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(state.directory, "*" + PARTITION_SUFFIX)) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    try {
+                        LocalDate start = LocalDate.parse(name.substring(0, name.length() - PARTITION_SUFFIX.length()), PARTITION_NAME);
+                        state.partitions.put(start, path);
+                        empty = false;
+                    } catch (DateTimeParseException e) {
+                        System.err.println("Ignoring unexpected file in stats store: " + path);
+                    }
+                }
+            }
+            if (!readOnly) {
+                enforceRetention(state);
+            }
+        }
+
+        if (empty && !readOnly) {
+            migrateOldLogs();
+        } else {
+            for (TierState state : tiers.values()) {
+                loadOpenBlock(state);
+            }
+            recoverRollup(Tier.MINUTE);
+            recoverRollup(Tier.HOUR);
+            recoverRollup(Tier.DAY);
+        }
+    }
+
+    /**
+     * Brings a rollup tier up to date with the tier below after the server stopped without closing
+     * the store. Buckets the child tier finished after this tier's last point are written, and the
+     * last one becomes the open bucket again. Recovered points aren't fed upwards; the next tier
+     * picks them up from what was written when it is recovered in turn. A read-only store keeps the
+     * recovered points in memory instead.
+     */
+    private void recoverRollup(Tier tier) throws IOException {
+        TierState state = tiers.get(tier);
+        long last = lastTimestamp(state);
+        // Everything up to the end of this tier's last bucket is already counted (a partial point
+        // written at shutdown covers its bucket up to then)
+        long from = last == Long.MIN_VALUE ? Long.MIN_VALUE : tier.bucketStart(last) + tier.bucketMillis;
+        List<TimeSeriesPoint> missing = new ArrayList<>();
+        readWritten(tiers.get(childOf(tier)), from, Long.MAX_VALUE, missing::add);
+        missing.sort(Comparator.comparingLong(point -> point.timestampMillis));
+        for (TimeSeriesPoint point : missing) {
+            long bucketStart = tier.bucketStart(point.timestampMillis);
+            if (state.bucket != null && state.bucket.timestampMillis != bucketStart) {
+                if (readOnly) {
+                    state.openBlock.add(state.bucket);
+                } else {
+                    store(state, state.bucket);
+                }
+                state.bucket = null;
+            }
+            if (state.bucket == null) {
+                state.bucket = point.copyAt(bucketStart);
+            } else {
+                state.bucket.merge(point);
+            }
+        }
+    }
+
+    private static Tier childOf(Tier tier) {
+        return switch (tier) {
+            case RAW, MINUTE -> Tier.RAW;
+            case HOUR -> Tier.MINUTE;
+            case DAY -> Tier.HOUR;
+        };
+    }
+
+    private long lastTimestamp(TierState state) throws IOException {
+        if (!state.openBlock.isEmpty()) {
+            return state.openBlock.getLast().timestampMillis;
+        }
+        if (state.partitions.isEmpty()) {
+            return Long.MIN_VALUE;
+        }
+        List<BlockRef> index = blockIndex(state, state.partitions.lastEntry().getValue());
+        return index.isEmpty() ? Long.MIN_VALUE : index.getLast().lastMillis();
+    }
+
+    /**
+     * Imports the JSON log or NDJSON segments left by the other log formats, oldest first.
+     * The JSON log is renamed to {@code <name>.migrated} afterwards; segments are left where they are.
+     */
+    private void migrateOldLogs() throws IOException {
+        List<StatsSample> imported = new ArrayList<>();
+        boolean fromLegacyFile = Files.isRegularFile(legacyFile) && Files.size(legacyFile) > 0;
+        if (fromLegacyFile) {
+            imported.addAll(FileHandler.readLegacyFile(legacyFile.toString()));
+        }
+        Path segmentDirectory = SegmentLog.segmentDirectory(legacyFile);
+        if (Files.isDirectory(segmentDirectory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(segmentDirectory, "*.ndjson")) {
+                for (Path segment : stream) {
+                    imported.addAll(SegmentLog.readSegment(segment));
+                }
+            }
+        }
+        if (imported.isEmpty()) {
+            return;
+        }
+
+        imported.sort(Comparator.comparingLong(sample -> sample.timestampMillis));
+        for (StatsSample sample : imported) {
+            append(tiers.get(Tier.RAW), TimeSeriesPoint.fromSample(sample));
+        }
+        for (TierState state : tiers.values()) {
+            saveOpenBlock(state);
+        }
+
+        if (fromLegacyFile) {
+            Path migrated = legacyFile.resolveSibling(legacyFile.getFileName() + ".migrated");
+            Files.move(legacyFile, migrated);
+        }
+        Tpsnitch.LOGGER.info("Imported {} entries from older logs into {}.", imported.size(), directory);
+    }
+
+    /**
+     * Reads the block headers of a partition, stopping at the first block that was cut short.
+     */
+    private static List<BlockRef> blockIndex(TierState state, Path path) throws IOException {
+        List<BlockRef> cached = state.blockIndex.get(path);
+        if (cached != null) {
+            return cached;
+        }
+        List<BlockRef> index = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+            if (size >= FILE_HEADER_BYTES) {
+                channel.read(header.limit(FILE_HEADER_BYTES), 0);
+                header.flip();
+                if (header.getInt() != FILE_MAGIC || header.getInt() != FILE_VERSION) {
+                    throw new IOException("Not a TPSnitch stats partition (or an unsupported version): " + path);
+                }
+            }
+            long position = FILE_HEADER_BYTES;
+            while (position + BLOCK_HEADER_BYTES <= size) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                int count = header.getInt();
+                int payloadBytes = header.getInt();
+                long first = header.getLong();
+                long last = header.getLong();
+                int checksum = header.getInt();
+                if (count <= 0 || payloadBytes <= 0 || position + BLOCK_HEADER_BYTES + payloadBytes > size) {
+                    break;
+                }
+                index.add(new BlockRef(position, count, payloadBytes, first, last, checksum));
+                position += BLOCK_HEADER_BYTES + payloadBytes;
+            }
+        }
+        state.blockIndex.put(path, index);
+        return index;
+    }
+
+    private static void readPartition(TierState state, Path path, long fromMillis, long toMillis, Consumer<TimeSeriesPoint> out) throws IOException {
+        List<BlockRef> index = blockIndex(state, path);
+        if (index.isEmpty()) {
+            return;
+        }
+        BlockRef lastBlock = index.getLast();
+        long mappedBytes = lastBlock.offset() + BLOCK_HEADER_BYTES + lastBlock.payloadBytes();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, mappedBytes);
+            for (BlockRef block : index) {
+                if (block.lastMillis() < fromMillis || block.firstMillis() > toMillis) {
+                    continue;
+                }
+                byte[] bytes = new byte[BLOCK_HEADER_BYTES + block.payloadBytes()];
+                mapped.get((int) block.offset(), bytes);
+                if (checksum(bytes, block.payloadBytes()) != block.checksum()) {
+                    System.err.println("Skipping damaged block at offset " + block.offset() + " in '" + path + "'");
+                    continue;
+                }
+                ByteBuffer payload = ByteBuffer.wrap(bytes, BLOCK_HEADER_BYTES, block.payloadBytes()).slice();
+                for (TimeSeriesPoint point : BlockCodec.decode(payload, block.count())) {
+                    if (point.timestampMillis >= fromMillis && point.timestampMillis <= toMillis) {
+                        out.accept(point);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts points by time and merges rollup points that belong to the same bucket.
+     */
+    private static List<TimeSeriesPoint> mergeBuckets(List<TimeSeriesPoint> points, Tier tier) {
+        points.sort(Comparator.comparingLong(point -> point.timestampMillis));
+        if (tier == Tier.RAW || points.size() < 2) {
+            return points;
+        }
+        List<TimeSeriesPoint> merged = new ArrayList<>(points.size());
+        for (TimeSeriesPoint point : points) {
+            TimeSeriesPoint previous = merged.isEmpty() ? null : merged.getLast();
+            if (previous != null && previous.timestampMillis == point.timestampMillis) {
+                previous.merge(point);
+            } else {
+                merged.add(point);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Merges consecutive rollup points that share a bucket on their way to a consumer.
+     */
+    private static final class BucketMerger implements Consumer<TimeSeriesPoint> {
+        private final Tier tier;
+        private final Consumer<TimeSeriesPoint> consumer;
+        private TimeSeriesPoint pending;
+
+        private BucketMerger(Tier tier, Consumer<TimeSeriesPoint> consumer) {
+            this.tier = tier;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void accept(TimeSeriesPoint point) {
+            if (tier == Tier.RAW) {
+                consumer.accept(point);
+            } else if (pending != null && pending.timestampMillis == point.timestampMillis) {
+                pending.merge(point);
+            } else {
+                finish();
+                pending = point;
+            }
+        }
+
+        private void finish() {
+            if (pending != null) {
+                consumer.accept(pending);
+                pending = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.dashtiss.tpsnitch;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.OptionalLong;
+
+/**
+ * Formats and parses the timestamps written to the logs. Samples carry plain epoch milliseconds;
+ * text is only produced when something is written out, as UTC ISO-8601 with second precision
+ * (e.g. {@code 2025-04-23T21:00:00Z}).
+ *
+ * <p>Everything here is thread-safe. The last formatted second is cached, so formatting the same
+ * second again (say a metrics scrape and a save in the same second) doesn't allocate.
+ */
+public final class Timestamps {
+
+    // Keys written by older versions, in the server's local time zone
+    private static final DateTimeFormatter LEGACY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private record Cached(long epochSecond, String text) {
+    }
+
+    private static volatile Cached lastFormatted;
+
+    private Timestamps() {
+    }
+
+    /**
+     * Formats epoch milliseconds as a UTC ISO-8601 timestamp, dropping the milliseconds.
+     */
+    public static String format(long epochMillis) {
+        long epochSecond = Math.floorDiv(epochMillis, 1000L);
+        Cached cached = lastFormatted;
+        if (cached != null && cached.epochSecond() == epochSecond) {
+            return cached.text();
+        }
+        String text = formatSecond(epochSecond);
+        lastFormatted = new Cached(epochSecond, text);
+        return text;
+    }
+
+    /**
+     * Parses a timestamp written by {@link #format(long)}, any other ISO-8601 date-time with an
+     * offset, or the old {@code yyyy-MM-dd HH:mm:ss} local-time keys.
+     *
+     * @return The timestamp in epoch milliseconds, or empty if it can't be parsed. Every long is a
+     * valid timestamp (-1 is the last millisecond of 1969), so there's no value to signal a failure with.
+     */
+    public static OptionalLong parse(String text) {
+        if (text == null || text.isEmpty()) {
+            return OptionalLong.empty();
+        }
+        try {
+            if (text.indexOf('T') >= 0) {
+                return OptionalLong.of(OffsetDateTime.parse(text).toInstant().toEpochMilli());
+            }
+            return OptionalLong.of(LocalDateTime.parse(text, LEGACY_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        } catch (DateTimeParseException | ArithmeticException e) {
+            // ArithmeticException: a valid date too far out for epoch milliseconds
+            return OptionalLong.empty();
+        }
+    }
+
+    private static String formatSecond(long epochSecond) {
+        long epochDay = Math.floorDiv(epochSecond, 86_400L);
+        int secondOfDay = (int) Math.floorMod(epochSecond, 86_400L);
+
+        // Days to civil date, from Howard Hinnant's date algorithms
+        long shifted = epochDay + 719_468L;
+        long era = Math.floorDiv(shifted, 146_097L);
+        long dayOfEra = shifted - era * 146_097L;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+        int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < 0 || year > 9999) {
+            return DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(epochSecond));
+        }
+
+        char[] chars = new char[20];
+        writeDigits(chars, 0, (int) year, 4);
+        chars[4] = '-';
+        writeDigits(chars, 5, month, 2);
+        chars[7] = '-';
+        writeDigits(chars, 8, day, 2);
+        chars[10] = 'T';
+        writeDigits(chars, 11, secondOfDay / 3600, 2);
+        chars[13] = ':';
+        writeDigits(chars, 14, secondOfDay / 60 % 60, 2);
+        chars[16] = ':';
+        writeDigits(chars, 17, secondOfDay % 60, 2);
+        chars[19] = 'Z';
+        return new String(chars);
+    }
+
+    private static void writeDigits(char[] chars, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
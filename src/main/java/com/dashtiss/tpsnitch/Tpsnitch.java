@@ -1,61 +1,85 @@
 package com.dashtiss.tpsnitch;
 
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.dashtiss.tpsnitch.mixin.ConnectionAccessor;
+import com.dashtiss.tpsnitch.mixin.ServerCommonPacketListenerImplAccessor;
 
 import eu.midnightdust.lib.config.MidnightConfig;
 
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerChunkEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.loader.api.ModContainer;
 import net.fabricmc.loader.api.metadata.ModMetadata;
 
+import net.minecraft.network.Connection;
 import net.minecraft.server.MinecraftServer;
 
 import org.slf4j.LoggerFactory;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 
-import java.io.*;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.file.Files;
+import java.io.IOException;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.util.List;
+import java.time.Duration;
 import java.util.Optional;
-import java.util.concurrent.TimeUnit;
 
 public class Tpsnitch implements ModInitializer {
 
     // Using SLF4J for logging, good practice in Fabric mods
     public static final Logger LOGGER = LoggerFactory.getLogger("tpsnitch");    // Keep track of server stats
-    private int players = 0;
     private double tps = 0;
     private long mstp = 0;
 
-    // Timer for periodic updates
-    private int tickTimer = 0;
-    // How often to update the stats file (in ticks). 20 ticks = 1 second.
-    private static int updateIntervalTicks = 600; // Default: 30 seconds (30 * 20)
+    // Rolling 1m/5m/15m TPS from real tick intervals
+    private final RollingTps rollingTps = new RollingTps();
+
+    // Online count, joins/leaves, sessions and ping, sampled from the server's player list
+    private final PlayerMetrics playerMetrics = new PlayerMetrics();
+
+    // Runs the collectors at the end of each tick, each at its own cadence from the config
+    private final SamplingScheduler scheduler = new SamplingScheduler();
 
     private MinecraftServer server;
 
+    // Writes samples to disk on its own thread so the tick thread never does file I/O
+    private StatsWriter statsWriter;
+
+    // Per-tick durations for the current logging interval
+    private final TickTimings tickTimings = new TickTimings();
+
+    // Per-dimension tick durations for the current logging interval
+    private final DimensionTimings dimensionTimings = new DimensionTimings();
+
+    // Recent per-tick history that other threads can query without blocking the server thread
+    private TickHistory tickHistory;
+
+    // Per-minute summaries of the last hour for the /tpsnitch command
+    private final MinuteHistory minuteHistory = new MinuteHistory();
+
+    // Latest metrics, published every tick for readers on other threads
+    private final LiveMetrics liveMetrics = new LiveMetrics();
+    private MetricsHttpServer metricsServer;
+
+    // GC, allocation and heap statistics; null unless enabled
+    private volatile JvmMetrics jvmMetrics;
+
+    // Captures stack samples during long ticks; null unless enabled
+    private volatile LagWatchdog lagWatchdog;
+
+    // Time spent in our own hooks each tick, and the governor that keeps it in check
+    private final SelfProfiler selfProfiler = new SelfProfiler();
+
+    private static Tpsnitch instance;
+
     // Simple flag for development builds - helps with debugging output
     @SuppressWarnings("FieldCanBeLocal")
     private final boolean IS_DEVELOPMENT_BUILD = false;
 
-    // Modrinth API details for update checks
-    private static final String MODRINTH_API_URL = "https://api.modrinth.com/v2/project/R6W27fZZ/version";
-    // Identify ourselves to the API provider - replace with your actual info!
-    private static final String USER_AGENT = "TPSnitchMod/1.0 (github.com/dashtiss/TPSnitch)";
-
     // Store this mod's container for later use
     private ModContainer modContainer;
 
@@ -67,13 +91,16 @@ public class Tpsnitch implements ModInitializer {
      */
     @Override
     public void onInitialize() {
-        updateIntervalTicks = Config.TimeBetweenTicks;
         LOGGER.info("TPSnitch mod is starting up.");
 
         // Load our configuration settings
         MidnightConfig.init("tpsnitch", Config.class);
         LOGGER.debug("Configuration loaded.");
 
+        instance = this;
+        tickHistory = new TickHistory(Config.HistoryTicks);
+        LOGGER.debug("Tick history holds {} ticks.", tickHistory.getCapacity());
+
         // Get our mod container for future use
         Optional<ModContainer> container = FabricLoader.getInstance().getModContainer("tpsnitch");
         if (container.isPresent()) {
@@ -98,72 +125,304 @@ public class Tpsnitch implements ModInitializer {
 
         // --- Register Event Listeners ---
 
-        // Listen for players joining the server to update the player count.
+        // Listen for players joining the server. These may run off the server thread, so they only queue an event;
+        // the actual player count is read from the server's player list every tick.
         ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
-            players++;
-            LOGGER.debug("Player joined. Current players: {}", players);
+            playerMetrics.onJoin(handler.player.getUUID());
+            if (Config.NetworkMetricsEnabled) {
+                Connection connection = ((ServerCommonPacketListenerImplAccessor) handler).tpsnitch$getConnection();
+                NetworkMetrics.get().setName(((ConnectionAccessor) connection).tpsnitch$getChannel(), handler.player.getGameProfile().getName());
+            }
+            LOGGER.debug("Player joined: {}", handler.player.getGameProfile().getName());
         });
         LOGGER.debug("Registered player join listener.");
 
-        // Listen for players leaving the server to update the player count.
+        // Listen for players leaving the server.
         ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> {
-            players--;
-            LOGGER.debug("Player disconnected. Current players: {}", players);
+            playerMetrics.onLeave(handler.player.getUUID());
+            LOGGER.debug("Player disconnected: {}", handler.player.getGameProfile().getName());
         });
         LOGGER.debug("Registered player disconnect listener.");
 
+        registerCollectors();
+
+        // Listen for the start of each server tick so we can time every tick.
+        ServerTickEvents.START_SERVER_TICK.register(server -> {
+            long start = System.nanoTime();
+            tickTimings.startTick(start);
+            LagWatchdog watchdog = lagWatchdog;
+            if (watchdog != null) {
+                watchdog.tickStarted(start);
+            }
+            rollingTps.tick(start);
+            HotspotProfiler.get().startServerTick();
+            selfProfiler.add(SelfProfiler.Hook.TICK_START, System.nanoTime() - start);
+        });
+        LOGGER.debug("Registered server tick start listener.");
+
+        // Time each dimension's share of the tick.
+        ServerTickEvents.START_WORLD_TICK.register(level -> {
+            long now = System.nanoTime();
+            dimensionTimings.startTick(level, now);
+            selfProfiler.add(SelfProfiler.Hook.WORLD_TICK, System.nanoTime() - now);
+        });
+        ServerTickEvents.END_WORLD_TICK.register(level -> {
+            long now = System.nanoTime();
+            dimensionTimings.endTick(level, now);
+            selfProfiler.add(SelfProfiler.Hook.WORLD_TICK, System.nanoTime() - now);
+        });
+        ServerWorldEvents.UNLOAD.register((server, level) -> dimensionTimings.remove(level));
+        LOGGER.debug("Registered world tick listeners.");
+
+        // Count chunk loads, generation and unloads. Saves are timed by ChunkMapMixin.
+        ServerChunkEvents.CHUNK_LOAD.register((level, chunk) -> ChunkMetrics.get().onLoad());
+        ServerChunkEvents.CHUNK_GENERATE.register((level, chunk) -> ChunkMetrics.get().onGenerate());
+        ServerChunkEvents.CHUNK_UNLOAD.register((level, chunk) -> ChunkMetrics.get().onUnload());
+        LOGGER.debug("Registered chunk listeners.");
+
+        CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) ->
+                TpsnitchCommand.register(dispatcher, this));
+        LOGGER.debug("Registered /tpsnitch command.");
+
         // Listen for the end of each server tick. This is where we'll calculate stats periodically.
         ServerTickEvents.END_SERVER_TICK.register(server -> {
+            long endHookStart = System.nanoTime();
+            long tickNanos = tickTimings.endTick(endHookStart);
+            LagWatchdog watchdog = lagWatchdog;
+            if (watchdog != null) {
+                watchdog.tickEnded();
+            }
+            HotspotProfiler.get().endServerTick();
             this.server = server;
-            tickTimer++;
-            // Use TRACE level for very frequent logs like this
-            LOGGER.trace("Server tick ended. tickTimer: {}", tickTimer);            // Check if it's time to update the stats file
-            if (tickTimer >= updateIntervalTicks) {
-                LOGGER.debug("Update interval reached. Calculating and saving server stats.");
-
-                // Calculate the current TPS and MSTP
-                tps = getTPS(server);
-                mstp = getMSTP(server);
-
-                // Save the current stats to a file
-                saveStatsToFile();
-
-                // Reset the timer for the next interval
-                tickTimer = 0;
-                LOGGER.debug("Tick timer reset.");
+            long collectorsStart = System.nanoTime();
+            scheduler.tick(server);
+            long collectorsNanos = System.nanoTime() - collectorsStart;
+            if (tickNanos >= 0) {
+                long nowMillis = System.currentTimeMillis();
+                tickHistory.record(nowMillis, tickNanos, playerMetrics.getOnlineCount());
+                minuteHistory.record(nowMillis, tickNanos);
             }
+
+            selfProfiler.add(SelfProfiler.Hook.COLLECTORS, collectorsNanos);
+            selfProfiler.add(SelfProfiler.Hook.TICK_END, System.nanoTime() - endHookStart - collectorsNanos);
+            selfProfiler.add(SelfProfiler.Hook.HOTSPOT_PROFILER, HotspotProfiler.get().getTickOverheadNanos());
+            long overheadNanos = selfProfiler.endTick();
+            int slowdown = selfProfiler.getSlowdown();
+            scheduler.setExpensiveSlowdown(slowdown);
+            HotspotProfiler.get().setBudgetDivisor(slowdown);
+
+            long publishStart = System.nanoTime();
+            publishLiveMetrics(server, overheadNanos);
+            // This tick is already closed, so publishing counts towards the next one
+            selfProfiler.add(SelfProfiler.Hook.TICK_END, System.nanoTime() - publishStart);
         });
-        LOGGER.debug("Registered server tick listener.");        // Check for updates at startup if enabled
+        LOGGER.debug("Registered server tick listener.");
+
+        // Start the background writer with the server and drain it when the server stops.
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> {
+            statsWriter = new StatsWriter(Config.WriterQueueCapacity, FileHandler.createSink(Config.LogFilePath));
+            statsWriter.start();
+            startMetricsServer();
+
+            if (Config.JvmMetricsEnabled) {
+                JvmMetrics jvm = new JvmMetrics();
+                if (Config.JfrEventsEnabled) {
+                    jvm.startJfr();
+                }
+                jvmMetrics = jvm;
+            }
+
+            // SERVER_STARTED runs on the server thread, which is the one the watchdog needs to sample
+            if (Config.LagWatchdogEnabled) {
+                LagWatchdog watchdog = new LagWatchdog(Thread.currentThread(), Path.of(Config.LagReportDirectory));
+                watchdog.start();
+                lagWatchdog = watchdog;
+            }
+        });
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+            JvmMetrics jvm = jvmMetrics;
+            if (jvm != null) {
+                jvmMetrics = null;
+                jvm.stop();
+            }
+            LagWatchdog watchdog = lagWatchdog;
+            if (watchdog != null) {
+                lagWatchdog = null;
+                watchdog.stop();
+            }
+            if (metricsServer != null) {
+                metricsServer.stop();
+                metricsServer = null;
+            }
+        });
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            if (statsWriter != null) {
+                statsWriter.close();
+                statsWriter = null;
+            }
+        });
+        LOGGER.debug("Registered server lifecycle listeners.");
+
+        // Check for updates at startup if enabled
         if (Config.AutoUpdate) {
-            checkForUpdate();
+            startUpdateCheck();
         }
 
         LOGGER.info("TPSnitch mod initialized successfully.");
     }
 
     /**
-     * Saves the current player count, TPS, and MSTP to our designated log file.
-     * Handles the initial file creation/naming if needed.
-     * Assumes Config.LogFilePath points to the desired output file (e.g., "tpsnitch/latest.json").
+     * Registers the collectors run by the {@link SamplingScheduler}. The cadences are read from
+     * the config every tick, so edits take effect without a restart. Collectors due on the same
+     * tick run in the order they're registered here, so the player count is fresh for the interval.
+     */
+    private void registerCollectors() {
+        scheduler.register("players", () -> 1, false, playerMetrics::tick);
+        scheduler.register("player-sweep", () -> Config.PlayerSweepTicks, true,
+                server -> playerMetrics.sweep(server, liveMetrics));
+        scheduler.register("jvm", () -> Config.JvmSampleTicks, true, server -> {
+            JvmMetrics jvm = jvmMetrics;
+            if (jvm != null) {
+                jvm.sample();
+            }
+        });
+        scheduler.register("chunks", () -> Config.ChunkSampleTicks, true, ChunkMetrics.get()::sample);
+        scheduler.register("interval", () -> Config.TimeBetweenTicks, false, server -> {
+            LOGGER.debug("Update interval reached. Calculating and saving server stats.");
+
+            // Calculate the current TPS and MSTP
+            tps = getTPS(server);
+            mstp = getMSTP(server);
+
+            // Save the current stats to a file
+            saveStatsToFile();
+        });
+        LOGGER.debug("Registered collectors.");
+    }
+
+    /**
+     * Queues the current player count, TPS, and MSTP for the background writer.
+     * This runs on the server thread, so it must never touch the disk itself;
+     * {@link StatsWriter} takes care of writing to Config.LogFilePath.
      */
     private void saveStatsToFile() {
         // Only log verbose details if the config setting is enabled
         if (Config.Verbose) {
-            LOGGER.debug("Saving stats - Players: {}, TPS: {}, MSTP: {}", players, tps, mstp);
+            LOGGER.debug("Saving stats - Players: {}, TPS: {}, MSTP: {}", playerMetrics.getOnlineCount(), tps, mstp);
         }
 
-        // On the very first save after server start, we might want special handling
-        // (like renaming a previous log file if that's part of the design).
-        // Your original code had logic for this, but FileHandler.saveFile should
-        // ideally handle creating parent directories and overwriting the target file.
-        // If renaming old logs is needed, that logic would go here before saving.
+        // Build the sample and start a new interval, even if there's nowhere to write it yet
+        StatsSample sample = new StatsSample(System.currentTimeMillis(), playerMetrics.getOnlineCount(), tps, mstp);
+        playerMetrics.fill(sample);
+        rollingTps.fill(sample);
+        tickTimings.fill(sample);
+        dimensionTimings.fill(sample, tickTimings.getTotalNanos());
+        HotspotProfiler.get().fill(sample);
+        selfProfiler.fill(sample);
+        if (server != null) {
+            ChunkMetrics.get().fill(sample, server);
+        }
+        if (Config.NetworkMetricsEnabled) {
+            NetworkMetrics.get().fill(sample);
+        }
+        JvmMetrics jvm = jvmMetrics;
+        if (jvm != null) {
+            jvm.fill(sample);
+        }
+        liveMetrics.publishInterval(sample);
+        tickTimings.reset();
+        dimensionTimings.reset();
 
-        // Assuming FileHandler.saveFile handles creating directories and writing the file
-        FileHandler.saveFile(players, tps, mstp, Config.LogFilePath);
-        LOGGER.debug("Server stats saved to file: {}", Config.LogFilePath);
+        if (statsWriter == null) {
+            LOGGER.debug("Stats writer is not running yet, skipping this sample.");
+            return;
+        }
+        if (statsWriter.submit(sample) && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Server stats queued for {} (queue depth: {})", Config.LogFilePath, statsWriter.getQueueDepth());
+        }
+    }
+
+    /**
+     * Publishes this tick's values for the metrics endpoint and any other off-thread readers.
+     *
+     * @param server        The Minecraft server instance.
+     * @param overheadNanos How long our own hooks took this tick.
+     */
+    private void publishLiveMetrics(MinecraftServer server, long overheadNanos) {
+        long averageNanos = server.getAverageTickTimeNanos();
+        double currentTps = tpsFromAverageNanos(averageNanos);
+        StatsWriter writer = statsWriter;
+        LagWatchdog watchdog = lagWatchdog;
+        liveMetrics.publishTick(System.currentTimeMillis(), server.getTickCount(), currentTps,
+                rollingTps.getTps1m(), rollingTps.getTps5m(), rollingTps.getTps15m(), averageNanos,
+                tickTimings.getLastTickNanos(), playerMetrics.getOnlineCount(), overheadNanos, selfProfiler.getLevel(),
+                writer == null ? 0 : writer.getQueueDepth(), writer == null ? 0 : writer.getDroppedCount(),
+                watchdog == null ? 0 : watchdog.getReportsWritten(), watchdog == null ? 0 : watchdog.getCapturesSkipped());
+    }
 
-        // If you had logic here to rename the previous log, you'd set firstFileSave = false;
-        // after the first save. For now, I've simplified based on the FileHandler assumption.
+    /**
+     * Starts the HTTP metrics endpoint if it is enabled in the config.
+     */
+    private void startMetricsServer() {
+        if (!Config.MetricsEnabled) {
+            return;
+        }
+        metricsServer = new MetricsHttpServer(liveMetrics, scheduler);
+        try {
+            metricsServer.start(Config.MetricsBindAddress, Config.MetricsPort);
+        } catch (IOException e) {
+            LOGGER.error("Failed to start metrics endpoint on {}:{}: {}", Config.MetricsBindAddress, Config.MetricsPort, e.getMessage());
+            metricsServer = null;
+        }
+    }
+
+    /**
+     * @return The rolling 1m/5m/15m TPS. The getters are safe to call from any thread.
+     */
+    public RollingTps getRollingTps() {
+        return rollingTps;
+    }
+
+    /**
+     * @return The latest live metrics. Safe to read from any thread.
+     */
+    public LiveMetrics getLiveMetrics() {
+        return liveMetrics;
+    }
+
+    /**
+     * @return The per-minute history of the last hour. {@link MinuteHistory#current()} is server thread only.
+     */
+    public MinuteHistory getMinuteHistory() {
+        return minuteHistory;
+    }
+
+    /**
+     * @return The collector scheduler. {@link SamplingScheduler#getStats()} is safe to call from any thread.
+     */
+    public SamplingScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return The running mod instance, or null before the mod has been initialized.
+     */
+    public static Tpsnitch getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return The recent per-tick history. Safe to query from any thread.
+     */
+    public TickHistory getTickHistory() {
+        return tickHistory;
+    }
+
+    /**
+     * @return The background stats writer, or null if the server isn't running.
+     */
+    public StatsWriter getStatsWriter() {
+        return statsWriter;
     }
 
     /**
@@ -175,9 +434,16 @@ public class Tpsnitch implements ModInitializer {
      */
     public static long getMSTP(@NotNull MinecraftServer server) {
         // The server provides the average tick time in nanoseconds.
-        long nanos = server.getAverageTickTimeNanos();
-        LOGGER.trace("Raw average tick time nanos: {}", nanos);
+        return mstpFromAverageNanos(server.getAverageTickTimeNanos());
+    }
 
+    /**
+     * Converts an average tick time into whole milliseconds per tick.
+     *
+     * @param nanos The average tick time in nanoseconds.
+     * @return The average tick time in milliseconds, or 0 if data isn't available yet.
+     */
+    public static long mstpFromAverageNanos(long nanos) {
         // If nanos is 0 or negative, the server hasn't collected enough data yet.
         if (nanos <= 0) {
             LOGGER.debug("Average tick time data not available yet. Returning MSTP as 0.");
@@ -185,170 +451,52 @@ public class Tpsnitch implements ModInitializer {
         }
 
         // Convert nanoseconds to milliseconds for MSTP
-        long mstpMillis = nanos / 1_000_000; // Use 1_000_000 for clarity
-        LOGGER.trace("Calculated MSTP: {} ms", mstpMillis);
-        return mstpMillis;
+        return nanos / 1_000_000; // Use 1_000_000 for clarity
     }
 
     /**
      * Calculates the server's TPS (Ticks Per Second) based on the MSTP.
-     * The target TPS for Minecraft is 20.
+     * The target TPS for Minecraft is 20. For a trend over time, see {@link #getRollingTps()}.
      *
      * @param server The Minecraft server instance.
      * @return The calculated TPS, capped at 20.0, or 20.0 if MSTP data isn't available (assuming full speed).
      */
     public static double getTPS(@NotNull MinecraftServer server) {
-        // Get the MSTP in milliseconds.
-        double mstpMillis = getMSTP(server);
-        LOGGER.trace("MSTP in milliseconds: {}", mstpMillis);
-
-        // If MSTP is 0 or negative, we assume the server is running at full speed (20 TPS).
-        if (mstpMillis <= 0) {
-            LOGGER.debug("MSTP is <= 0. Assuming full speed (20 TPS).");
-            return 20.0;
-        }
-
-        // Calculate TPS: 1000 milliseconds / MSTP in milliseconds.
-        // Cap the result at 20.0, as TPS cannot exceed the target.
-        double tps = Math.min(1000.0 / mstpMillis, 20.0);
-        LOGGER.trace("Calculated TPS: {}", tps);
-        return tps;
+        // Use the full nanosecond average; truncating to whole milliseconds first makes TPS jump in steps.
+        return tpsFromAverageNanos(server.getAverageTickTimeNanos());
     }
 
     /**
-     * Downloads and installs an updated version of the mod.
-     * @param url The download URL for the new version
-     * @param version The version being downloaded
+     * Converts an average tick time into TPS.
+     *
+     * @param averageTickNanos The average tick time in nanoseconds.
+     * @return 1000 / MSPT, capped at 20.0, or 20.0 if there is no data yet (assuming full speed).
      */
-    private void downloadAndInstallUpdate(String url, String version) {
-        LOGGER.info("Downloading TPSnitch update v{}...", version);
-
-        try {
-            // Get the update jar
-            HttpClient client = HttpClient.newHttpClient();
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .header("User-Agent", USER_AGENT)
-                    .GET()
-                    .build();
-
-            // Create a temporary file
-            Path tempFile = Files.createTempFile("tpsnitch-update", ".jar");
-            
-            // Download to temp file
-            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
-            if (response.statusCode() == 200) {
-                try (InputStream in = response.body();
-                     OutputStream out = Files.newOutputStream(tempFile)) {
-                    in.transferTo(out);
-                }
-
-                // Get current jar location
-                File currentJar = new File(modContainer.getOrigin().getPaths().get(0).toString());
-                File updateJar = tempFile.toFile();
-
-                // Verify the downloaded file
-                if (!updateJar.exists() || updateJar.length() == 0) {
-                    LOGGER.error("Download seems to have failed - update file is empty or missing");
-                    return;
-                }
-
-                try {
-                    // First replace the current jar file to ensure smooth update
-                    Files.move(tempFile, currentJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                    
-                    // Then rename it to include the version number
-                    String newFileName = String.format("TPSnitch-Fabric-%s.jar", version);
-                    File versionedJar = new File(currentJar.getParentFile(), newFileName);
-                    Files.move(currentJar.toPath(), versionedJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                    
-                    LOGGER.info("Update installed successfully! File renamed to: {}", newFileName);
-                    LOGGER.warn("Please restart your server for the update to take effect.");
-                } catch (Exception e) {
-                    LOGGER.error("Failed to install update: {}", e.getMessage());
-                    if (Config.Verbose) {
-                        LOGGER.error("Full stack trace:", e);
-                    }
-                }
-            } else {
-                LOGGER.error("Failed to download update - server returned status code: {}", response.statusCode());
-            }
-        } catch (Exception e) {
-            LOGGER.error("Failed to download/install update: {}", e.getMessage());
-            if (Config.Verbose) {
-                LOGGER.error("Full stack trace:", e);
-            }
+    public static double tpsFromAverageNanos(long averageTickNanos) {
+        // If MSTP is 0 or negative, we assume the server is running at full speed (20 TPS).
+        if (averageTickNanos <= 0) {
+            return 20.0;
         }
+        // Cap the result at 20.0, as TPS cannot exceed the target.
+        return Math.min(1_000_000_000.0 / averageTickNanos, 20.0);
     }
 
     /**
-     * Checks the Modrinth API to see if a newer version of this mod is available.
-     * If auto-update is enabled and a newer version is found, downloads and installs it.
-     * Logs the result.
+     * Starts the update check on its own thread. It never holds up startup, however slow Modrinth is.
      */
-    private void checkForUpdate() {
-        LOGGER.info("Checking Modrinth for TPSnitch updates...");
-
-        HttpClient client = HttpClient.newBuilder()
-                .version(HttpClient.Version.HTTP_1_1)
-                .build();
-
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(MODRINTH_API_URL))
-                .GET()
-                .header("User-Agent", USER_AGENT)
-                .build();
-
+    private void startUpdateCheck() {
         try {
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                String responseBody = response.body();
-                ObjectMapper objectMapper = new ObjectMapper();
-
-                List<ModrinthVersion> versions = objectMapper.readValue(responseBody, new TypeReference<List<ModrinthVersion>>() {});
-
-                if (versions != null && !versions.isEmpty()) {
-                    ModrinthVersion latestModrinthVersion = versions.getFirst();
-                    String latestVersionNumber = latestModrinthVersion.getVersionNumber();
-                    String currentModVersion = getModVersion();
-
-                    LOGGER.info("Your current mod version: {}", currentModVersion);
-                    LOGGER.info("Latest version on Modrinth: {}", latestVersionNumber);
-
-                    if (latestVersionNumber != null && currentModVersion != null && 
-                        latestVersionNumber.compareTo(currentModVersion) > 0) {
-                        LOGGER.warn("A newer version of TPSnitch is available! Version: {} (You have {})", 
-                                  latestVersionNumber, currentModVersion);
-                        
-                        if (Config.AutoUpdate) {
-                            List<ModrinthFile> files = latestModrinthVersion.getFiles();
-                            if (files != null && !files.isEmpty()) {
-                                // Try to find the primary file first
-                                ModrinthFile updateFile = files.stream()
-                                    .filter(ModrinthFile::isPrimary)
-                                    .findFirst()
-                                    .orElse(files.getFirst());
-                                
-                                downloadAndInstallUpdate(updateFile.getUrl(), latestVersionNumber);
-                            } else {
-                                LOGGER.error("No download files found for version {}", latestVersionNumber);
-                            }
-                        }
-                    } else {
-                        LOGGER.info("TPSnitch is up to date.");
-                    }
-                } else {
-                    LOGGER.warn("Modrinth API returned no versions for project R6W27fZZ. Cannot check for updates.");
-                }
-            } else {
-                LOGGER.error("Failed to check for updates. Modrinth API responded with status code: {}", response.statusCode());
-            }
-        } catch (Exception e) {
-            LOGGER.error("An error occurred while checking for updates: {}", e.getMessage());
-            if (Config.Verbose) {
-                LOGGER.error(e.getMessage(), e);
-            }
+            new UpdateChecker(
+                    Config.UpdateApiUrl,
+                    FabricLoader.getInstance().getConfigDir().resolve("tpsnitch-cache"),
+                    modContainer.getOrigin().getPaths().getFirst(),
+                    getModVersion(),
+                    Config.AutoUpdate,
+                    Duration.ofSeconds(Math.max(1, Config.UpdateTimeoutSeconds))
+            ).start();
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            // Bad API URL, or not loaded from a single file
+            LOGGER.error("Couldn't start the update check: {}", e.getMessage());
         }
     }
 
@@ -373,54 +521,4 @@ public class Tpsnitch implements ModInitializer {
             return "UNKNOWN"; // Indicate that the version couldn't be determined.
         }
     }
-
-    /**
-     * Simple static inner class to help Jackson parse the JSON response
-     * from the Modrinth API for version information.
-     * We ignore any fields we don't need using @JsonIgnoreProperties.
-     */
-    @JsonIgnoreProperties(ignoreUnknown = true)
-    private static class ModrinthVersion {
-        // Use @JsonProperty to map snake_case JSON fields to camelCase Java fields
-        private String id;
-        @JsonProperty("project_id")
-        private String projectId;
-        private String name;
-        @JsonProperty("version_number")
-        private String versionNumber; // This is the key field for version comparison
-        @JsonProperty("files")
-        private List<ModrinthFile> files;
-
-        // Default constructor required by Jackson for deserialization
-        public ModrinthVersion() {}
-
-        // --- Getters for the fields we care about ---
-        public String getVersionNumber() { return versionNumber; }
-        public List<ModrinthFile> getFiles() { return files; }
-
-        // You could add setters if you needed to modify these objects after parsing,
-        // but for this case, getters are sufficient.
-
-        // Optional: Override toString for easier debugging
-        @Override
-        public String toString() {
-            return "ModrinthVersion{" +
-                    "name='" + name + '\'' +
-                    ", versionNumber='" + versionNumber + '\'' +
-                    '}';
-        }
-    }
-
-    @JsonIgnoreProperties(ignoreUnknown = true)
-    private static class ModrinthFile {
-        private String url;
-        private String filename;
-        private boolean primary;
-
-        public String getUrl() { return url; }
-        public String getFilename() { return filename; }
-        public boolean isPrimary() { return primary; }
-    }
-
-    
 }
@@ -0,0 +1,277 @@
+package com.dashtiss.tpsnitch;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+
+import net.minecraft.ChatFormatting;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.MutableComponent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The {@code /tpsnitch} command: current TPS and MSPT, the last interval's percentiles, a sparkline
+ * of recent minutes, tick times over the last few seconds or minutes, the worst ticks of the last
+ * hour and the profiler's hotspots.
+ *
+ * <p>Everything shown comes from snapshots the mod keeps up to date anyway ({@link LiveMetrics},
+ * {@link MinuteHistory} and {@link HotspotProfiler#getLastHotspots()}), and no reply covers more
+ * than an hour of minutes or one page of entries. Only {@code recent} scans the {@link TickHistory},
+ * and never more than the ticks it holds (a few microseconds at the default size). Running the
+ * command doesn't read the log, so running it over and over can't slow the server down.
+ */
+public final class TpsnitchCommand {
+
+    private static final int PAGE_SIZE = 8;
+    private static final int DEFAULT_SPARKLINE_MINUTES = 30;
+    private static final int DEFAULT_RECENT_SECONDS = 60;
+    private static final long MINUTE_MILLIS = 60_000L;
+    private static final char[] BARS = {'▁', '▂', '▃', '▄', '▅', '▆', '▇', '█'};
+
+    private final Tpsnitch mod;
+
+    private TpsnitchCommand(Tpsnitch mod) {
+        this.mod = mod;
+    }
+
+    /**
+     * Registers {@code /tpsnitch} and its subcommands. Only sources with at least
+     * {@link Config#CommandPermissionLevel} can see or run it.
+     */
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher, Tpsnitch mod) {
+        TpsnitchCommand command = new TpsnitchCommand(mod);
+        dispatcher.register(Commands.literal("tpsnitch")
+                .requires(source -> source.hasPermission(Config.CommandPermissionLevel))
+                .executes(command::status)
+                .then(Commands.literal("status")
+                        .executes(command::status))
+                .then(Commands.literal("percentiles")
+                        .executes(command::percentiles))
+                .then(Commands.literal("sparkline")
+                        .executes(context -> command.sparkline(context, DEFAULT_SPARKLINE_MINUTES))
+                        .then(Commands.argument("minutes", IntegerArgumentType.integer(1, MinuteHistory.MINUTES))
+                                .executes(context -> command.sparkline(context, IntegerArgumentType.getInteger(context, "minutes")))))
+                .then(Commands.literal("recent")
+                        .executes(context -> command.recent(context, DEFAULT_RECENT_SECONDS))
+                        .then(Commands.argument("seconds", IntegerArgumentType.integer(1))
+                                .executes(context -> command.recent(context, IntegerArgumentType.getInteger(context, "seconds")))))
+                .then(Commands.literal("worst")
+                        .executes(context -> command.worst(context, 1))
+                        .then(Commands.argument("page", IntegerArgumentType.integer(1))
+                                .executes(context -> command.worst(context, IntegerArgumentType.getInteger(context, "page")))))
+                .then(Commands.literal("hotspots")
+                        .executes(context -> command.hotspots(context, 1))
+                        .then(Commands.argument("page", IntegerArgumentType.integer(1))
+                                .executes(context -> command.hotspots(context, IntegerArgumentType.getInteger(context, "page"))))));
+    }
+
+    private int status(CommandContext<CommandSourceStack> context) {
+        MetricsSnapshot snapshot = mod.getLiveMetrics().read(new MetricsSnapshot());
+        send(context, header("TPSnitch status"));
+        send(context, Component.literal("TPS ")
+                .append(colored(format("%.2f", snapshot.tps), tpsColor(snapshot.tps)))
+                .append(format(" (1m %.2f, 5m %.2f, 15m %.2f)", snapshot.tps1m, snapshot.tps5m, snapshot.tps15m)));
+        send(context, Component.literal("MSPT ")
+                .append(colored(format("%.1f ms", millis(snapshot.averageTickNanos)), msptColor(snapshot.averageTickNanos)))
+                .append(format(" average, last tick %.1f ms", millis(snapshot.lastTickNanos))));
+        send(context, Component.literal(format("Players %d, TPSnitch overhead %.3f ms/tick (governor level %d)",
+                snapshot.players, millis(snapshot.overheadNanos), snapshot.governorLevel)));
+        return 1;
+    }
+
+    private int percentiles(CommandContext<CommandSourceStack> context) {
+        MetricsSnapshot snapshot = mod.getLiveMetrics().read(new MetricsSnapshot());
+        if (snapshot.intervalTicks == 0) {
+            send(context, Component.literal("No interval has been logged yet.").withStyle(ChatFormatting.GRAY));
+            return 0;
+        }
+        send(context, header(format("Tick times over the last logged interval (%d ticks, %d over 50 ms)",
+                snapshot.intervalTicks, snapshot.intervalTicksOver50ms)));
+        send(context, Component.literal("p50 ").append(colored(format("%.1f ms", millis(snapshot.intervalP50Nanos)), msptColor(snapshot.intervalP50Nanos)))
+                .append("  p90 ").append(colored(format("%.1f ms", millis(snapshot.intervalP90Nanos)), msptColor(snapshot.intervalP90Nanos)))
+                .append("  p99 ").append(colored(format("%.1f ms", millis(snapshot.intervalP99Nanos)), msptColor(snapshot.intervalP99Nanos))));
+        send(context, Component.literal("p99.9 ").append(colored(format("%.1f ms", millis(snapshot.intervalP999Nanos)), msptColor(snapshot.intervalP999Nanos)))
+                .append("  max ").append(colored(format("%.1f ms", millis(snapshot.intervalMaxNanos)), msptColor(snapshot.intervalMaxNanos)))
+                .append(format("  mean %.1f ms", millis(snapshot.intervalMeanNanos))));
+        return 1;
+    }
+
+    private int sparkline(CommandContext<CommandSourceStack> context, int minutes) {
+        // Slot i is the minute that started i minutes after the first one shown; -1 means no ticks
+        long lastStart = System.currentTimeMillis() / MINUTE_MILLIS * MINUTE_MILLIS;
+        long firstStart = lastStart - (minutes - 1) * MINUTE_MILLIS;
+        long[] means = new long[minutes];
+        Arrays.fill(means, -1);
+        long highest = 0;
+        long lowest = Long.MAX_VALUE;
+        for (MinuteHistory.Minute minute : recentMinutes()) {
+            if (minute.startMillis() < firstStart || minute.startMillis() > lastStart) {
+                continue;
+            }
+            means[(int) ((minute.startMillis() - firstStart) / MINUTE_MILLIS)] = minute.meanNanos();
+            highest = Math.max(highest, minute.meanNanos());
+            lowest = Math.min(lowest, minute.meanNanos());
+        }
+        if (highest == 0) {
+            send(context, Component.literal("No ticks recorded in the last " + minutes + " minutes.").withStyle(ChatFormatting.GRAY));
+            return 0;
+        }
+
+        // A full bar is the 50 ms budget, or the slowest minute if that was over budget
+        long scale = Math.max(TickTimings.TICK_BUDGET_NANOS, highest);
+        MutableComponent line = Component.literal("");
+        for (long mean : means) {
+            if (mean < 0) {
+                line.append(Component.literal(" "));
+                continue;
+            }
+            int bar = (int) Math.min(BARS.length - 1, mean * BARS.length / (scale + 1));
+            line.append(colored(String.valueOf(BARS[bar]), msptColor(mean)));
+        }
+        send(context, header(format("Mean MSPT per minute, last %d minutes", minutes)));
+        send(context, line);
+        send(context, Component.literal(format("min %.1f ms, max %.1f ms, full bar = %.1f ms", millis(lowest), millis(highest), millis(scale)))
+                .withStyle(ChatFormatting.GRAY));
+        return 1;
+    }
+
+    private int recent(CommandContext<CommandSourceStack> context, int seconds) {
+        TickHistory history = mod.getTickHistory();
+        long now = System.currentTimeMillis();
+        TickHistory.WindowStats stats = history.rangeStats(now - seconds * 1000L, now);
+        if (stats.count() == 0) {
+            send(context, Component.literal("No ticks recorded in the last " + seconds + " seconds.").withStyle(ChatFormatting.GRAY));
+            return 0;
+        }
+        send(context, header(format("Tick times over the last %d seconds (%d ticks)", seconds, stats.count())));
+        send(context, Component.literal("MSPT ")
+                .append(colored(format("%.1f ms", millis(stats.avgNanos())), msptColor(stats.avgNanos())))
+                .append(" average, min ").append(colored(format("%.1f ms", millis(stats.minNanos())), msptColor(stats.minNanos())))
+                .append(", max ").append(colored(format("%.1f ms", millis(stats.maxNanos())), msptColor(stats.maxNanos()))));
+        send(context, Component.literal(format("Players %.1f average (%d to %d)", stats.avgPlayers(), stats.minPlayers(), stats.maxPlayers())));
+        if (stats.count() >= history.getCapacity()) {
+            send(context, Component.literal(format("Only the last %d ticks (since %s) are kept; raise Tick History Size to look further back.",
+                    history.getCapacity(), Timestamps.format(stats.fromMillis()))).withStyle(ChatFormatting.GRAY));
+        }
+        return stats.count();
+    }
+
+    private int worst(CommandContext<CommandSourceStack> context, int page) {
+        List<MinuteHistory.Minute> minutes = recentMinutes();
+        minutes.sort(Comparator.comparingLong(MinuteHistory.Minute::maxNanos).reversed());
+        List<MinuteHistory.Minute> shown = page(context, minutes, page, "worst");
+        if (shown == null) {
+            return 0;
+        }
+        send(context, header(format("Worst tick of each minute, last hour (page %d/%d)", page, pages(minutes))));
+        for (MinuteHistory.Minute minute : shown) {
+            send(context, Component.literal(Timestamps.format(minute.maxAtMillis()) + "  ")
+                    .append(colored(format("%.1f ms", millis(minute.maxNanos())), msptColor(minute.maxNanos())))
+                    .append(Component.literal(format("  (minute mean %.1f ms, %d over 50 ms)", millis(minute.meanNanos()), minute.ticksOver50ms()))
+                            .withStyle(ChatFormatting.GRAY)));
+        }
+        footer(context, minutes, page, "worst");
+        return shown.size();
+    }
+
+    private int hotspots(CommandContext<CommandSourceStack> context, int page) {
+        List<HotspotProfiler.Hotspot> hotspots = HotspotProfiler.get().getLastHotspots();
+        if (hotspots.isEmpty()) {
+            String reason = HotspotProfiler.get().isEnabled()
+                    ? "No hotspots yet; they're listed once an interval has been logged."
+                    : "The hotspot profiler is off. Turn on Hotspot Profiler in the config to find them.";
+            send(context, Component.literal(reason).withStyle(ChatFormatting.GRAY));
+            return 0;
+        }
+        List<HotspotProfiler.Hotspot> shown = page(context, hotspots, page, "hotspots");
+        if (shown == null) {
+            return 0;
+        }
+        long ticks = Math.max(1, mod.getLiveMetrics().read(new MetricsSnapshot()).intervalTicks);
+        send(context, header(format("Hotspots in the last logged interval (page %d/%d)", page, pages(hotspots))));
+        for (HotspotProfiler.Hotspot hotspot : shown) {
+            send(context, Component.literal(hotspot.kind() + " ").withStyle(ChatFormatting.GRAY)
+                    .append(Component.literal(hotspot.name()).withStyle(ChatFormatting.WHITE))
+                    .append(Component.literal(format("  %.3f ms/tick", millis(hotspot.nanos() / ticks))).withStyle(ChatFormatting.YELLOW)));
+        }
+        footer(context, hotspots, page, "hotspots");
+        return shown.size();
+    }
+
+    /**
+     * @return The finished minutes of the last hour plus the one in progress, oldest first.
+     */
+    private List<MinuteHistory.Minute> recentMinutes() {
+        MinuteHistory history = mod.getMinuteHistory();
+        List<MinuteHistory.Minute> minutes = new ArrayList<>(history.getFinished());
+        MinuteHistory.Minute current = history.current();
+        if (current != null) {
+            minutes.add(current);
+        }
+        return minutes;
+    }
+
+    /**
+     * @return The entries on the given page, or null (after telling the source) if there is no such page.
+     */
+    private static <T> List<T> page(CommandContext<CommandSourceStack> context, List<T> entries, int page, String subcommand) {
+        if (entries.isEmpty()) {
+            send(context, Component.literal("Nothing recorded yet.").withStyle(ChatFormatting.GRAY));
+            return null;
+        }
+        int pages = pages(entries);
+        if (page > pages) {
+            context.getSource().sendFailure(Component.literal(format("There %s only %d page%s, try /tpsnitch %s %d.",
+                    pages == 1 ? "is" : "are", pages, pages == 1 ? "" : "s", subcommand, pages)));
+            return null;
+        }
+        int from = (page - 1) * PAGE_SIZE;
+        return entries.subList(from, Math.min(entries.size(), from + PAGE_SIZE));
+    }
+
+    private static void footer(CommandContext<CommandSourceStack> context, List<?> entries, int page, String subcommand) {
+        if (page < pages(entries)) {
+            send(context, Component.literal(format("Next page: /tpsnitch %s %d", subcommand, page + 1)).withStyle(ChatFormatting.GRAY));
+        }
+    }
+
+    private static int pages(List<?> entries) {
+        return Math.max(1, (entries.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+
+    private static void send(CommandContext<CommandSourceStack> context, Component message) {
+        context.getSource().sendSuccess(() -> message, false);
+    }
+
+    private static MutableComponent header(String text) {
+        return Component.literal(text).withStyle(ChatFormatting.GOLD);
+    }
+
+    private static MutableComponent colored(String text, ChatFormatting color) {
+        return Component.literal(text).withStyle(color);
+    }
+
+    private static ChatFormatting tpsColor(double tps) {
+        return tps >= 19.5 ? ChatFormatting.GREEN : tps >= 15.0 ? ChatFormatting.YELLOW : ChatFormatting.RED;
+    }
+
+    private static ChatFormatting msptColor(long nanos) {
+        return nanos <= TickTimings.TICK_BUDGET_NANOS * 7 / 10 ? ChatFormatting.GREEN
+                : nanos <= TickTimings.TICK_BUDGET_NANOS ? ChatFormatting.YELLOW : ChatFormatting.RED;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static String format(String format, Object... args) {
+        return String.format(Locale.ROOT, format, args);
+    }
+}
@@ -0,0 +1,433 @@
+package com.dashtiss.tpsnitch;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks Modrinth for a newer version of the mod and, if asked to, downloads and installs it.
+ *
+ * <p>{@link #start()} runs everything on a virtual thread, so startup never waits for the network.
+ * Every request has a connect timeout and a timeout for the response, and downloads are abandoned
+ * if no data arrives for the same time. The version list is cached with its ETag and asked for
+ * again with {@code If-None-Match}, so an unchanged list costs a 304 and no body.
+ *
+ * <p>Downloads go to a {@code .part} file next to the mod jar. If one is interrupted, the next
+ * attempt asks for the rest with a {@code Range} request. The finished file is checked against
+ * the SHA-512 (or SHA-1) hash Modrinth lists for it before it replaces the current jar; a file
+ * that doesn't match is deleted.
+ */
+public class UpdateChecker {
+
+    private static final String PROJECT_ID = "R6W27fZZ";
+    // Identify ourselves to the API provider
+    private static final String USER_AGENT = "TPSnitchMod/1.0 (github.com/dashtiss/TPSnitch)";
+
+    private static final TypeToken<List<ModrinthVersion>> MODRINTH_VERSIONS_TYPE = new TypeToken<>() {};
+
+    private final String apiBaseUrl;
+    private final Path cacheDirectory;
+    private final Path currentJar;
+    private final String currentVersion;
+    private final boolean install;
+    private final Duration timeout;
+    private final HttpClient client;
+
+    /**
+     * @param apiBaseUrl     The Modrinth API, e.g. {@code https://api.modrinth.com/v2}. Point it at a local server to test.
+     * @param cacheDirectory Where to keep the cached version list.
+     * @param currentJar     The running mod jar, replaced when an update is installed.
+     * @param currentVersion The running mod version.
+     * @param install        Whether to download and install a newer version, or only log that there is one.
+     * @param timeout        Connect timeout, response timeout, and how long a download may go without receiving data.
+     */
+    public UpdateChecker(String apiBaseUrl, Path cacheDirectory, Path currentJar, String currentVersion,
+                         boolean install, Duration timeout) {
+        this.apiBaseUrl = apiBaseUrl.endsWith("/") ? apiBaseUrl.substring(0, apiBaseUrl.length() - 1) : apiBaseUrl;
+        this.cacheDirectory = cacheDirectory;
+        this.currentJar = currentJar;
+        this.currentVersion = currentVersion;
+        this.install = install;
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * Runs the check on a new virtual thread and returns straight away.
+     */
+    public Thread start() {
+        return Thread.ofVirtual().name("TPSnitch-UpdateChecker").start(this::run);
+    }
+
+    private void run() {
+        try {
+            check();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Tpsnitch.LOGGER.error("An error occurred while checking for updates: {}", e.getMessage());
+            if (Config.Verbose) {
+                Tpsnitch.LOGGER.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Checks for a newer version, and downloads and installs it if enabled. Blocks; see {@link #start()}.
+     */
+    public void check() throws IOException, InterruptedException {
+        Tpsnitch.LOGGER.info("Checking Modrinth for TPSnitch updates...");
+        List<ModrinthVersion> versions = fetchVersions();
+        if (versions == null || versions.isEmpty()) {
+            Tpsnitch.LOGGER.warn("Modrinth API returned no versions for project {}. Cannot check for updates.", PROJECT_ID);
+            return;
+        }
+
+        ModrinthVersion latest = versions.getFirst();
+        String latestVersion = latest.versionNumber;
+        Tpsnitch.LOGGER.info("Your current mod version: {}", currentVersion);
+        Tpsnitch.LOGGER.info("Latest version on Modrinth: {}", latestVersion);
+        if (latestVersion == null || currentVersion == null || compareVersions(latestVersion, currentVersion) <= 0) {
+            Tpsnitch.LOGGER.info("TPSnitch is up to date.");
+            return;
+        }
+        Tpsnitch.LOGGER.warn("A newer version of TPSnitch is available! Version: {} (You have {})", latestVersion, currentVersion);
+        if (!install) {
+            return;
+        }
+
+        if (latest.files == null || latest.files.isEmpty()) {
+            Tpsnitch.LOGGER.error("No download files found for version {}", latestVersion);
+            return;
+        }
+        // Try to find the primary file first
+        ModrinthFile file = latest.files.stream()
+                .filter(candidate -> candidate.primary)
+                .findFirst()
+                .orElse(latest.files.getFirst());
+        if (currentJar == null || !Files.isRegularFile(currentJar)) {
+            Tpsnitch.LOGGER.warn("TPSnitch isn't running from a jar file, so the update can't be installed.");
+            return;
+        }
+        Path downloaded = download(file, latestVersion);
+        if (downloaded != null) {
+            installUpdate(downloaded, latestVersion);
+        }
+    }
+
+    /**
+     * Compares two version numbers like {@code 1.10.2} or {@code 1.4.0-beta.2+1.21.5} part by part,
+     * numerically where both parts are numbers, so {@code 1.10.0} is newer than {@code 1.9.0}. Missing
+     * parts count as 0, a pre-release is older than its release, and build metadata after a {@code +}
+     * is ignored, as is a leading {@code v}.
+     *
+     * @return Negative, zero or positive as {@code a} is older than, the same as or newer than {@code b}.
+     */
+    static int compareVersions(String a, String b) {
+        String[] aParts = withoutPrefix(a).split("\\+", 2)[0].split("-", 2);
+        String[] bParts = withoutPrefix(b).split("\\+", 2)[0].split("-", 2);
+        int result = compareParts(aParts[0], bParts[0]);
+        if (result != 0) {
+            return result;
+        }
+        if (aParts.length == 1 || bParts.length == 1) {
+            return bParts.length - aParts.length;
+        }
+        return compareParts(aParts[1], bParts[1]);
+    }
+
+    private static String withoutPrefix(String version) {
+        String stripped = version.strip();
+        return stripped.startsWith("v") || stripped.startsWith("V") ? stripped.substring(1) : stripped;
+    }
+
+    private static int compareParts(String a, String b) {
+        String[] aParts = a.split("\\.");
+        String[] bParts = b.split("\\.");
+        for (int i = 0; i < Math.max(aParts.length, bParts.length); i++) {
+            String aPart = i < aParts.length ? aParts[i] : "0";
+            String bPart = i < bParts.length ? bParts[i] : "0";
+            boolean aNumeric = aPart.matches("\\d+");
+            boolean bNumeric = bPart.matches("\\d+");
+            int result;
+            if (aNumeric && bNumeric) {
+                result = new BigInteger(aPart).compareTo(new BigInteger(bPart));
+            } else if (aNumeric || bNumeric) {
+                // Numbers sort before words, as in semantic versioning
+                result = aNumeric ? -1 : 1;
+            } else {
+                result = aPart.compareTo(bPart);
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Fetches the version list, newest first, using the cached copy if it hasn't changed.
+     */
+    private List<ModrinthVersion> fetchVersions() throws IOException, InterruptedException {
+        Path cachedBody = cacheDirectory.resolve("versions.json");
+        Path cachedETag = cacheDirectory.resolve("versions.etag");
+
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create(apiBaseUrl + "/project/" + PROJECT_ID + "/version"))
+                .timeout(timeout)
+                .header("User-Agent", USER_AGENT)
+                .GET();
+        if (Files.isRegularFile(cachedBody) && Files.isRegularFile(cachedETag)) {
+            request.header("If-None-Match", Files.readString(cachedETag, StandardCharsets.UTF_8).trim());
+        }
+
+        HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        String body;
+        if (response.statusCode() == 304) {
+            Tpsnitch.LOGGER.debug("Modrinth version list unchanged, using the cached copy.");
+            body = Files.readString(cachedBody, StandardCharsets.UTF_8);
+        } else if (response.statusCode() == 200) {
+            body = response.body();
+            cacheVersions(cachedBody, cachedETag, body, response.headers().firstValue("ETag").orElse(null));
+        } else {
+            throw new IOException("Modrinth API responded with status code " + response.statusCode());
+        }
+
+        try {
+            return FileHandler.GSON.fromJson(body, MODRINTH_VERSIONS_TYPE);
+        } catch (JsonParseException e) {
+            Files.deleteIfExists(cachedETag);
+            throw new IOException("Couldn't parse the Modrinth version list: " + e.getMessage(), e);
+        }
+    }
+
+    private void cacheVersions(Path cachedBody, Path cachedETag, String body, String eTag) {
+        try {
+            Files.createDirectories(cacheDirectory);
+            if (eTag == null) {
+                Files.deleteIfExists(cachedETag);
+                return;
+            }
+            FileHandler.writeAtomically(cachedBody, out -> out.write(body.getBytes(StandardCharsets.UTF_8)));
+            FileHandler.writeAtomically(cachedETag, out -> out.write(eTag.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            // Only costs a full response next time
+            Tpsnitch.LOGGER.debug("Couldn't cache the Modrinth version list: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Downloads a file, resuming an earlier partial download if there is one.
+     *
+     * @return The verified download, or null if it failed verification.
+     */
+    private Path download(ModrinthFile file, String version) throws IOException, InterruptedException {
+        String algorithm;
+        String expectedHash;
+        Map<String, String> hashes = file.hashes == null ? Map.of() : file.hashes;
+        if (hashes.containsKey("sha512")) {
+            algorithm = "SHA-512";
+            expectedHash = hashes.get("sha512");
+        } else if (hashes.containsKey("sha1")) {
+            algorithm = "SHA-1";
+            expectedHash = hashes.get("sha1");
+        } else {
+            Tpsnitch.LOGGER.error("Modrinth lists no hash for {}, refusing to install an unverified download.", file.url);
+            return null;
+        }
+
+        Path part = currentJar.resolveSibling(".tpsnitch-" + version + ".jar.part");
+        long existing = Files.isRegularFile(part) ? Files.size(part) : 0;
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create(file.url))
+                .timeout(timeout)
+                .header("User-Agent", USER_AGENT)
+                .GET();
+        if (existing > 0) {
+            request.header("Range", "bytes=" + existing + "-");
+            Tpsnitch.LOGGER.info("Resuming TPSnitch update v{} download from {} bytes...", version, existing);
+        } else {
+            Tpsnitch.LOGGER.info("Downloading TPSnitch update v{}...", version);
+        }
+
+        HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream in = response.body()) {
+            int status = response.statusCode();
+            if (status == 206 && existing > 0 && rangeStart(response) == existing) {
+                try (OutputStream out = Files.newOutputStream(part, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    transfer(in, out);
+                }
+            } else if (status == 206) {
+                Files.deleteIfExists(part);
+                throw new IOException("Server sent a range we didn't ask for, the download will start over next time");
+            } else if (status == 200) {
+                // Also what servers without range support send back, in which case we start over
+                try (OutputStream out = Files.newOutputStream(part)) {
+                    transfer(in, out);
+                }
+            } else if (status != 416 || existing == 0) {
+                // 416 means we already have the whole file; anything else is an error
+                throw new IOException("Download failed, server returned status code " + status);
+            }
+        }
+
+        String actualHash = hash(part, algorithm);
+        if (!actualHash.equalsIgnoreCase(expectedHash)) {
+            Tpsnitch.LOGGER.error("Downloaded update doesn't match its {} hash (expected {}, got {}), deleting it.", algorithm, expectedHash, actualHash);
+            Files.deleteIfExists(part);
+            return null;
+        }
+        return part;
+    }
+
+    private static long rangeStart(HttpResponse<?> response) {
+        // Content-Range: bytes <start>-<end>/<total>
+        String range = response.headers().firstValue("Content-Range").orElse("");
+        int start = range.indexOf(' ');
+        int end = range.indexOf('-');
+        if (!range.startsWith("bytes ") || end <= start) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(start + 1, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Copies a response body, giving up if no data arrives for the timeout. HttpClient's own
+     * timeout stops once the headers arrive, so a stalled body would otherwise block forever.
+     * The watchdog interrupts this thread, which makes the blocked read throw.
+     */
+    private void transfer(InputStream in, OutputStream out) throws IOException {
+        Thread reader = Thread.currentThread();
+        AtomicLong lastProgressNanos = new AtomicLong(System.nanoTime());
+        AtomicBoolean stalled = new AtomicBoolean();
+        Thread watchdog = Thread.ofVirtual().name("TPSnitch-UpdateDownloadWatchdog").start(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(Math.max(100, timeout.toMillis() / 4));
+                    if (System.nanoTime() - lastProgressNanos.get() > timeout.toNanos()) {
+                        stalled.set(true);
+                        reader.interrupt();
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The download finished
+            }
+        });
+
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+                lastProgressNanos.set(System.nanoTime());
+            }
+        } catch (IOException e) {
+            if (stalled.get()) {
+                throw new HttpTimeoutException("No data received for " + timeout.toSeconds() + " seconds, the download will resume next time");
+            }
+            throw e;
+        } finally {
+            watchdog.interrupt();
+            if (stalled.get()) {
+                // Don't leave our own interrupt behind for whatever runs next on this thread
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private static String hash(Path file, String algorithm) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Replaces the running jar with the verified download, named after its version.
+     */
+    private void installUpdate(Path downloaded, String version) {
+        Path versionedJar = currentJar.resolveSibling(String.format("TPSnitch-Fabric-%s.jar", version));
+        try {
+            try {
+                Files.move(downloaded, versionedJar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(downloaded, versionedJar, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (!versionedJar.equals(currentJar)) {
+                try {
+                    Files.deleteIfExists(currentJar);
+                } catch (IOException e) {
+                    // Two copies of the mod would stop the server from starting, so back the update out
+                    Files.deleteIfExists(versionedJar);
+                    throw e;
+                }
+            }
+            Tpsnitch.LOGGER.info("Update installed successfully! File renamed to: {}", versionedJar.getFileName());
+            Tpsnitch.LOGGER.warn("Please restart your server for the update to take effect.");
+        } catch (IOException e) {
+            Tpsnitch.LOGGER.error("Failed to install update: {}", e.getMessage());
+            if (Config.Verbose) {
+                Tpsnitch.LOGGER.error("Full stack trace:", e);
+            }
+        }
+    }
+
+    /**
+     * The parts of a Modrinth version we use. Gson skips any fields we don't declare.
+     */
+    private static class ModrinthVersion {
+        @SerializedName("version_number")
+        private String versionNumber; // Compared with compareVersions
+        private List<ModrinthFile> files;
+    }
+
+    private static class ModrinthFile {
+        private String url;
+        private boolean primary;
+        // Algorithm ("sha512", "sha1") to hex digest
+        private Map<String, String> hashes;
+    }
+}
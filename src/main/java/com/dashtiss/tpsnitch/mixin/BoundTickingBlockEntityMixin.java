@@ -0,0 +1,34 @@
+package com.dashtiss.tpsnitch.mixin;
+
+import com.dashtiss.tpsnitch.HotspotProfiler;
+
+import net.minecraft.world.level.block.entity.BlockEntity;
+
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Times individual block entity ticks for the {@link HotspotProfiler}.
+ * LevelChunk.BoundTickingBlockEntity is private, so it has to be targeted by name.
+ */
+@Mixin(targets = "net.minecraft.world.level.chunk.LevelChunk$BoundTickingBlockEntity")
+public abstract class BoundTickingBlockEntityMixin {
+
+    @Shadow
+    @Final
+    private BlockEntity blockEntity;
+
+    @Inject(method = "tick", at = @At("HEAD"))
+    private void tpsnitch$beforeTick(CallbackInfo ci) {
+        HotspotProfiler.get().beginBlockEntity();
+    }
+
+    @Inject(method = "tick", at = @At("RETURN"))
+    private void tpsnitch$afterTick(CallbackInfo ci) {
+        HotspotProfiler.get().endBlockEntity(blockEntity);
+    }
+}
@@ -0,0 +1,37 @@
+package com.dashtiss.tpsnitch.mixin;
+
+import com.dashtiss.tpsnitch.ChunkMetrics;
+
+import net.minecraft.server.level.ChunkMap;
+import net.minecraft.world.level.chunk.ChunkAccess;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Times the server thread's part of chunk saves for {@link ChunkMetrics}, mostly copying the chunk
+ * before it is handed off to the I/O worker. The write itself is timed by {@link RegionFileStorageMixin}.
+ */
+@Mixin(ChunkMap.class)
+public abstract class ChunkMapMixin {
+
+    // Chunks are saved on the server thread, one at a time
+    @Unique
+    private long tpsnitch$saveStartNanos;
+
+    @Inject(method = "save(Lnet/minecraft/world/level/chunk/ChunkAccess;)Z", at = @At("HEAD"))
+    private void tpsnitch$beforeSave(ChunkAccess chunk, CallbackInfoReturnable<Boolean> cir) {
+        tpsnitch$saveStartNanos = System.nanoTime();
+    }
+
+    @Inject(method = "save(Lnet/minecraft/world/level/chunk/ChunkAccess;)Z", at = @At("RETURN"))
+    private void tpsnitch$afterSave(ChunkAccess chunk, CallbackInfoReturnable<Boolean> cir) {
+        // False means the chunk was unchanged and nothing was written
+        if (cir.getReturnValueZ()) {
+            ChunkMetrics.get().recordSaveServerThread(System.nanoTime() - tpsnitch$saveStartNanos);
+        }
+    }
+}
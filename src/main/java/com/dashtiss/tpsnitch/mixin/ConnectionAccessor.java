@@ -0,0 +1,18 @@
+package com.dashtiss.tpsnitch.mixin;
+
+import io.netty.channel.Channel;
+
+import net.minecraft.network.Connection;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * Exposes a connection's Netty channel, so {@link com.dashtiss.tpsnitch.NetworkMetrics} can name it after its player.
+ */
+@Mixin(Connection.class)
+public interface ConnectionAccessor {
+
+    @Accessor("channel")
+    Channel tpsnitch$getChannel();
+}
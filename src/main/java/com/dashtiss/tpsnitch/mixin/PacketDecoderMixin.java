@@ -0,0 +1,41 @@
+package com.dashtiss.tpsnitch.mixin;
+
+import com.dashtiss.tpsnitch.NetworkMetrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+
+import net.minecraft.network.PacketDecoder;
+import net.minecraft.network.protocol.Packet;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import java.util.List;
+
+/**
+ * Counts incoming packets and their size for {@link NetworkMetrics}. The decoder gets one
+ * length-delimited (and decompressed) frame per call, holding exactly one packet.
+ */
+@Mixin(PacketDecoder.class)
+public abstract class PacketDecoderMixin {
+
+    // Each decoder belongs to one channel and only runs on its event loop
+    @Unique
+    private int tpsnitch$frameBytes;
+
+    @Inject(method = "decode", at = @At("HEAD"))
+    private void tpsnitch$beforeDecode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out, CallbackInfo ci) {
+        tpsnitch$frameBytes = in.readableBytes();
+    }
+
+    @Inject(method = "decode", at = @At("RETURN"))
+    private void tpsnitch$afterDecode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out, CallbackInfo ci) {
+        if (!out.isEmpty() && out.getLast() instanceof Packet<?> packet) {
+            NetworkMetrics.get().recordInbound(ctx.channel(), packet, tpsnitch$frameBytes);
+        }
+    }
+}
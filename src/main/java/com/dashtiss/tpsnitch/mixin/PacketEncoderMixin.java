@@ -0,0 +1,36 @@
+package com.dashtiss.tpsnitch.mixin;
+
+import com.dashtiss.tpsnitch.NetworkMetrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+
+import net.minecraft.network.PacketEncoder;
+import net.minecraft.network.protocol.Packet;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Counts outgoing packets and their encoded size for {@link NetworkMetrics}.
+ */
+@Mixin(PacketEncoder.class)
+public abstract class PacketEncoderMixin {
+
+    // Each encoder belongs to one channel and only runs on its event loop
+    @Unique
+    private int tpsnitch$startIndex;
+
+    @Inject(method = "encode", at = @At("HEAD"))
+    private void tpsnitch$beforeEncode(ChannelHandlerContext ctx, Packet<?> packet, ByteBuf out, CallbackInfo ci) {
+        tpsnitch$startIndex = out.writerIndex();
+    }
+
+    @Inject(method = "encode", at = @At("RETURN"))
+    private void tpsnitch$afterEncode(ChannelHandlerContext ctx, Packet<?> packet, ByteBuf out, CallbackInfo ci) {
+        NetworkMetrics.get().recordOutbound(ctx.channel(), packet, out.writerIndex() - tpsnitch$startIndex);
+    }
+}
@@ -0,0 +1,45 @@
+package com.dashtiss.tpsnitch.mixin;
+
+import com.dashtiss.tpsnitch.ChunkMetrics;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.storage.RegionFileStorage;
+import net.minecraft.world.level.chunk.storage.RegionStorageInfo;
+
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Times chunk writes for {@link ChunkMetrics}: serialising a saved chunk and writing it into its
+ * region file, on the I/O worker's thread. Entity and POI storage use the same class and are skipped.
+ */
+@Mixin(RegionFileStorage.class)
+public abstract class RegionFileStorageMixin {
+
+    @Shadow
+    @Final
+    private RegionStorageInfo info;
+
+    // Each storage belongs to one I/O worker, which runs its writes one at a time
+    @Unique
+    private long tpsnitch$writeStartNanos;
+
+    @Inject(method = "write(Lnet/minecraft/world/level/ChunkPos;Lnet/minecraft/nbt/CompoundTag;)V", at = @At("HEAD"))
+    private void tpsnitch$beforeWrite(ChunkPos pos, CompoundTag tag, CallbackInfo ci) {
+        tpsnitch$writeStartNanos = System.nanoTime();
+    }
+
+    @Inject(method = "write(Lnet/minecraft/world/level/ChunkPos;Lnet/minecraft/nbt/CompoundTag;)V", at = @At("RETURN"))
+    private void tpsnitch$afterWrite(ChunkPos pos, CompoundTag tag, CallbackInfo ci) {
+        // A null tag removes the chunk from the region file instead
+        if (tag != null && "chunk".equals(info.type())) {
+            ChunkMetrics.get().recordWrite(System.nanoTime() - tpsnitch$writeStartNanos);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.dashtiss.tpsnitch.mixin;
+
+import net.minecraft.network.Connection;
+import net.minecraft.server.network.ServerCommonPacketListenerImpl;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * Exposes a player's {@link Connection}, which is protected in the packet listener.
+ */
+@Mixin(ServerCommonPacketListenerImpl.class)
+public interface ServerCommonPacketListenerImplAccessor {
+
+    @Accessor("connection")
+    Connection tpsnitch$getConnection();
+}
@@ -0,0 +1,28 @@
+package com.dashtiss.tpsnitch.mixin;
+
+import com.dashtiss.tpsnitch.HotspotProfiler;
+
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.Entity;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Times individual entity ticks for the {@link HotspotProfiler}.
+ */
+@Mixin(ServerLevel.class)
+public abstract class ServerLevelMixin {
+
+    @Inject(method = "tickNonPassenger", at = @At("HEAD"))
+    private void tpsnitch$beforeEntityTick(Entity entity, CallbackInfo ci) {
+        HotspotProfiler.get().beginEntity();
+    }
+
+    @Inject(method = "tickNonPassenger", at = @At("RETURN"))
+    private void tpsnitch$afterEntityTick(Entity entity, CallbackInfo ci) {
+        HotspotProfiler.get().endEntity((ServerLevel) (Object) this, entity);
+    }
+}
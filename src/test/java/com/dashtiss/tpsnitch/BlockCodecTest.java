@@ -0,0 +1,138 @@
+package com.dashtiss.tpsnitch;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Round trips through the block format, with values picked to hit every delta-of-delta width and
+ * both XOR cases.
+ */
+class BlockCodecTest {
+
+    // Delta-of-deltas on both sides of each width boundary (7, 9, 12, 32 and 64 bits)
+    private static final long[] DELTA_OF_DELTAS = {
+            0, 1, -1, 63, -64, 64, -65, 255, -256, 256, -257, 2047, -2048, 2048, -2049,
+            Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE + 1L, Integer.MIN_VALUE - 1L
+    };
+
+    private static final double[] DOUBLES = {
+            20.0, 20.0, 19.99, 0.0, -0.0, 0.0, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE,
+            -Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN, Double.NaN,
+            1.0, 1.0000000000000002, 12.5, 3.0e-300, 20.0
+    };
+
+    @Test
+    void singlePoint() {
+        TimeSeriesPoint point = point(1_700_000_000_000L, 20.0);
+        point.msptMaxNanos = Long.MAX_VALUE;
+        point.joins = Long.MIN_VALUE;
+        assertRoundTrip(List.of(point));
+    }
+
+    @Test
+    void deltaOfDeltaWidths() {
+        List<TimeSeriesPoint> points = new ArrayList<>();
+        long value = 0;
+        long delta = 0;
+        for (long dod : DELTA_OF_DELTAS) {
+            delta += dod;
+            value += delta;
+            TimeSeriesPoint point = point(value, 20.0);
+            point.ticks = value;
+            point.msptP99Nanos = -value;
+            points.add(point);
+        }
+        assertRoundTrip(points);
+    }
+
+    @Test
+    void longExtremes() {
+        long[] values = {0, Long.MAX_VALUE, Long.MIN_VALUE, 0, Long.MIN_VALUE, Long.MAX_VALUE, -1, 1, Long.MAX_VALUE};
+        List<TimeSeriesPoint> points = new ArrayList<>();
+        for (long value : values) {
+            // Deltas here overflow, which the encoding has to survive
+            TimeSeriesPoint point = point(value, 20.0);
+            point.msptMeanNanos = value;
+            point.leaves = ~value;
+            point.playersMin = (int) value;
+            point.playersMax = (int) (value >>> 32);
+            points.add(point);
+        }
+        assertRoundTrip(points);
+    }
+
+    @Test
+    void doubleEdgeValues() {
+        List<TimeSeriesPoint> points = new ArrayList<>();
+        for (int i = 0; i < DOUBLES.length; i++) {
+            TimeSeriesPoint point = point(i * 30_000L, DOUBLES[i]);
+            // Runs the same values backwards in another column so the XOR windows differ
+            point.playersAvg = DOUBLES[DOUBLES.length - 1 - i];
+            points.add(point);
+        }
+        assertRoundTrip(points);
+    }
+
+    @Test
+    void steadySamplesStaySmall() {
+        List<TimeSeriesPoint> points = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            TimeSeriesPoint point = point(1_700_000_000_000L + i * 30_000L, 20.0);
+            point.ticks = 600;
+            points.add(point);
+        }
+        byte[] payload = assertRoundTrip(points);
+        // 18 columns with a 64-bit first value and one bit for every unchanged value after it,
+        // except the first timestamp delta, which takes a 5-bit prefix and 32 bits
+        int bits = 18 * (64 + 63) - 1 + 5 + 32;
+        assertEquals((bits + 7) / 8, payload.length);
+    }
+
+    private static TimeSeriesPoint point(long timestampMillis, double tps) {
+        TimeSeriesPoint point = new TimeSeriesPoint();
+        point.timestampMillis = timestampMillis;
+        point.intervals = 1;
+        point.tpsMin = tps;
+        point.tpsAvg = tps;
+        point.tpsMax = tps;
+        point.playersAvg = tps;
+        return point;
+    }
+
+    private static byte[] assertRoundTrip(List<TimeSeriesPoint> points) {
+        byte[] payload = BlockCodec.encode(points);
+        List<TimeSeriesPoint> decoded = BlockCodec.decode(ByteBuffer.wrap(payload), points.size());
+        assertEquals(points.size(), decoded.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertSamePoint(points.get(i), decoded.get(i));
+        }
+        return payload;
+    }
+
+    static void assertSamePoint(TimeSeriesPoint expected, TimeSeriesPoint actual) {
+        assertEquals(expected.timestampMillis, actual.timestampMillis);
+        assertEquals(expected.intervals, actual.intervals);
+        assertEquals(expected.ticks, actual.ticks);
+        assertEquals(expected.ticksOver50ms, actual.ticksOver50ms);
+        assertEquals(expected.msptMeanNanos, actual.msptMeanNanos);
+        assertEquals(expected.msptP50Nanos, actual.msptP50Nanos);
+        assertEquals(expected.msptP90Nanos, actual.msptP90Nanos);
+        assertEquals(expected.msptP99Nanos, actual.msptP99Nanos);
+        assertEquals(expected.msptP999Nanos, actual.msptP999Nanos);
+        assertEquals(expected.msptMaxNanos, actual.msptMaxNanos);
+        assertEquals(expected.playersMin, actual.playersMin);
+        assertEquals(expected.playersMax, actual.playersMax);
+        assertEquals(expected.joins, actual.joins);
+        assertEquals(expected.leaves, actual.leaves);
+        // Compared bit for bit so -0.0 and NaN payloads count
+        assertEquals(Double.doubleToRawLongBits(expected.tpsMin), Double.doubleToRawLongBits(actual.tpsMin));
+        assertEquals(Double.doubleToRawLongBits(expected.tpsAvg), Double.doubleToRawLongBits(actual.tpsAvg));
+        assertEquals(Double.doubleToRawLongBits(expected.tpsMax), Double.doubleToRawLongBits(actual.tpsMax));
+        assertEquals(Double.doubleToRawLongBits(expected.playersAvg), Double.doubleToRawLongBits(actual.playersAvg));
+    }
+}
@@ -0,0 +1,159 @@
+package com.dashtiss.tpsnitch;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Constructor;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the analyzer the way it runs from the mod jar: with only the mod's classes and Gson, and
+ * without {@link Config} (MidnightLib is only bundled jar-in-jar) or {@link Tpsnitch} (needs Fabric).
+ */
+class LogAnalyzerTest {
+
+    private static final long INTERVAL_MILLIS = 30_000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsEveryFormatWithoutTheMod() throws Exception {
+        long start = System.currentTimeMillis() / 1000 * 1000 - 6 * 3_600_000L;
+
+        Path jsonLog = directory.resolve("json").resolve("TPSLogs.json");
+        FileHandler.saveFile(samples(start, 50), jsonLog.toString());
+
+        Path segmentLogPath = directory.resolve("ndjson").resolve("TPSLogs.json");
+        SegmentLog segmentLog = new SegmentLog(segmentLogPath.toString());
+        segmentLog.write(samples(start, 60));
+        segmentLog.close();
+
+        TimeSeriesStore store = new TimeSeriesStore(directory.resolve("tsdb").resolve("TPSLogs.json").toString());
+        store.write(samples(start, 70));
+        store.close();
+
+        String report = analyze(List.of(
+                "json=" + jsonLog,
+                "ndjson=" + SegmentLog.segmentDirectory(segmentLogPath),
+                "tsdb=" + store.getDirectory()));
+
+        assertTrue(report.contains("3 server(s), 180 intervals"), report);
+        assertEquals(50, intervals(report, "json"));
+        assertEquals(60, intervals(report, "ndjson"));
+        assertEquals(70, intervals(report, "tsdb"));
+    }
+
+    @Test
+    void exportsSegmentsAsOneJsonLog() throws Exception {
+        long start = System.currentTimeMillis() / 1000 * 1000 - 6 * 3_600_000L;
+        Path segmentLogPath = directory.resolve("ndjson").resolve("TPSLogs.json");
+        SegmentLog segmentLog = new SegmentLog(segmentLogPath.toString());
+        List<StatsSample> written = samples(start, 60);
+        segmentLog.write(written);
+        segmentLog.close();
+
+        Path exported = directory.resolve("export.json");
+        try (URLClassLoader loader = isolatedLoader()) {
+            Class<?> analyzer = loader.loadClass(LogAnalyzer.class.getName());
+            Class<?> source = loader.loadClass(LogAnalyzer.Source.class.getName());
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            Class<Enum> tier = (Class<Enum>) loader.loadClass(TimeSeriesStore.Tier.class.getName());
+            @SuppressWarnings("unchecked")
+            Object raw = Enum.valueOf(tier, "RAW");
+            // The configured log path, as a server owner would pass it; the segments next to it are found
+            Object server = source.getConstructor(String.class, Path.class).newInstance("ndjson", segmentLogPath);
+            long entries = (long) analyzer.getMethod("export", source, tier, Path.class)
+                    .invoke(null, server, raw, exported);
+            assertEquals(60, entries);
+        }
+
+        List<StatsSample> read = FileHandler.readLegacyFile(exported.toString());
+        assertEquals(written.size(), read.size());
+        for (int i = 0; i < read.size(); i++) {
+            assertEquals(written.get(i).timestampMillis, read.get(i).timestampMillis);
+            assertEquals(written.get(i).tps, read.get(i).tps);
+            assertEquals(written.get(i).msptMaxNanos, read.get(i).msptMaxNanos);
+        }
+        assertEquals(60, intervals(analyze(List.of("exported=" + exported)), "exported"));
+    }
+
+    private static List<StatsSample> samples(long start, int count) {
+        List<StatsSample> samples = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StatsSample sample = new StatsSample();
+            sample.timestampMillis = start + i * INTERVAL_MILLIS;
+            sample.tps = i % 10 == 0 ? 15.0 : 20.0;
+            sample.mspt = 12;
+            sample.players = 4;
+            sample.tickCount = 600;
+            sample.msptMeanNanos = 12_000_000L;
+            sample.msptMaxNanos = 70_000_000L;
+            samples.add(sample);
+        }
+        return samples;
+    }
+
+    /**
+     * Loads the analyzer in a class loader that only sees the mod's classes (minus Config and
+     * Tpsnitch), Gson and the JDK, and returns its report.
+     */
+    private static String analyze(List<String> arguments) throws Exception {
+        try (URLClassLoader loader = isolatedLoader()) {
+            Class<?> analyzer = loader.loadClass(LogAnalyzer.class.getName());
+            Class<?> source = loader.loadClass(LogAnalyzer.Source.class.getName());
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            Class<Enum> tier = (Class<Enum>) loader.loadClass(TimeSeriesStore.Tier.class.getName());
+
+            List<Object> sources = new ArrayList<>();
+            for (String argument : arguments) {
+                int equals = argument.indexOf('=');
+                sources.add(source.getConstructor(String.class, Path.class)
+                        .newInstance(argument.substring(0, equals), Path.of(argument.substring(equals + 1))));
+            }
+            @SuppressWarnings("unchecked")
+            Object raw = Enum.valueOf(tier, "RAW");
+            Constructor<?> constructor = analyzer.getConstructor(List.class, long.class, int.class, Path.class, tier);
+            Object instance = constructor.newInstance(sources, 60_000L, 5, null, raw);
+
+            StringBuilder report = new StringBuilder();
+            boolean complete = (boolean) analyzer.getMethod("run", Appendable.class).invoke(instance, report);
+            assertTrue(complete, report.toString());
+            return report.toString();
+        }
+    }
+
+    private static URLClassLoader isolatedLoader() {
+        URL[] classpath = {
+                LogAnalyzer.class.getProtectionDomain().getCodeSource().getLocation(),
+                Gson.class.getProtectionDomain().getCodeSource().getLocation()
+        };
+        return new URLClassLoader(classpath, ClassLoader.getPlatformClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (name.equals("com.dashtiss.tpsnitch.Config") || name.equals("com.dashtiss.tpsnitch.Tpsnitch")) {
+                    throw new ClassNotFoundException(name + " isn't available outside the server");
+                }
+                return super.loadClass(name, resolve);
+            }
+        };
+    }
+
+    private static long intervals(String report, String server) {
+        for (String line : report.split("\n")) {
+            String[] columns = line.trim().split("\\s+");
+            if (columns.length > 1 && columns[0].equals(server)) {
+                return Long.parseLong(columns[1]);
+            }
+        }
+        throw new AssertionError("No row for " + server + " in:\n" + report);
+    }
+}
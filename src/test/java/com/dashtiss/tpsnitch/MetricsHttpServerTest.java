@@ -0,0 +1,152 @@
+package com.dashtiss.tpsnitch;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Scrapes the endpoint over loopback the way Prometheus would, with known values published.
+ */
+class MetricsHttpServerTest {
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private MetricsHttpServer server;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        LiveMetrics metrics = new LiveMetrics();
+        metrics.publishTick(1_745_442_000_000L, 1234, 19.5, 19.9, 19.95, 19.99, 51_282_051L, 48_000_000L, 7,
+                120_000L, 1, 3, 2, 4, 5);
+        StatsSample interval = new StatsSample();
+        interval.tickCount = 600;
+        interval.ticksOver50ms = 12;
+        interval.msptMeanNanos = 40_000_000L;
+        interval.msptP50Nanos = 38_000_000L;
+        interval.msptP90Nanos = 45_000_000L;
+        interval.msptP99Nanos = 60_000_000L;
+        interval.msptP999Nanos = 80_000_000L;
+        interval.msptMaxNanos = 95_000_000L;
+        interval.overheadMeanNanos = 100_000L;
+        metrics.publishInterval(interval);
+        metrics.publishPlayers(10, 3, 7, 40, 120, 250);
+
+        SamplingScheduler scheduler = new SamplingScheduler();
+        scheduler.register("players", () -> 1, false, minecraftServer -> {
+        });
+        // Collectors don't get the server here, and this one doesn't need it
+        scheduler.tick(null);
+
+        server = new MetricsHttpServer(metrics, scheduler);
+        server.start("127.0.0.1", 0);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    void servesPrometheusText() throws Exception {
+        HttpResponse<String> response = get("/metrics");
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain; version=0.0.4"));
+
+        Map<String, Double> samples = new HashMap<>();
+        Map<String, String> types = new HashMap<>();
+        for (String line : response.body().split("\n")) {
+            if (line.startsWith("# TYPE ")) {
+                String[] parts = line.split(" ");
+                assertEquals(4, parts.length, line);
+                assertTrue(Set.of("gauge", "counter", "summary").contains(parts[3]), line);
+                types.put(parts[2], parts[3]);
+                continue;
+            }
+            if (line.startsWith("#")) {
+                continue;
+            }
+            int space = line.lastIndexOf(' ');
+            String name = line.substring(0, space);
+            samples.put(name, Double.parseDouble(line.substring(space + 1)));
+            // Every sample belongs to a family declared before it; only summaries add _sum and _count
+            String family = name.replaceAll("\\{.*}$", "");
+            if (!types.containsKey(family)) {
+                family = family.replaceAll("_(sum|count)$", "");
+                assertEquals("summary", types.get(family), "No TYPE before " + line);
+            }
+        }
+
+        assertEquals(19.5, samples.get("tpsnitch_tps"), 1e-9);
+        assertEquals(19.95, samples.get("tpsnitch_tps_rolling{window=\"5m\"}"), 1e-9);
+        assertEquals(7.0, samples.get("tpsnitch_players"), 1e-9);
+        assertEquals(0.06, samples.get("tpsnitch_tick_interval_seconds{quantile=\"0.99\"}"), 1e-9);
+        assertEquals(0.095, samples.get("tpsnitch_tick_interval_seconds{quantile=\"1\"}"), 1e-9);
+        // 600 ticks at a mean of 40 ms
+        assertEquals(24.0, samples.get("tpsnitch_tick_interval_seconds_sum"), 1e-9);
+        assertEquals(600.0, samples.get("tpsnitch_tick_interval_seconds_count"), 1e-9);
+        assertEquals(0.06, samples.get("tpsnitch_interval_overhead_seconds_sum"), 1e-9);
+        assertEquals(600.0, samples.get("tpsnitch_interval_overhead_seconds_count"), 1e-9);
+        assertEquals(10.0, samples.get("tpsnitch_player_joins_total"), 1e-9);
+        assertEquals(2.0, samples.get("tpsnitch_writer_dropped_total"), 1e-9);
+        assertEquals(4.0, samples.get("tpsnitch_lag_reports_written_total"), 1e-9);
+        assertEquals(5.0, samples.get("tpsnitch_lag_captures_skipped_total"), 1e-9);
+        assertEquals(1.0, samples.get("tpsnitch_collector_runs_total{collector=\"players\"}"), 1e-9);
+    }
+
+    @Test
+    void servesJson() throws Exception {
+        HttpResponse<String> response = get("/metrics.json");
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("application/json"));
+
+        JsonObject json = JsonParser.parseString(response.body()).getAsJsonObject();
+        assertEquals("2025-04-23T21:00:00Z", json.get("timestamp").getAsString());
+        assertEquals(1234, json.get("tickNumber").getAsLong());
+        assertEquals(19.5, json.get("tps").getAsDouble(), 1e-9);
+        JsonObject interval = json.getAsJsonObject("interval");
+        assertEquals(600, interval.get("tickCount").getAsLong());
+        assertEquals(60_000_000L, interval.getAsJsonObject("msptNanos").get("p99").getAsLong());
+        assertEquals(250, json.getAsJsonObject("players").getAsJsonObject("pingMillis").get("max").getAsLong());
+        assertEquals(2, json.getAsJsonObject("writer").get("dropped").getAsLong());
+        assertEquals(4, json.getAsJsonObject("lagWatchdog").get("reportsWritten").getAsLong());
+        assertEquals("players", json.getAsJsonArray("collectors").get(0).getAsJsonObject().get("name").getAsString());
+    }
+
+    @Test
+    void onlyAnswersGetAndHead() throws Exception {
+        for (String path : new String[]{"/metrics", "/metrics.json"}) {
+            HttpResponse<String> post = client.send(request(path).POST(HttpRequest.BodyPublishers.ofString("x")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(405, post.statusCode(), "POST " + path);
+            HttpResponse<String> delete = client.send(request(path).DELETE().build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(405, delete.statusCode(), "DELETE " + path);
+
+            HttpResponse<String> head = client.send(request(path).method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, head.statusCode(), "HEAD " + path);
+            assertNotNull(head.headers().firstValue("Content-Type").orElse(null));
+            assertEquals("", head.body());
+        }
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return client.send(request(path).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + path));
+    }
+}
@@ -0,0 +1,118 @@
+package com.dashtiss.tpsnitch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tick n is recorded with timestamp, duration and player count n, so any tick a reader returns can
+ * be checked against its neighbours.
+ */
+class TickHistoryTest {
+
+    @Test
+    void readsAfterWrappingAround() {
+        TickHistory history = new TickHistory(10);
+        for (int i = 0; i < 25; i++) {
+            history.record(i, i, i);
+        }
+        assertEquals(10, history.size());
+
+        TickHistory.WindowStats last = history.lastStats(4);
+        assertEquals(4, last.count());
+        assertEquals(21, last.fromMillis());
+        assertEquals(24, last.maxNanos());
+
+        TickHistory.WindowStats range = history.rangeStats(0, 17);
+        assertEquals(3, range.count());
+        assertEquals(15, range.minNanos());
+        assertEquals(17, range.toMillis());
+
+        long[] timestamps = new long[20];
+        int[] players = new int[20];
+        assertEquals(6, history.copyRange(19, 100, timestamps, null, players));
+        assertEquals(19, timestamps[0]);
+        assertEquals(24, players[5]);
+    }
+
+    @Test
+    void rangesSurviveTheClockSteppingBack() {
+        TickHistory history = new TickHistory(100);
+        // Ten ticks ending at 1000 to 1009, then the wall clock is set back 20 ms
+        for (int i = 0; i < 10; i++) {
+            history.record(1000 + i, 1 + i, 1);
+        }
+        for (int i = 0; i < 10; i++) {
+            history.record(990 + i, 11 + i, 2);
+        }
+
+        // 1000 to 1005 from before the step, 995 to 999 from after it
+        TickHistory.WindowStats range = history.rangeStats(995, 1005);
+        assertEquals(11, range.count());
+        assertEquals(1, range.minNanos());
+        assertEquals(20, range.maxNanos());
+        assertEquals(1000, range.fromMillis());
+        assertEquals(999, range.toMillis());
+        assertEquals(1, range.minPlayers());
+        assertEquals(2, range.maxPlayers());
+
+        long[] timestamps = new long[20];
+        long[] durations = new long[20];
+        assertEquals(11, history.copyRange(995, 1005, timestamps, durations, null));
+        assertEquals(1000, timestamps[0]);
+        assertEquals(1005, timestamps[5]);
+        assertEquals(995, timestamps[6]);
+        assertEquals(20, durations[10]);
+
+        // Short on room: the most recently recorded ticks win
+        long[] newest = new long[3];
+        assertEquals(3, history.copyRange(995, 1005, newest, null, null));
+        assertEquals(997, newest[0]);
+        assertEquals(999, newest[2]);
+    }
+
+    @Test
+    void readersOnlySeeConsistentTicksWhileLapped() throws InterruptedException {
+        // Small enough that the writer laps readers all the time
+        TickHistory history = new TickHistory(16);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = Thread.ofPlatform().start(() -> {
+            for (int i = 0; running.get(); i++) {
+                history.record(i, i, i);
+            }
+        });
+        try {
+            long[] timestamps = new long[16];
+            long[] durations = new long[16];
+            long deadline = System.nanoTime() + 200_000_000L;
+            while (System.nanoTime() < deadline) {
+                assertConsistent(history.lastStats(16));
+                assertConsistent(history.rangeStats(0, Long.MAX_VALUE));
+
+                int copied = history.copyRange(0, Long.MAX_VALUE, timestamps, durations, null);
+                for (int i = 0; i < copied; i++) {
+                    assertEquals(timestamps[0] + i, timestamps[i]);
+                    assertEquals(timestamps[i], durations[i]);
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    private static void assertConsistent(TickHistory.WindowStats stats) {
+        if (stats.count() == 0) {
+            return;
+        }
+        assertTrue(stats.count() <= 16, "count " + stats.count());
+        // Ticks from one run of consecutive sequences, none left over from an earlier lap
+        assertEquals(stats.fromMillis(), stats.minNanos());
+        assertEquals(stats.toMillis(), stats.maxNanos());
+        assertEquals(stats.count() - 1, stats.toMillis() - stats.fromMillis());
+        assertEquals((stats.fromMillis() + stats.toMillis()) / 2, stats.avgNanos());
+    }
+}
@@ -0,0 +1,181 @@
+package com.dashtiss.tpsnitch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Writes stores the way the server does, stops without closing them as a crash would, and checks
+ * what a restarted writer and a read-only reader see.
+ */
+class TimeSeriesStoreTest {
+
+    private static final long HOUR_MILLIS = 3_600_000L;
+    private static final long INTERVAL_MILLIS = 30_000L;
+
+    // A few hours back, on an hour boundary, so every sample is inside the retention windows
+    private final long start = Math.floorDiv(System.currentTimeMillis(), HOUR_MILLIS) * HOUR_MILLIS - 3 * HOUR_MILLIS;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void reopenRecoversOpenBlock() {
+        // 200 points are three full raw blocks plus 8 in the open block
+        crashAfter(0, 200);
+
+        TimeSeriesStore reopened = new TimeSeriesStore(logFile());
+        List<TimeSeriesPoint> raw = reopened.query(TimeSeriesStore.Tier.RAW, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(200, raw.size());
+        for (int i = 0; i < raw.size(); i++) {
+            TimeSeriesPoint expected = TimeSeriesPoint.fromSample(sample(i));
+            BlockCodecTest.assertSamePoint(expected, raw.get(i));
+        }
+        reopened.close();
+    }
+
+    @Test
+    void reopenRecoversRollups() {
+        crashAfter(0, 200);
+
+        // The minute and hour buckets in progress at the crash only existed in memory
+        TimeSeriesStore reopened = new TimeSeriesStore(logFile());
+        List<TimeSeriesPoint> minutes = reopened.query(TimeSeriesStore.Tier.MINUTE, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(100, minutes.size());
+        for (int i = 0; i < minutes.size(); i++) {
+            assertEquals(start + i * 60_000L, minutes.get(i).timestampMillis);
+            assertEquals(2, minutes.get(i).intervals);
+        }
+
+        // Carry on after the restart; every interval should end up in every tier exactly once
+        List<StatsSample> more = new ArrayList<>();
+        for (int i = 200; i < 240; i++) {
+            more.add(sample(i));
+        }
+        reopened.write(more);
+        reopened.close();
+
+        TimeSeriesStore closed = new TimeSeriesStore(logFile());
+        List<TimeSeriesPoint> hours = closed.query(TimeSeriesStore.Tier.HOUR, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(2, hours.size());
+        assertEquals(start, hours.get(0).timestampMillis);
+        assertEquals(120, hours.get(0).intervals);
+        assertEquals(120, hours.get(1).intervals);
+        assertEquals(240 * 600, hours.get(0).ticks + hours.get(1).ticks);
+        assertEquals(240, totalIntervals(closed.query(TimeSeriesStore.Tier.DAY, Long.MIN_VALUE, Long.MAX_VALUE)));
+        closed.close();
+    }
+
+    @Test
+    void readOnlyMatchesWriterAndLeavesFilesAlone() throws IOException {
+        TimeSeriesStore live = crashAfter(0, 200);
+        Path storeDirectory = live.getDirectory();
+        // A block the server was still writing when we looked
+        Path partition;
+        try (Stream<Path> files = Files.list(storeDirectory.resolve("raw"))) {
+            partition = files.filter(path -> path.toString().endsWith(".tsdb")).findFirst().orElseThrow();
+        }
+        Files.write(partition, ByteBuffer.allocate(40).putInt(64).putInt(1000).array(), StandardOpenOption.APPEND);
+        Map<Path, byte[]> before = contents(storeDirectory);
+
+        TimeSeriesStore reader = TimeSeriesStore.readOnly(storeDirectory);
+        List<TimeSeriesPoint> raw = new ArrayList<>();
+        reader.forEach(TimeSeriesStore.Tier.RAW, Long.MIN_VALUE, Long.MAX_VALUE, raw::add);
+        assertEquals(200, raw.size());
+        for (int i = 0; i < raw.size(); i++) {
+            BlockCodecTest.assertSamePoint(TimeSeriesPoint.fromSample(sample(i)), raw.get(i));
+        }
+
+        List<TimeSeriesPoint> minutes = new ArrayList<>();
+        reader.forEach(TimeSeriesStore.Tier.MINUTE, Long.MIN_VALUE, Long.MAX_VALUE, minutes::add);
+        assertEquals(100, minutes.size());
+        assertEquals(200, totalIntervals(minutes));
+
+        List<TimeSeriesPoint> range = new ArrayList<>();
+        reader.forEach(TimeSeriesStore.Tier.RAW, start + 10 * INTERVAL_MILLIS, start + 19 * INTERVAL_MILLIS, range::add);
+        assertEquals(10, range.size());
+        reader.close();
+
+        assertThrows(UnsupportedOperationException.class, () -> reader.write(List.of(sample(200))));
+        Map<Path, byte[]> after = contents(storeDirectory);
+        assertEquals(before.keySet(), after.keySet());
+        for (Map.Entry<Path, byte[]> file : before.entrySet()) {
+            assertArrayEquals(file.getValue(), after.get(file.getKey()), file.getKey().toString());
+        }
+    }
+
+    @Test
+    void readOnlyNeedsAnExistingStore() {
+        TimeSeriesStore reader = TimeSeriesStore.readOnly(directory.resolve("missing-tsdb"));
+        assertThrows(IOException.class, () -> reader.forEach(TimeSeriesStore.Tier.RAW, 0, Long.MAX_VALUE, point -> {
+        }));
+        assertEquals(false, Files.exists(directory.resolve("missing-tsdb")));
+    }
+
+    private String logFile() {
+        return directory.resolve("TPSLogs.json").toString();
+    }
+
+    /**
+     * Writes samples {@code from} until {@code to} in a few batches and returns the store without closing it.
+     */
+    private TimeSeriesStore crashAfter(int from, int to) {
+        TimeSeriesStore store = new TimeSeriesStore(logFile());
+        List<StatsSample> batch = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            batch.add(sample(i));
+            if (batch.size() == 32) {
+                store.write(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        store.write(batch);
+        return store;
+    }
+
+    private StatsSample sample(int i) {
+        StatsSample sample = new StatsSample();
+        sample.timestampMillis = start + i * INTERVAL_MILLIS;
+        sample.tps = i % 7 == 0 ? 19.5 : 20.0;
+        sample.players = i % 5;
+        sample.peakPlayers = i % 5 + 1;
+        sample.joins = i % 3;
+        sample.tickCount = 600;
+        sample.ticksOver50ms = i % 11 == 0 ? 2 : 0;
+        sample.msptMeanNanos = 12_000_000L + i * 1_000L;
+        sample.msptP50Nanos = 11_000_000L;
+        sample.msptP90Nanos = 15_000_000L + i;
+        sample.msptP99Nanos = 30_000_000L;
+        sample.msptP999Nanos = 45_000_000L;
+        sample.msptMaxNanos = 48_000_000L + i * 10_000L;
+        return sample;
+    }
+
+    private static long totalIntervals(List<TimeSeriesPoint> points) {
+        return points.stream().mapToLong(point -> point.intervals).sum();
+    }
+
+    private static Map<Path, byte[]> contents(Path directory) throws IOException {
+        Map<Path, byte[]> contents = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                contents.put(directory.relativize(file), Files.readAllBytes(file));
+            }
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,98 @@
+package com.dashtiss.tpsnitch;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.OptionalLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the hand-written formatter against {@link DateTimeFormatter#ISO_INSTANT} across every year
+ * it handles itself, and that everything it writes parses back.
+ */
+class TimestampsTest {
+
+    private static final long DAY_SECONDS = 86_400L;
+
+    @Test
+    void formatMatchesIsoInstantForEveryFourDigitYear() {
+        for (int year = 0; year <= 9999; year++) {
+            long yearStart = LocalDate.of(year, 1, 1).toEpochDay() * DAY_SECONDS;
+            long nextYearStart = LocalDate.of(year + 1, 1, 1).toEpochDay() * DAY_SECONDS;
+            long marchFirst = LocalDate.of(year, 3, 1).toEpochDay() * DAY_SECONDS;
+            long[] seconds = {
+                    yearStart,
+                    yearStart + 1,
+                    // Both sides of the end of February, where leap years differ
+                    marchFirst - 1,
+                    marchFirst,
+                    // Somewhere inside the year, different for every year
+                    yearStart + (year * 7_919L + 12_345L) % (nextYearStart - yearStart),
+                    nextYearStart - 1
+            };
+            for (long second : seconds) {
+                assertFormatsAndParses(second);
+            }
+        }
+    }
+
+    @Test
+    void formatFallsBackOutsideFourDigitYears() {
+        assertFormatsAndParses(LocalDate.of(-1, 12, 31).toEpochDay() * DAY_SECONDS + DAY_SECONDS - 1);
+        assertFormatsAndParses(LocalDate.of(10_000, 1, 1).toEpochDay() * DAY_SECONDS);
+        assertFormatsAndParses(LocalDate.of(123_456, 6, 15).toEpochDay() * DAY_SECONDS + 3_723);
+    }
+
+    @Test
+    void formatDropsMilliseconds() {
+        assertEquals("1969-12-31T23:59:59Z", Timestamps.format(-1));
+        assertEquals("1970-01-01T00:00:00Z", Timestamps.format(999));
+        assertEquals("2025-04-23T21:00:00Z", Timestamps.format(1_745_442_000_999L));
+    }
+
+    @Test
+    void parseDistinguishesFailureFromEveryValue() {
+        // -1 used to mean "unreadable"; it's a real instant
+        assertEquals(OptionalLong.of(-1), Timestamps.parse("1969-12-31T23:59:59.999Z"));
+        assertEquals(OptionalLong.of(0), Timestamps.parse("1970-01-01T00:00:00Z"));
+        assertEquals(OptionalLong.of(1_745_442_000_000L), Timestamps.parse("2025-04-23T23:00:00+02:00"));
+
+        long legacy = LocalDateTime.of(2025, 4, 23, 21, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        assertEquals(OptionalLong.of(legacy), Timestamps.parse("2025-04-23 21:00:00"));
+
+        assertTrue(Timestamps.parse(null).isEmpty());
+        assertTrue(Timestamps.parse("").isEmpty());
+        assertTrue(Timestamps.parse("yesterday").isEmpty());
+        assertTrue(Timestamps.parse("2025-02-30T00:00:00Z").isEmpty());
+        assertTrue(Timestamps.parse("+999999999-12-31T23:59:59Z").isEmpty());
+    }
+
+    @Test
+    void unreadableTimestampIsNotAValue() {
+        JsonObject object = new JsonObject();
+        object.addProperty("timestamp", "not a time");
+        object.addProperty("tps", 20.0);
+        assertThrows(JsonParseException.class, () -> FileHandler.fromJsonObject(object));
+        assertNull(SegmentLog.decodeLine(object.toString()));
+
+        object.addProperty("timestamp", "1969-12-31T23:59:59Z");
+        assertEquals(-1_000L, FileHandler.fromJsonObject(object).timestampMillis);
+    }
+
+    private static void assertFormatsAndParses(long epochSecond) {
+        String expected = DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(epochSecond));
+        String formatted = Timestamps.format(epochSecond * 1000L);
+        assertEquals(expected, formatted);
+        assertEquals(OptionalLong.of(epochSecond * 1000L), Timestamps.parse(formatted), formatted);
+    }
+}
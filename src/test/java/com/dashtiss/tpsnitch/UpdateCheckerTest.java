@@ -0,0 +1,295 @@
+package com.dashtiss.tpsnitch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Version comparison, plus the whole check and install against a stub Modrinth on a local port:
+ * the cached version list, resumed downloads, hash checks and a download that stalls.
+ */
+class UpdateCheckerTest {
+
+    private static final String VERSIONS_PATH = "/project/R6W27fZZ/version";
+    private static final String FILE_PATH = "/download/TPSnitch-Fabric-99.0.0.jar";
+    private static final String ETAG = "\"versions-1\"";
+    private static final Duration TIMEOUT = Duration.ofSeconds(1);
+
+    @TempDir
+    Path directory;
+
+    private final byte[] update = new byte[300_000];
+    private String listedHash;
+    private volatile HttpHandler fileHandler = this::serveWithRanges;
+
+    // What the stub was sent, "null" for a missing header
+    private final List<String> ifNoneMatchHeaders = new CopyOnWriteArrayList<>();
+    private final List<String> rangeHeaders = new CopyOnWriteArrayList<>();
+
+    // Holds back the rest of a stalled download until the test is done with it
+    private final CountDownLatch releaseStall = new CountDownLatch(1);
+
+    private HttpServer server;
+    private Path currentJar;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        new Random(42).nextBytes(update);
+        listedHash = sha512(update);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        // A stalled download must not hold up the version list
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext(VERSIONS_PATH, this::serveVersions);
+        server.createContext(FILE_PATH, exchange -> {
+            rangeHeaders.add(String.valueOf(exchange.getRequestHeaders().getFirst("Range")));
+            fileHandler.handle(exchange);
+        });
+        server.start();
+
+        currentJar = directory.resolve("mods").resolve("TPSnitch-Fabric-1.0.0.jar");
+        Files.createDirectories(currentJar.getParent());
+        Files.write(currentJar, "old".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void stopStub() {
+        releaseStall.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    void comparesPartsAsNumbers() {
+        assertNewer("1.10.0", "1.9.0");
+        assertNewer("1.3.10", "1.3.4");
+        assertNewer("2.0", "1.99.99");
+        assertNewer("1.3.4.1", "1.3.4");
+    }
+
+    @Test
+    void sameVersionIsNotNewer() {
+        assertEquals(0, UpdateChecker.compareVersions("1.3.4", "1.3.4"));
+        assertEquals(0, UpdateChecker.compareVersions("1.3", "1.3.0"));
+        assertEquals(0, UpdateChecker.compareVersions("v1.3.4", "1.3.4"));
+        assertEquals(0, UpdateChecker.compareVersions("1.3.4+1.21.5", "1.3.4+1.21.4"));
+    }
+
+    @Test
+    void preReleasesComeBeforeTheRelease() {
+        assertNewer("1.4.0", "1.4.0-beta.2");
+        assertNewer("1.4.0-beta.2", "1.4.0-beta.1");
+        assertNewer("1.4.0-beta.10", "1.4.0-beta.9");
+        assertNewer("1.4.0-rc.1", "1.4.0-beta.3");
+        assertNewer("1.4.0-beta.1", "1.3.9");
+    }
+
+    @Test
+    void unchangedVersionListComesFromTheCache() throws Exception {
+        checker(false).check();
+        // The stub answers this one with an empty 304, so the check only passes if the cached list is used
+        checker(false).check();
+
+        assertEquals(List.of("null", ETAG), ifNoneMatchHeaders);
+        assertTrue(rangeHeaders.isEmpty(), "Only checking, nothing should be downloaded");
+        assertArrayEquals("old".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(currentJar));
+    }
+
+    @Test
+    void installsAVerifiedDownload() throws Exception {
+        checker(true).check();
+
+        assertEquals(List.of("null"), rangeHeaders);
+        assertInstalled();
+    }
+
+    @Test
+    void resumesAPartialDownload() throws Exception {
+        Files.write(part(), Arrays.copyOf(update, 100_000));
+
+        checker(true).check();
+
+        assertEquals(List.of("bytes=100000-"), rangeHeaders);
+        assertInstalled();
+    }
+
+    @Test
+    void startsOverWhenTheServerIgnoresTheRange() throws Exception {
+        // Not a prefix of the update, so appending to it would fail the hash check
+        Files.write(part(), new byte[100_000]);
+        fileHandler = exchange -> send(exchange, 200, 0);
+
+        checker(true).check();
+
+        assertEquals(List.of("bytes=100000-"), rangeHeaders);
+        assertInstalled();
+    }
+
+    @Test
+    void keepsACompletePartOn416() throws Exception {
+        Files.write(part(), update);
+
+        checker(true).check();
+
+        assertEquals(List.of("bytes=" + update.length + "-"), rangeHeaders);
+        assertInstalled();
+    }
+
+    @Test
+    void discardsARangeItDidNotAskFor() throws Exception {
+        Files.write(part(), Arrays.copyOf(update, 100_000));
+        fileHandler = exchange -> {
+            exchange.getResponseHeaders().set("Content-Range", "bytes 50000-" + (update.length - 1) + "/" + update.length);
+            send(exchange, 206, 50_000);
+        };
+
+        assertThrows(IOException.class, () -> checker(true).check());
+
+        assertFalse(Files.exists(part()), "A part that may be wrong should be started over");
+        assertArrayEquals("old".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(currentJar));
+    }
+
+    @Test
+    void deletesADownloadThatDoesNotMatchItsHash() throws Exception {
+        listedHash = sha512("something else".getBytes(StandardCharsets.UTF_8));
+
+        checker(true).check();
+
+        assertFalse(Files.exists(part()), "The unverified download should be deleted");
+        assertFalse(Files.exists(newJar()), "The unverified download must not be installed");
+        assertArrayEquals("old".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(currentJar));
+    }
+
+    @Test
+    void abandonsAStalledDownloadAndResumesIt() throws Exception {
+        fileHandler = exchange -> {
+            exchange.sendResponseHeaders(200, update.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(update, 0, 50_000);
+            out.flush();
+            try {
+                releaseStall.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        };
+
+        long start = System.nanoTime();
+        assertThrows(HttpTimeoutException.class, () -> checker(true).check());
+        long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(tookMillis < 5_000, "Gave up after " + tookMillis + " ms, the timeout is " + TIMEOUT.toMillis() + " ms");
+        assertFalse(Thread.currentThread().isInterrupted(), "The watchdog's interrupt should be cleared");
+        assertEquals(50_000, Files.size(part()));
+        assertFalse(Files.exists(newJar()));
+
+        fileHandler = this::serveWithRanges;
+        checker(true).check();
+
+        assertEquals(List.of("null", "bytes=50000-"), rangeHeaders);
+        assertInstalled();
+    }
+
+    private UpdateChecker checker(boolean install) {
+        String apiBaseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        return new UpdateChecker(apiBaseUrl, directory.resolve("cache"), currentJar, "1.0.0", install, TIMEOUT);
+    }
+
+    private Path part() {
+        return currentJar.resolveSibling(".tpsnitch-99.0.0.jar.part");
+    }
+
+    private Path newJar() {
+        return currentJar.resolveSibling("TPSnitch-Fabric-99.0.0.jar");
+    }
+
+    private void assertInstalled() throws IOException {
+        assertArrayEquals(update, Files.readAllBytes(newJar()), "The installed jar should be the update");
+        assertFalse(Files.exists(currentJar), "The old jar should be gone");
+        assertFalse(Files.exists(part()), "The part file should have been moved into place");
+    }
+
+    private void serveVersions(HttpExchange exchange) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        ifNoneMatchHeaders.add(String.valueOf(ifNoneMatch));
+        if (ETAG.equals(ifNoneMatch)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        String fileUrl = "http://127.0.0.1:" + server.getAddress().getPort() + FILE_PATH;
+        byte[] body = ("[{\"version_number\":\"99.0.0\",\"files\":[{\"url\":\"" + fileUrl + "\",\"primary\":true,"
+                + "\"hashes\":{\"sha512\":\"" + listedHash + "\"}}]},"
+                + "{\"version_number\":\"1.0.0\",\"files\":[]}]").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Serves the update the way a CDN does: the whole file, the requested tail, or 416 past the end.
+     */
+    private void serveWithRanges(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range == null) {
+            send(exchange, 200, 0);
+            return;
+        }
+        int start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+        if (start >= update.length) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes */" + update.length);
+            exchange.sendResponseHeaders(416, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (update.length - 1) + "/" + update.length);
+        send(exchange, 206, start);
+    }
+
+    private void send(HttpExchange exchange, int status, int from) throws IOException {
+        exchange.sendResponseHeaders(status, update.length - from);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(update, from, update.length - from);
+        }
+    }
+
+    private static String sha512(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-512").digest(data));
+    }
+
+    private static void assertNewer(String newer, String older) {
+        assertTrue(UpdateChecker.compareVersions(newer, older) > 0, newer + " should be newer than " + older);
+        assertTrue(UpdateChecker.compareVersions(older, newer) < 0, older + " should be older than " + newer);
+    }
+}